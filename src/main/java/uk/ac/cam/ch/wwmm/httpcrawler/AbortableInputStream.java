@@ -0,0 +1,41 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that fails with a {@link RequestAbortedException} once its
+ * request is cancelled or past its deadline, so that a body arriving
+ * steadily but slowly cannot hold the request indefinitely.
+ *
+ * @author Sam Adams
+ */
+public class AbortableInputStream extends FilterInputStream {
+
+    private final CrawlerRequest request;
+
+    public AbortableInputStream(final InputStream in, final CrawlerRequest request) {
+        super(in);
+        this.request = request;
+    }
+
+    @Override
+    public int read() throws IOException {
+        request.checkAborted();
+        return super.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        request.checkAborted();
+        return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        request.checkAborted();
+        return super.skip(n);
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Adjusts the interval between requests to each host using additive-
+ * increase/multiplicative-decrease of the request rate.
+ *
+ * <p>Each successful response shortens the host's interval by a fixed
+ * step. A 429 or 503 response, a server error or a connection failure
+ * multiplies it by the back-off factor, as does the 90th percentile of
+ * recent response times exceeding the latency target. Retry-After headers
+ * are honoured. The interval always stays within the floor and ceiling.</p>
+ *
+ * @author Sam Adams
+ */
+public class AdaptiveRateController {
+
+    private static final Logger LOG = Logger.getLogger(AdaptiveRateController.class);
+
+    private static final int LATENCY_WINDOW = 32;
+
+    // Longest Retry-After honoured, so a bogus value can't stall a host indefinitely
+    static final long MAX_RETRY_AFTER_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long initialIntervalMillis;
+    private final long stepMillis;
+    private final double backOffFactor;
+    private final long latencyTargetMillis;
+
+    private final ConcurrentMap<HttpHost,HostState> hosts = new ConcurrentHashMap<HttpHost,HostState>();
+
+    /**
+     * @param minIntervalMillis     shortest interval between requests to a host
+     * @param maxIntervalMillis     longest interval between requests to a host
+     * @param initialIntervalMillis interval for a host not yet seen
+     * @param stepMillis            amount the interval is reduced by after each success
+     * @param backOffFactor         amount the interval is multiplied by on congestion
+     * @param latencyTargetMillis   90th percentile response time above which a host
+     *                              is considered congested; 0 to ignore latency
+     */
+    public AdaptiveRateController(final long minIntervalMillis, final long maxIntervalMillis, final long initialIntervalMillis,
+                                  final long stepMillis, final double backOffFactor, final long latencyTargetMillis) {
+        if (minIntervalMillis < 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Bad interval bounds: "+minIntervalMillis+", "+maxIntervalMillis);
+        }
+        if (backOffFactor <= 1) {
+            throw new IllegalArgumentException("backOffFactor must be greater than 1: "+backOffFactor);
+        }
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.initialIntervalMillis = clamp(initialIntervalMillis);
+        this.stepMillis = stepMillis;
+        this.backOffFactor = backOffFactor;
+        this.latencyTargetMillis = latencyTargetMillis;
+    }
+
+    private HostState getHostState(final HttpHost host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            state = new HostState(initialIntervalMillis);
+            final HostState tmp = hosts.putIfAbsent(host, state);
+            if (tmp != null) {
+                state = tmp;
+            }
+        }
+        return state;
+    }
+
+    public long getIntervalMillis(final HttpHost host) {
+        final HostState state = hosts.get(host);
+        return state == null ? initialIntervalMillis : (long) state.interval;
+    }
+
+    /**
+     * Returns the current interval for each host seen, keyed by host URI.
+     */
+    public Map<String,Long> getIntervals() {
+        final Map<String,Long> intervals = new TreeMap<String,Long>();
+        for (final Map.Entry<HttpHost,HostState> e : hosts.entrySet()) {
+            final HostState state = e.getValue();
+            synchronized (state) {
+                intervals.put(e.getKey().toURI(), (long) state.interval);
+            }
+        }
+        return intervals;
+    }
+
+    /**
+     * Reserves the next request slot for host. A Retry-After received
+     * while waiting for the slot can defer it; see {@link #isDeferred}.
+     *
+     * @return the time at which the request may be sent
+     */
+    public long reserve(final HttpHost host) {
+        final HostState state = getHostState(host);
+        synchronized (state) {
+            final long now = System.currentTimeMillis();
+            final long time = Math.max(now, state.nextTime);
+            state.nextTime = time + (long) state.interval;
+            return time;
+        }
+    }
+
+    /**
+     * Returns whether a slot reserved for time falls within a Retry-After
+     * period received since, in which case the caller must reserve again.
+     */
+    public boolean isDeferred(final HttpHost host, final long time) {
+        final HostState state = getHostState(host);
+        synchronized (state) {
+            return time < state.retryAfterTime;
+        }
+    }
+
+    public void onResponse(final HttpHost host, final HttpResponse response, final long latencyMillis) {
+        final int status = response.getStatusLine().getStatusCode();
+        if (status == 429 || status == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            onCongestion(host, getRetryAfterMillis(response));
+        } else if (status >= 500) {
+            onCongestion(host, 0);
+        } else {
+            onSuccess(host, latencyMillis);
+        }
+    }
+
+    public void onError(final HttpHost host) {
+        onCongestion(host, 0);
+    }
+
+    private void onSuccess(final HttpHost host, final long latencyMillis) {
+        final HostState state = getHostState(host);
+        synchronized (state) {
+            state.latencies[state.index] = latencyMillis;
+            state.index = (state.index + 1) % LATENCY_WINDOW;
+            // Judge latency once per window of samples
+            if (++state.samples >= LATENCY_WINDOW) {
+                state.samples = 0;
+                if (latencyTargetMillis > 0 && state.getLatencyPercentile(0.9) > latencyTargetMillis) {
+                    increase(host, state);
+                    return;
+                }
+            }
+            state.interval = clamp(state.interval - stepMillis);
+        }
+    }
+
+    private void onCongestion(final HttpHost host, final long retryAfterMillis) {
+        final HostState state = getHostState(host);
+        synchronized (state) {
+            increase(host, state);
+            if (retryAfterMillis > 0) {
+                state.retryAfterTime = Math.max(state.retryAfterTime, System.currentTimeMillis() + retryAfterMillis);
+                state.nextTime = Math.max(state.nextTime, state.retryAfterTime);
+            }
+        }
+    }
+
+    private void increase(final HttpHost host, final HostState state) {
+        state.interval = clamp(Math.max(state.interval, 1) * backOffFactor);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Request interval for "+host.toURI()+" now "+(long) state.interval+"ms");
+        }
+    }
+
+    private double clamp(final double interval) {
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    private long clamp(final long interval) {
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date,
+     * capped at {@link #MAX_RETRY_AFTER_MILLIS}.
+     */
+    static long getRetryAfterMillis(final HttpResponse response) {
+        final Header header = response.getFirstHeader("Retry-After");
+        if (header == null) {
+            return 0;
+        }
+        final String value = header.getValue().trim();
+        try {
+            // Capped before scaling, as a huge value would overflow
+            final long seconds = Math.min(Long.parseLong(value), MAX_RETRY_AFTER_MILLIS / 1000);
+            return Math.max(0, seconds * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                final long millis = DateUtils.parseDate(value).getTime() - System.currentTimeMillis();
+                return Math.max(0, Math.min(millis, MAX_RETRY_AFTER_MILLIS));
+            } catch (DateParseException e1) {
+                return 0;
+            }
+        }
+    }
+
+    private static class HostState {
+
+        private double interval;
+        private long nextTime;
+        private long retryAfterTime;
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int index;
+        private int samples;
+
+        private HostState(final long interval) {
+            this.interval = interval;
+        }
+
+        private long getLatencyPercentile(final double p) {
+            final long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(LATENCY_WINDOW - 1, Math.floor(p * LATENCY_WINDOW))];
+        }
+
+    }
+
+}
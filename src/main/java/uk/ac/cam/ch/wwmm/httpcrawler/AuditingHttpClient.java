@@ -1,7 +1,9 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.*;
+import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestExecutor;
@@ -18,6 +20,13 @@ public class AuditingHttpClient extends DefaultHttpClient {
 
     public AuditingHttpClient(final RequestAuditor auditor) {
         this.auditor = auditor;
+        setRedirectStrategy(new RecordingRedirectStrategy());
+    }
+
+    public AuditingHttpClient(final ClientConnectionManager connectionManager, final RequestAuditor auditor) {
+        super(connectionManager);
+        this.auditor = auditor;
+        setRedirectStrategy(new RecordingRedirectStrategy());
     }
 
     @Override
@@ -50,6 +59,18 @@ public class AuditingHttpClient extends DefaultHttpClient {
         }
     }
 
+    private static class RecordingRedirectStrategy extends DefaultRedirectStrategy {
+
+        @Override
+        public boolean isRedirected(final HttpRequest request, final HttpResponse response, final HttpContext context) throws ProtocolException {
+            final boolean redirected = super.isRedirected(request, response, context);
+            if (redirected && FetcherParams.getRedirectStatus(context) == null) {
+                FetcherParams.setRedirectStatus(context, response.getStatusLine().getStatusCode());
+            }
+            return redirected;
+        }
+    }
+
     private void auditResponse(final HttpRequest request, final HttpContext context, final long timestamp, final HttpResponse response) {
         if (auditor != null) {
             final HttpHost host = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.client.methods.AbortableHttpRequest;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle for cancelling requests, e.g. those of a crawl job that is no
+ * longer wanted. It may be given to any number of requests.
+ *
+ * <p>Cancelling wakes requests waiting to be sent, and aborts those in
+ * progress, closing their connections. Their calls to execute then fail
+ * with a {@link RequestAbortedException}.</p>
+ *
+ * @author Sam Adams
+ */
+public class Cancellation {
+
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private final CopyOnWriteArrayList<AbortableHttpRequest> requests = new CopyOnWriteArrayList<AbortableHttpRequest>();
+
+    public void cancel() {
+        cancelled.countDown();
+        for (final AbortableHttpRequest request : requests) {
+            request.abort();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+    /**
+     * Waits for up to timeout for cancellation.
+     *
+     * @return true if cancelled
+     */
+    boolean await(final long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        return cancelled.await(timeout, timeUnit);
+    }
+
+    /**
+     * Registers a request in progress, to be aborted on cancellation. It
+     * is aborted at once if already cancelled.
+     */
+    void register(final AbortableHttpRequest request) {
+        requests.add(request);
+        if (isCancelled()) {
+            request.abort();
+        }
+    }
+
+    void unregister(final AbortableHttpRequest request) {
+        requests.remove(request);
+    }
+
+}
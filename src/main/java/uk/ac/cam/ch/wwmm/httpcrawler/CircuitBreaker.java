@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+import org.apache.log4j.Logger;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.CircuitAuditor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-host circuit breaker.
+ *
+ * <p>After <code>failureThreshold</code> consecutive failures a host's
+ * circuit opens, and requests to it are refused for
+ * <code>openMillis</code>. A single probe request is then let through: if
+ * it succeeds the circuit closes, otherwise it opens again.</p>
+ *
+ * @author Sam Adams
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = Logger.getLogger(CircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final CircuitAuditor auditor;
+
+    private final ConcurrentMap<HttpHost,Circuit> circuits = new ConcurrentHashMap<HttpHost,Circuit>();
+
+    public CircuitBreaker(final int failureThreshold, final long openMillis) {
+        this(failureThreshold, openMillis, null);
+    }
+
+    public CircuitBreaker(final int failureThreshold, final long openMillis, final CircuitAuditor auditor) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive: "+failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.auditor = auditor;
+    }
+
+    public CircuitState getState(final HttpHost host) {
+        final Circuit circuit = circuits.get(host);
+        return circuit == null ? CircuitState.CLOSED : circuit.state;
+    }
+
+    /**
+     * Returns the state of each host whose circuit is not closed.
+     */
+    public Map<HttpHost,CircuitState> getStates() {
+        final Map<HttpHost,CircuitState> states = new HashMap<HttpHost,CircuitState>();
+        for (final Map.Entry<HttpHost,Circuit> e : circuits.entrySet()) {
+            final CircuitState state = e.getValue().state;
+            if (state != CircuitState.CLOSED) {
+                states.put(e.getKey(), state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns true if a request to host may proceed. A true result for a
+     * host whose circuit is not closed makes the caller the probe, which
+     * must report its outcome with {@link #recordSuccess} or
+     * {@link #recordFailure}.
+     */
+    public boolean allowRequest(final HttpHost host) {
+        final Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            return true;
+        }
+        final CircuitState previous;
+        synchronized (circuit) {
+            final long now = System.currentTimeMillis();
+            if (circuit.state == CircuitState.CLOSED) {
+                return true;
+            }
+            if (now < circuit.retryTime) {
+                return false;
+            }
+            // Let one probe through; if it never reports back, allow another after openMillis
+            previous = circuit.state;
+            circuit.state = CircuitState.HALF_OPEN;
+            circuit.retryTime = now + openMillis;
+        }
+        if (previous != CircuitState.HALF_OPEN) {
+            changed(host, previous, CircuitState.HALF_OPEN);
+        }
+        return true;
+    }
+
+    public void recordSuccess(final HttpHost host) {
+        final Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            return;
+        }
+        final CircuitState previous;
+        synchronized (circuit) {
+            previous = circuit.state;
+            circuit.state = CircuitState.CLOSED;
+            circuit.failures = 0;
+        }
+        if (previous != CircuitState.CLOSED) {
+            changed(host, previous, CircuitState.CLOSED);
+        }
+    }
+
+    public void recordFailure(final HttpHost host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            final Circuit tmp = circuits.putIfAbsent(host, circuit = new Circuit());
+            if (tmp != null) {
+                circuit = tmp;
+            }
+        }
+        final CircuitState previous;
+        synchronized (circuit) {
+            previous = circuit.state;
+            circuit.failures++;
+            if (previous == CircuitState.CLOSED && circuit.failures < failureThreshold) {
+                return;
+            }
+            circuit.state = CircuitState.OPEN;
+            circuit.retryTime = System.currentTimeMillis() + openMillis;
+        }
+        if (previous != CircuitState.OPEN) {
+            changed(host, previous, CircuitState.OPEN);
+        }
+    }
+
+    private void changed(final HttpHost host, final CircuitState previous, final CircuitState state) {
+        if (state == CircuitState.OPEN) {
+            LOG.warn("Circuit open: "+host.toURI());
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("Circuit "+state+": "+host.toURI());
+        }
+        if (auditor != null) {
+            auditor.auditCircuitChange(System.currentTimeMillis(), host, previous, state);
+        }
+    }
+
+    private static class Circuit {
+
+        private volatile CircuitState state = CircuitState.CLOSED;
+        private int failures;
+        private long retryTime;
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of contacting a host whose circuit breaker is open.
+ *
+ * @author Sam Adams
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HttpHost host;
+
+    public CircuitOpenException(final HttpHost host) {
+        super("Circuit open: "+host.toURI());
+        this.host = host;
+    }
+
+    public HttpHost getHost() {
+        return host;
+    }
+
+}
@@ -0,0 +1,19 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+/**
+ * State of a per-host {@link CircuitBreaker}.
+ *
+ * @author Sam Adams
+ */
+public enum CircuitState {
+
+    /** Requests flow normally. */
+    CLOSED,
+
+    /** Requests fail fast without contacting the host. */
+    OPEN,
+
+    /** A single probe request is allowed through to test the host. */
+    HALF_OPEN
+
+}
@@ -16,6 +16,7 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.cookie.Cookie;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 import java.net.URI;
@@ -33,5 +34,14 @@ public class CrawlerGetRequest extends CrawlerRequest {
     public CrawlerGetRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies) {
         super(url, id, maxAge, referrer, cookies);
     }
+
+    public CrawlerGetRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies, final Duration staleWhileRevalidate) {
+        super(url, id, maxAge, referrer, cookies, staleWhileRevalidate);
+    }
+
+    public CrawlerGetRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies,
+                             final Duration staleWhileRevalidate, final DateTime deadline, final Cancellation cancellation) {
+        super(url, id, maxAge, referrer, cookies, staleWhileRevalidate, deadline, cancellation);
+    }
     
 }
@@ -16,6 +16,7 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.NameValuePair;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 import java.net.URI;
@@ -41,6 +42,12 @@ public class CrawlerPostRequest extends CrawlerRequest {
         this.parameters = Arrays.asList(parameters);
     }
 
+    public CrawlerPostRequest(final URI uri, final List<? extends NameValuePair> parameters, final String id, final Duration maxAge,
+                              final DateTime deadline, final Cancellation cancellation) {
+        super(uri, id, maxAge, null, null, null, deadline, cancellation);
+        this.parameters = new ArrayList<NameValuePair>(parameters);
+    }
+
     public List<NameValuePair> getParameters() {
         return Collections.unmodifiableList(parameters);
     }
@@ -16,6 +16,7 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.cookie.Cookie;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 import java.net.URI;
@@ -31,17 +32,32 @@ public abstract class CrawlerRequest {
     private final Duration maxAge;
     private final URI referrer;
     private final Collection<Cookie> cookies;
+    private final Duration staleWhileRevalidate;
+    private final DateTime deadline;
+    private final Cancellation cancellation;
 
     public CrawlerRequest(final URI url, final String id, final Duration maxAge) {
         this(url, id, maxAge, null, null);
     }
     
     public CrawlerRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies) {
+        this(url, id, maxAge, referrer, cookies, null);
+    }
+
+    public CrawlerRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies, final Duration staleWhileRevalidate) {
+        this(url, id, maxAge, referrer, cookies, staleWhileRevalidate, null, null);
+    }
+
+    public CrawlerRequest(final URI url, final String id, final Duration maxAge, final URI referrer, final Collection<Cookie> cookies,
+                          final Duration staleWhileRevalidate, final DateTime deadline, final Cancellation cancellation) {
         this.url = url;
         this.id = id;
         this.maxAge = maxAge;
         this.referrer = referrer;
         this.cookies = cookies;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
     }
 
     public String getId() {
@@ -63,4 +79,69 @@ public abstract class CrawlerRequest {
     public Collection<Cookie> getCookies() {
         return cookies;
     }
+
+    /**
+     * Returns how long past its max-age a cached response may be returned
+     * (marked stale) while it is refreshed in the background, or null to
+     * use the fetcher's default.
+     */
+    public Duration getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Returns the time by which the request must complete, or null for no
+     * deadline. The fetcher gives up waiting, retrying or reading once it
+     * has passed, and does not start waits that would end after it.
+     */
+    public DateTime getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the handle by which the request may be cancelled, or null.
+     */
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    boolean isAbortable() {
+        return deadline != null || cancellation != null;
+    }
+
+    /**
+     * Returns the time left before the deadline, or Long.MAX_VALUE if there
+     * is none.
+     */
+    long getRemainingMillis() {
+        return deadline == null ? Long.MAX_VALUE : deadline.getMillis() - System.currentTimeMillis();
+    }
+
+    /**
+     * Throws a {@link RequestAbortedException} if the request has been
+     * cancelled or its deadline has passed.
+     */
+    void checkAborted() throws RequestAbortedException {
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new RequestAbortedException(url, true);
+        }
+        if (getRemainingMillis() <= 0) {
+            throw new RequestAbortedException(url, false);
+        }
+    }
+
+    /**
+     * Returns the canonical form of the URL, under which trivially different
+     * URLs for the same resource compare equal.
+     */
+    public String getCanonicalUrl() {
+        return UrlCanonicalizer.canonicalize(url);
+    }
+
+    /**
+     * Returns the 64-bit fingerprint of the canonical URL.
+     */
+    public long getFingerprint() {
+        return UrlFingerprint.fingerprint64(url);
+    }
 }
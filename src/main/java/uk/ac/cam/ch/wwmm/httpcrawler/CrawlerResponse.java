@@ -22,7 +22,12 @@ import org.apache.http.protocol.HttpContext;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +37,14 @@ import java.util.List;
  */
 public class CrawlerResponse {
 
+    /**
+     * Charset assumed for text entities that do not declare one (RFC 2616, section 3.7.1).
+     */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_INITIAL_CAPACITY = 1024 * 1024;
+
     private final URI url;
     private final List<Header> headers;
     private InputStream content;
@@ -43,7 +56,7 @@ public class CrawlerResponse {
         this.headers = new ArrayList<Header>(headers);
         this.content = content;
         this.fromCache = fromCache;
-        this.stale = true;
+        this.stale = stale;
     }
 
     public URI getUrl() {
@@ -100,12 +113,101 @@ public class CrawlerResponse {
     }
     
     public String getEntityAsString() throws IOException {
-        String encoding = getCharacterEncoding();
+        final CharBuffer buffer = readEntity(DecodingReader.UNLIMITED);
+        return new String(buffer.array(), buffer.arrayOffset(), buffer.limit());
+    }
+
+    /**
+     * Returns a reader that decodes the entity incrementally using the
+     * declared charset (or {@link #DEFAULT_CHARSET}). Closing the reader
+     * closes the response.
+     */
+    public Reader getEntityAsReader() {
+        return getEntityAsReader(DecodingReader.UNLIMITED);
+    }
+
+    /**
+     * As {@link #getEntityAsReader()}, but the reader throws an
+     * {@link EntityTooLargeException} once more than maxBytes have been read.
+     */
+    public synchronized Reader getEntityAsReader(final long maxBytes) {
+        final Reader reader = new DecodingReader(getContent(), getCharset(), maxBytes);
+        content = null;
+        return reader;
+    }
+
+    /**
+     * Decodes the entity into a single buffer, without the intermediate
+     * copies made when building a String.
+     */
+    public CharSequence getEntityAsCharSequence() throws IOException {
+        return getEntityAsCharSequence(DecodingReader.UNLIMITED);
+    }
+
+    public CharSequence getEntityAsCharSequence(final long maxBytes) throws IOException {
+        return readEntity(maxBytes);
+    }
+
+    private CharBuffer readEntity(final long maxBytes) throws IOException {
+        final Reader reader = getEntityAsReader(maxBytes);
         try {
-            return IOUtils.toString(content, encoding);
+            CharBuffer buffer = CharBuffer.allocate(getInitialCapacity(maxBytes));
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    final CharBuffer tmp = CharBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    tmp.put(buffer);
+                    buffer = tmp;
+                }
+                if (reader.read(buffer) == -1) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
         } finally {
-            closeQuietly();
+            reader.close();
+        }
+    }
+
+    /**
+     * Sizes the buffer from the declared Content-Length, which is not
+     * trusted beyond maxBytes or {@link #MAX_INITIAL_CAPACITY}; larger
+     * entities grow the buffer as they are actually read.
+     */
+    private int getInitialCapacity(final long maxBytes) {
+        final Header contentLength = getFirstHeader("Content-Length");
+        if (contentLength != null) {
+            try {
+                final long length = Long.parseLong(contentLength.getValue().trim());
+                if (length > 0) {
+                    // Never more chars than bytes for the charsets we see
+                    final long limit = maxBytes == DecodingReader.UNLIMITED ? length : Math.min(length, maxBytes);
+                    return (int) Math.min(limit + 1, MAX_INITIAL_CAPACITY);
+                }
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return DEFAULT_CAPACITY;
+    }
+
+    /**
+     * Returns the declared charset, or {@link #DEFAULT_CHARSET} if none is
+     * declared or the declared charset is not supported.
+     */
+    public Charset getCharset() {
+        final String encoding = getCharacterEncoding();
+        if (encoding != null) {
+            try {
+                return Charset.forName(encoding.trim().replace("\"", ""));
+            } catch (IllegalCharsetNameException e) {
+                // fall through
+            } catch (UnsupportedCharsetException e) {
+                // fall through
+            }
         }
+        return DEFAULT_CHARSET;
     }
 
     public String getCharacterEncoding() {
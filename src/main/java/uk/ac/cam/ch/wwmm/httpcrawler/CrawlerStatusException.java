@@ -0,0 +1,59 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when a server answers a request with an unsuccessful status,
+ * or when such an answer is replayed from the cache.
+ *
+ * @author Sam Adams
+ */
+public class CrawlerStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final URI url;
+    private final List<Header> headers;
+    private final byte[] body;
+    private final boolean fromCache;
+
+    public CrawlerStatusException(final String message, final int status, final URI url, final List<? extends Header> headers, final byte[] body, final boolean fromCache) {
+        super(message);
+        this.status = status;
+        this.url = url;
+        this.headers = new ArrayList<Header>(headers);
+        this.body = body;
+        this.fromCache = fromCache;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public List<Header> getHeaders() {
+        return Collections.unmodifiableList(headers);
+    }
+
+    /**
+     * Returns the response body, or null if it was not kept.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+}
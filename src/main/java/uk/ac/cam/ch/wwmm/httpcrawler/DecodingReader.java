@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reader that incrementally decodes a byte stream, optionally refusing
+ * to read more than a fixed number of bytes.
+ *
+ * <p>Decoders are borrowed from a per-thread pool and returned when the
+ * reader is closed, so repeated reads of the same charset do not allocate
+ * a new decoder each time.</p>
+ *
+ * @author Sam Adams
+ */
+public class DecodingReader extends Reader {
+
+    public static final long UNLIMITED = -1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<Map<Charset,CharsetDecoder>> DECODERS = new ThreadLocal<Map<Charset,CharsetDecoder>>() {
+        @Override
+        protected Map<Charset,CharsetDecoder> initialValue() {
+            return new HashMap<Charset,CharsetDecoder>();
+        }
+    };
+
+    private final InputStream in;
+    private final Charset charset;
+    private final long maxBytes;
+    private final ByteBuffer bytes;
+
+    private CharsetDecoder decoder;
+    private long bytesRead;
+    private boolean endOfInput;
+    private boolean flushing;
+    private boolean flushed;
+
+    public DecodingReader(final InputStream in, final Charset charset) {
+        this(in, charset, UNLIMITED);
+    }
+
+    public DecodingReader(final InputStream in, final Charset charset, final long maxBytes) {
+        this.in = in;
+        this.charset = charset;
+        this.maxBytes = maxBytes;
+        this.decoder = borrowDecoder(charset);
+        this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        this.bytes.flip();
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        final CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if (flushed) {
+                return -1;
+            }
+            if (!flushing) {
+                final CoderResult result = decoder.decode(bytes, out, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (result.isUnderflow()) {
+                    if (endOfInput) {
+                        flushing = true;
+                    } else if (out.position() == off) {
+                        fill();
+                    }
+                }
+            }
+            // Once flushing, the decoder may not decode again; an overflowing
+            // flush is resumed by the next read
+            if (flushing && decoder.flush(out).isUnderflow()) {
+                flushed = true;
+            }
+        }
+        return out.position() - off;
+    }
+
+    private void fill() throws IOException {
+        bytes.compact();
+        final int n = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        if (n == -1) {
+            endOfInput = true;
+        } else {
+            bytes.position(bytes.position() + n);
+            bytesRead += n;
+            if (maxBytes != UNLIMITED && bytesRead > maxBytes) {
+                throw new EntityTooLargeException("Entity exceeds limit of " + maxBytes + " bytes");
+            }
+        }
+        bytes.flip();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (decoder == null) {
+            throw new IOException("Reader closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (decoder != null) {
+            try {
+                in.close();
+            } finally {
+                returnDecoder(charset, decoder);
+                decoder = null;
+            }
+        }
+    }
+
+    private static CharsetDecoder borrowDecoder(final Charset charset) {
+        final CharsetDecoder decoder = DECODERS.get().remove(charset);
+        if (decoder != null) {
+            return decoder.reset();
+        }
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void returnDecoder(final Charset charset, final CharsetDecoder decoder) {
+        DECODERS.get().put(charset, decoder);
+    }
+
+}
@@ -16,36 +16,69 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.*;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.AbortableHttpRequest;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.utils.URIUtils;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
+import org.joda.time.Duration;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.TransferAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.ContentEncoding;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.HttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.FetcherMetrics;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.Gauge;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.HostGauge;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.MetricsRegistry;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
@@ -55,19 +88,53 @@ public class DefaultHttpFetcher implements HttpFetcher {
 
     private static final Logger LOG = Logger.getLogger(DefaultHttpFetcher.class);
 
+    public static final String FINGERPRINT_ID_PREFIX = "fp:";
+
     private static final int MAX_RETRIES_ON_IO_ERROR = 3;
 
+    /** Bodies larger than this, or of unknown length, are spooled to disk while downloading */
+    private static final long SPOOL_THRESHOLD = 1024 * 1024;
+
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE_SIZE = 1024;
+
+    /** Longest wait for a lock or permit between checks for cancellation */
+    private static final long ABORT_POLL_MILLIS = 100;
+
     private final HttpCache cache;
     private final HttpClient client;
 
     private final long maxBackoffSeconds = TimeUnit.HOURS.toSeconds(4);
 
+    private final Lock throttleLock = new ReentrantLock(true);
     private long requestStepMillis = 1000l;
     private long lastRequestTime;
 
     private long backOffSeconds;
     private long backOffStepSeconds = 1;
 
+    private String acceptEncoding;
+
+    private final Map<Integer,Duration> negativeCacheTtls = new ConcurrentHashMap<Integer,Duration>();
+    private boolean negativeCacheBodies;
+
+    private RedirectCache redirectCache;
+    private boolean fingerprintCacheKeys;
+
+    private SessionPool sessionPool;
+
+    private Duration staleWhileRevalidate;
+    private CircuitBreaker circuitBreaker;
+    private AdaptiveRateController rateController;
+    private HostConcurrencyLimiter concurrencyLimiter;
+    private TokenBucket requestRateLimit;
+    private TokenBucket bandwidthLimit;
+    private ExecutorService refreshExecutor;
+    private ScheduledExecutorService deadlineTimer;
+    private FetcherMetrics metrics;
+    private TransferAuditor transferAuditor;
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
     public DefaultHttpFetcher(final HttpClient client) {
         this.client = client;
         this.cache = null;
@@ -78,34 +145,454 @@ public class DefaultHttpFetcher implements HttpFetcher {
         this.cache = cache;
     }
 
-    protected synchronized HttpClient getClient() {
-        final long backOffMillis = SECONDS.toMillis(backOffSeconds);
-        final long delay = (requestStepMillis > 0) ? requestStepMillis + backOffMillis : backOffMillis;
-        sleepUntil(lastRequestTime + delay);
-        lastRequestTime = System.currentTimeMillis();
+    protected HttpClient getClient() throws InterruptedIOException {
+        throttle(null);
+        return client;
+    }
+
+    protected HttpClient getClient(final HttpHost host) throws InterruptedIOException {
+        return getClient(host, null);
+    }
+
+    /**
+     * Returns the client once a request to host may be sent, taking account
+     * of the global request rate, the per-host rate controller, if any, and
+     * the fetcher-wide request step and back-off. If request is not null,
+     * fails with a {@link RequestAbortedException} once it is cancelled, or
+     * as soon as it is clear that it cannot be sent by its deadline.
+     */
+    protected HttpClient getClient(final HttpHost host, final CrawlerRequest request) throws InterruptedIOException {
+        if (requestRateLimit != null) {
+            if (isAbortable(request)) {
+                final long waitNanos = requestRateLimit.reserve(1, MILLISECONDS.toNanos(getRemainingMillis(request)));
+                if (waitNanos < 0) {
+                    throw new RequestAbortedException(request.getUrl(), false);
+                }
+                sleepUntil(System.currentTimeMillis() + NANOSECONDS.toMillis(waitNanos + 999999), request);
+            } else {
+                requestRateLimit.acquire(1);
+            }
+        }
+        if (rateController != null) {
+            long time = rateController.reserve(host);
+            sleepUntil(time, request);
+            // A request to the host may have been told to retry later meanwhile
+            while (rateController.isDeferred(host, time)) {
+                time = rateController.reserve(host);
+                sleepUntil(time, request);
+            }
+        }
+        throttle(request);
         return client;
     }
 
-    private void sleepUntil(final long targetTime) {
-        long now = System.currentTimeMillis();
-        while (now < targetTime) {
-            LockSupport.parkNanos((targetTime - now) * 1000000);
-            now = System.currentTimeMillis();
+    private void throttle(final CrawlerRequest request) throws InterruptedIOException {
+        // Fair lock, so requests are released in the order they arrived
+        lockThrottle(request);
+        try {
+            final long backOffMillis = SECONDS.toMillis(backOffSeconds);
+            final long delay = (requestStepMillis > 0) ? requestStepMillis + backOffMillis : backOffMillis;
+            sleepUntil(lastRequestTime + delay, request);
+            lastRequestTime = System.currentTimeMillis();
+        } finally {
+            throttleLock.unlock();
+        }
+    }
+
+    private void lockThrottle(final CrawlerRequest request) throws InterruptedIOException {
+        if (!isAbortable(request)) {
+            throttleLock.lock();
+            return;
+        }
+        try {
+            while (!throttleLock.tryLock(Math.min(ABORT_POLL_MILLIS, getRemainingMillis(request)), MILLISECONDS)) {
+                request.checkAborted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling");
+        }
+    }
+
+    private void acquireSlot(final HttpHost host, final CrawlerRequest request) throws InterruptedIOException {
+        if (!isAbortable(request)) {
+            concurrencyLimiter.acquire(host);
+            return;
+        }
+        while (!concurrencyLimiter.tryAcquire(host, Math.min(ABORT_POLL_MILLIS, getRemainingMillis(request)), MILLISECONDS)) {
+            request.checkAborted();
         }
     }
 
+    /**
+     * Waits until targetTime. If request is not null, fails at once if
+     * its deadline is before targetTime, and wakes if it is cancelled.
+     */
+    private static void sleepUntil(final long targetTime, final CrawlerRequest request) throws InterruptedIOException {
+        final long delay = targetTime - System.currentTimeMillis();
+        if (delay <= 0) {
+            return;
+        }
+        final Cancellation cancellation = request == null ? null : request.getCancellation();
+        if (request != null) {
+            request.checkAborted();
+            if (request.getDeadline() != null && targetTime > request.getDeadline().getMillis()) {
+                // Give up now, rather than wait only to miss the deadline
+                throw new RequestAbortedException(request.getUrl(), false);
+            }
+        }
+        try {
+            if (cancellation != null) {
+                if (cancellation.await(delay, MILLISECONDS)) {
+                    throw new RequestAbortedException(request.getUrl(), true);
+                }
+            } else {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling");
+        }
+    }
+
+    private static boolean isAbortable(final CrawlerRequest request) {
+        return request != null && request.isAbortable();
+    }
+
+    private static long getRemainingMillis(final CrawlerRequest request) {
+        return request == null ? Long.MAX_VALUE : request.getRemainingMillis();
+    }
+
+    /**
+     * Limits the connect and socket timeouts of an attempt to the time left
+     * before request's deadline.
+     */
+    private void limitTimeouts(final HttpUriRequest httpRequest, final CrawlerRequest request) {
+        if (request.getDeadline() == null) {
+            return;
+        }
+        final int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, getRemainingMillis(request)));
+        final HttpParams params = client.getParams();
+        final int connectionTimeout = HttpConnectionParams.getConnectionTimeout(params);
+        final int soTimeout = HttpConnectionParams.getSoTimeout(params);
+        HttpConnectionParams.setConnectionTimeout(httpRequest.getParams(),
+                connectionTimeout == 0 ? remaining : Math.min(connectionTimeout, remaining));
+        HttpConnectionParams.setSoTimeout(httpRequest.getParams(),
+                soTimeout == 0 ? remaining : Math.min(soTimeout, remaining));
+    }
+
+    /**
+     * Schedules httpRequest to be aborted at request's deadline, so that a
+     * slow body cannot hold the request past it.
+     */
+    private ScheduledFuture<?> scheduleAbort(final AbortableHttpRequest httpRequest, final CrawlerRequest request) {
+        if (request.getDeadline() == null) {
+            return null;
+        }
+        return getDeadlineTimer().schedule(new Runnable() {
+            public void run() {
+                httpRequest.abort();
+            }
+        }, Math.max(0, getRemainingMillis(request)), MILLISECONDS);
+    }
+
+    private synchronized ScheduledExecutorService getDeadlineTimer() {
+        if (deadlineTimer == null) {
+            final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "httpfetcher-deadline");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // Most requests finish in time, so don't keep their tasks
+            timer.setRemoveOnCancelPolicy(true);
+            deadlineTimer = timer;
+        }
+        return deadlineTimer;
+    }
+
     protected HttpCache getCache() {
         return cache;
     }
 
+    /**
+     * Returns the current fetcher-wide back-off, which is not used when
+     * a rate controller backs off per host.
+     */
+    public long getBackOffSeconds() {
+        return backOffSeconds;
+    }
+
     public long getRequestStepMillis() {
         return requestStepMillis;
     }
 
+    /**
+     * Sets the minimum interval between any two requests, across all hosts;
+     * 0 for none. This serialises the fetcher, so should be set to 0 when
+     * politeness is left to a rate controller, request rate limit or
+     * concurrency limiter, as {@link HttpFetcherBuilder} does.
+     */
     public void setRequestStepMillis(final long requestStepMillis) {
         this.requestStepMillis = requestStepMillis;
     }
 
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * Sets the Accept-Encoding header sent with each request, e.g. "gzip, deflate";
+     * null to request unencoded content.
+     */
+    public void setAcceptEncoding(final String acceptEncoding) {
+        this.acceptEncoding = acceptEncoding;
+    }
+
+    /**
+     * Caches responses with the given status for up to ttl, so that repeat
+     * requests fail with a {@link CrawlerStatusException} without a network
+     * call. A request's own max-age is respected if it is shorter. A cached
+     * successful response is not replaced by a failure.
+     */
+    public void setNegativeCacheTtl(final int status, final Duration ttl) {
+        if (ttl == null) {
+            negativeCacheTtls.remove(status);
+        } else {
+            negativeCacheTtls.put(status, ttl);
+        }
+    }
+
+    public Duration getNegativeCacheTtl(final int status) {
+        return negativeCacheTtls.get(status);
+    }
+
+    public Duration getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * Sets how long past its max-age a cached response may be returned,
+     * marked stale, while a fresh copy is fetched in the background. Requests
+     * may override this. Null disables stale-while-revalidate by default.
+     * Refreshes use the client from other threads, so it must have a
+     * thread-safe connection manager.
+     */
+    public void setStaleWhileRevalidate(final Duration staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Sets the executor used for background refreshes. If none is set, a
+     * small bounded pool is created when first needed; refreshes that do
+     * not fit in its queue are dropped. An executor that cannot take a
+     * refresh must throw {@link RejectedExecutionException}, as with
+     * {@link ThreadPoolExecutor.AbortPolicy}, rather than silently discard
+     * it, or the entry will not be refreshed again.
+     */
+    public synchronized void setRefreshExecutor(final ExecutorService refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    protected synchronized ExecutorService getRefreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 60, SECONDS,
+                    new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "httpfetcher-refresh-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        return refreshExecutor;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the per-host circuit breaker; null to disable. While a host's
+     * circuit is open, requests to it are answered with a stale cached copy
+     * if there is one, and otherwise fail with a {@link CircuitOpenException}.
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public AdaptiveRateController getRateController() {
+        return rateController;
+    }
+
+    /**
+     * Sets a controller that adapts the interval between requests to each
+     * host; null to disable. While set, it replaces the fetcher-wide
+     * back-off; the fetcher-wide request step still applies.
+     */
+    public void setRateController(final AdaptiveRateController rateController) {
+        this.rateController = rateController;
+    }
+
+    public HostConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the limit on concurrent requests to each host; null for no limit.
+     * The client's connection manager must allow as many connections, and
+     * the request step should be 0 or requests will still be sent one at a
+     * time.
+     */
+    public void setConcurrencyLimiter(final HostConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public TokenBucket getRequestRateLimit() {
+        return requestRateLimit;
+    }
+
+    /**
+     * Sets a bucket from which one token is taken for each request sent, to
+     * all hosts; null for no limit.
+     */
+    public void setRequestRateLimit(final TokenBucket requestRateLimit) {
+        this.requestRateLimit = requestRateLimit;
+    }
+
+    public TokenBucket getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * Sets a bucket from which one token is taken for each byte of response
+     * body read, from all hosts; null for no limit.
+     */
+    public void setBandwidthLimit(final TokenBucket bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
+    public FetcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the counters the fetcher updates, and registers gauges for its
+     * back-off, rate control, circuit and refresh state in the same
+     * registry; null to stop counting.
+     */
+    public void setMetrics(final FetcherMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics == null) {
+            return;
+        }
+        final MetricsRegistry registry = metrics.getRegistry();
+        registry.gauge("httpcrawler_backoff_seconds", "Current fetcher-wide back-off", new Gauge() {
+            public double getValue() {
+                return backOffSeconds;
+            }
+        });
+        registry.hostGauge("httpcrawler_host_interval_milliseconds", "Current adaptive request interval per host", new HostGauge() {
+            public Map<String,Long> getValues() {
+                final AdaptiveRateController controller = rateController;
+                return controller == null ? Collections.<String,Long>emptyMap() : controller.getIntervals();
+            }
+        });
+        registry.hostGauge("httpcrawler_host_circuit_state", "Circuit state per host: 1 half-open, 2 open", new HostGauge() {
+            public Map<String,Integer> getValues() {
+                final CircuitBreaker breaker = circuitBreaker;
+                final Map<String,Integer> values = new TreeMap<String,Integer>();
+                if (breaker != null) {
+                    for (final Map.Entry<HttpHost,CircuitState> e : breaker.getStates().entrySet()) {
+                        values.put(e.getKey().toURI(), e.getValue() == CircuitState.OPEN ? 2 : 1);
+                    }
+                }
+                return values;
+            }
+        });
+        registry.gauge("httpcrawler_sessions", "Per-host sessions held", new Gauge() {
+            public double getValue() {
+                final SessionPool pool = sessionPool;
+                return pool == null ? 0 : pool.size();
+            }
+        });
+        registry.gauge("httpcrawler_refresh_queue_size", "Background refreshes waiting to run", new Gauge() {
+            public double getValue() {
+                final ExecutorService executor;
+                synchronized (DefaultHttpFetcher.this) {
+                    executor = refreshExecutor;
+                }
+                return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+            }
+        });
+    }
+
+    public boolean isFingerprintCacheKeys() {
+        return fingerprintCacheKeys;
+    }
+
+    /**
+     * Whether GET responses are cached under the 128-bit fingerprint of
+     * their canonical URL, prefixed with {@link #FINGERPRINT_ID_PREFIX},
+     * rather than the request's ID. Keys are then of fixed size, and
+     * requests for trivially different URLs share a cache entry. Requests
+     * need not have an ID, but if they have one it is still used as the
+     * audit key. POST responses are still cached by ID.
+     */
+    public void setFingerprintCacheKeys(final boolean fingerprintCacheKeys) {
+        this.fingerprintCacheKeys = fingerprintCacheKeys;
+    }
+
+    public SessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    /**
+     * Sets the pool of per-host sessions used for requests executed without
+     * a context; null to start every such request with an empty context.
+     * Cookies given with a request are added to its host's session.
+     */
+    public void setSessionPool(final SessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    public TransferAuditor getTransferAuditor() {
+        return transferAuditor;
+    }
+
+    /**
+     * Sets the auditor told how many body bytes are read from each
+     * response, or null.
+     */
+    public void setTransferAuditor(final TransferAuditor transferAuditor) {
+        this.transferAuditor = transferAuditor;
+    }
+
+    public RedirectCache getRedirectCache() {
+        return redirectCache;
+    }
+
+    /**
+     * Sets the cache used to send GET requests for previously-redirected URLs
+     * directly to their final location; null to always follow redirects.
+     */
+    public void setRedirectCache(final RedirectCache redirectCache) {
+        this.redirectCache = redirectCache;
+    }
+
+    public boolean isNegativeCacheBodies() {
+        return negativeCacheBodies;
+    }
+
+    /**
+     * Whether negatively-cached responses keep their bodies.
+     */
+    public void setNegativeCacheBodies(final boolean negativeCacheBodies) {
+        this.negativeCacheBodies = negativeCacheBodies;
+    }
+
 
     public CrawlerResponse fetchFromCache(final String id) throws IOException {
         final HttpCache cache = getCache();
@@ -113,6 +600,9 @@ public class DefaultHttpFetcher implements HttpFetcher {
             final CacheRequest cacheRequest = new CacheRequest(id);
             final CacheResponse cacheResponse = cache.get(cacheRequest);
             if (cacheResponse != null) {
+                if (!cacheResponse.isSuccess()) {
+                    throw createStatusException(cacheResponse);
+                }
                 return createResponse(cacheResponse);
             }
         }
@@ -125,32 +615,106 @@ public class DefaultHttpFetcher implements HttpFetcher {
     }
 
     public CrawlerResponse execute(final CrawlerRequest request, final HttpContext context) throws IOException {
+        try {
+            return execute(request, context, true);
+        } catch (RequestAbortedException e) {
+            if (metrics != null) {
+                metrics.getAborted().increment();
+            }
+            throw e;
+        }
+    }
 
-        if (request.getId() == null || request.getId().startsWith("null")) {
-            throw new IOException("Null ID: "+request.getId());
+    private CrawlerResponse execute(final CrawlerRequest request, final HttpContext context, final boolean allowStale) throws IOException {
+
+        final String id = getCacheId(request);
+        if (id == null || id.startsWith("null")) {
+            throw new IOException("Null ID: "+id);
+        }
+        if (isAbortable(request)) {
+            request.checkAborted();
         }
 
         final HttpCache cache = getCache();
         CacheResponse cacheResponse = null;
         if (cache != null) {
-            final CacheRequest cacheRequest = getCacheRequest(request);
+            final CacheRequest cacheRequest = new CacheRequest(id);
             cacheResponse = cache.get(cacheRequest);
-            if (cacheResponse != null) {
+            if (cacheResponse != null && !cacheResponse.isSuccess()) {
+                if (isNegativeCacheHit(cacheResponse, request)) {
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Negative cache hit: "+id);
+                    }
+                    if (metrics != null) {
+                        metrics.getNegativeCacheHits().increment();
+                    }
+                    throw createStatusException(cacheResponse);
+                }
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Negative cache expired: "+id);
+                }
+                if (metrics != null) {
+                    metrics.getCacheExpired().increment();
+                }
+                // Never fall back to a cached failure
+                IOUtils.closeQuietly(cacheResponse.getContent());
+                cacheResponse = null;
+            } else if (cacheResponse != null) {
                 if (cacheResponse.isUpToDate(request.getMaxAge())) {
-                    LOG.trace("Cache hit: "+request.getId());
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Cache hit: "+id);
+                    }
+                    if (metrics != null) {
+                        metrics.getCacheHits().increment();
+                    }
                     return createResponse(cacheResponse);
+                } else if (allowStale && isStaleWhileRevalidate(cacheResponse, request)) {
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Cache stale, revalidating: "+id);
+                    }
+                    scheduleRefresh(request);
+                    return createStaleResponse(cacheResponse);
                 } else {
-                    LOG.trace("Cache expired: "+request.getId());
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Cache expired: "+id);
+                    }
+                    if (metrics != null) {
+                        metrics.getCacheExpired().increment();
+                    }
                 }
             } else {
-                LOG.trace("Cache miss: "+request.getId());
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Cache miss: "+id);
+                }
+                if (metrics != null) {
+                    metrics.getCacheMisses().increment();
+                }
             }
         }
 
-        final HttpContext httpContext = context == null ? createContext() : context;
-        FetcherParams.setKey(httpContext, request.getId());
-
         final HttpUriRequest httpRequest = createHttpRequest(request);
+        final URI redirectTarget = getRedirectTarget(request);
+        if (redirectTarget != null) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Known redirect: "+request.getUrl()+" -> "+redirectTarget);
+            }
+            ((HttpRequestBase) httpRequest).setURI(redirectTarget);
+        }
+
+        final HttpHost host = URIUtils.extractHost(httpRequest.getURI());
+        final SessionPool sessionPool = context == null ? this.sessionPool : null;
+        final HttpContext httpContext;
+        if (context != null) {
+            httpContext = context;
+        } else if (sessionPool != null) {
+            httpContext = sessionPool.createContext(host);
+        } else {
+            httpContext = createContext();
+        }
+        // Audit under the caller's ID, which a fingerprint cache ID would hide
+        FetcherParams.setKey(httpContext, request.getId() != null ? request.getId() : id);
+        FetcherParams.setRedirectStatus(httpContext, null);
+
         if (request.getCookies() != null && !request.getCookies().isEmpty())
         {
             final CookieStore cookieStore = getCookieStore(httpContext);
@@ -159,52 +723,260 @@ public class DefaultHttpFetcher implements HttpFetcher {
             }
         }
 
-        HttpResponse httpResponse = null;
-        int remainingAttempts = MAX_RETRIES_ON_IO_ERROR;
-        final Exception lastEx = null;
-        while (httpResponse == null && remainingAttempts > 0) {
-            remainingAttempts--;
-            try {
-                LOG.debug("Issuing HTTP "+httpRequest.getMethod()+" "+httpRequest.getURI());
-                httpResponse = getClient().execute(httpRequest, httpContext);
-            } catch (IOException e) {
-                backOff();
-                LOG.warn("Error fetching "+httpRequest.getURI()
-                        + " Back-off for " + backOffSeconds + " seconds"
-                        + (remainingAttempts > 0 ? " [retrying]" : ""), e);
-                if (remainingAttempts == 0) {
+        if (concurrencyLimiter != null) {
+            acquireSlot(host, request);
+        }
+        final Cancellation cancellation = request.getCancellation();
+        if (cancellation != null) {
+            cancellation.register((AbortableHttpRequest) httpRequest);
+        }
+        final ScheduledFuture<?> deadlineAbort = scheduleAbort((AbortableHttpRequest) httpRequest, request);
+        try {
+            HttpResponse httpResponse = null;
+            int remainingAttempts = MAX_RETRIES_ON_IO_ERROR;
+            IOException lastEx = null;
+            while (httpResponse == null && remainingAttempts > 0) {
+                remainingAttempts--;
+                if (isAbortable(request)) {
+                    request.checkAborted();
+                    limitTimeouts(httpRequest, request);
+                }
+                if (circuitBreaker != null && !circuitBreaker.allowRequest(host)) {
                     if (cacheResponse != null) {
-                        // Return stale response
-                        LOG.error("Failed to fetch " + httpRequest.getURI() + " ... using stale version", lastEx);
-                        return createResponse(cacheResponse, true);
+                        LOG.warn("Circuit open for " + host.toURI() + " ... using stale version of " + httpRequest.getURI());
+                        return createStaleResponse(cacheResponse);
                     }
-                    throw new IOException("Failed to fetch "+httpRequest.getURI(), lastEx);
+                    throw new CircuitOpenException(host);
                 }
+                final long waitStart = System.currentTimeMillis();
+                final HttpClient client = getClient(host, request);
+                try {
+                    httpResponse = send(client, request, httpRequest, host, httpContext, waitStart, remainingAttempts > 0);
+                } catch (IOException e) {
+                    if (e instanceof RequestAbortedException) {
+                        throw e;
+                    }
+                    lastEx = e;
+                    if (remainingAttempts == 0) {
+                        if (cacheResponse != null) {
+                            // Return stale response
+                            LOG.error("Failed to fetch " + httpRequest.getURI() + " ... using stale version", lastEx);
+                            return createStaleResponse(cacheResponse);
+                        }
+                        throw new IOException("Failed to fetch "+httpRequest.getURI(), lastEx);
+                    }
+                }
+
             }
+            try {
+                final int status = httpResponse.getStatusLine().getStatusCode();
+                recordStatus(host, httpResponse);
 
+                if (isSuccess(httpResponse)) {
+                    final URI url = getResponseUrl(httpRequest, httpContext);
+                    recordRedirect(request, httpContext, url);
+                    final byte[] bytes = readEntity(request, httpRequest, url, httpResponse, httpContext);
+                    final String encoding = getContentEncoding(httpResponse);
+                    final List<Header> headers = getHeaders(httpResponse, encoding);
+                    cacheResponse(id, url, headers, encoding, bytes);
+                    return createResponse(url, headers, ContentEncoding.decode(encoding, new ByteArrayInputStream(bytes)), false, false);
+                } else {
+                    if (redirectTarget != null) {
+                        redirectCache.remove(request.getUrl());
+                    }
+                    final URI url = getResponseUrl(httpRequest, httpContext);
+                    final String encoding = getContentEncoding(httpResponse);
+                    final List<Header> headers = getHeaders(httpResponse, encoding);
+                    final byte[] body = negativeCacheBodies ? ContentEncoding.decode(encoding, readEntity(host, httpResponse)) : null;
+                    // An expired success is kept, to be served stale, rather than replaced by the failure
+                    if (cache instanceof AbstractHttpCache && negativeCacheTtls.containsKey(status) && cacheResponse == null) {
+                        if (LOG.isTraceEnabled()) {
+                            LOG.trace("Negative cached: "+id);
+                        }
+                        ((AbstractHttpCache) cache).storeFailure(id, url, status, headers, body);
+                    }
+                    throw new CrawlerStatusException("Crawler failed ["+request.getUrl()+"] "+httpResponse.getStatusLine(),
+                            status, url, headers, body, false);
+                }
+
+            } finally {
+                closeQuietly(httpResponse);
+            }
+        } catch (IOException e) {
+            if (isAbortable(request) && !(e instanceof RequestAbortedException) && !(e instanceof CrawlerStatusException)) {
+                // e.g. a body read cut off by the deadline
+                request.checkAborted();
+            }
+            throw e;
+        } finally {
+            if (deadlineAbort != null) {
+                deadlineAbort.cancel(false);
+            }
+            if (cancellation != null) {
+                cancellation.unregister((AbortableHttpRequest) httpRequest);
+            }
+            if (sessionPool != null) {
+                sessionPool.release(host, httpContext);
+            }
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.release(host);
+            }
         }
+    }
+
+    /**
+     * Sends one attempt at a request, once the caller has checked the
+     * host's circuit and waited for the throttle, and reports a connection
+     * failure to the circuit breaker, rate controller, back-off and
+     * metrics before rethrowing it.
+     *
+     * @throws RequestAbortedException if the failure was caused by the
+     *         request being cancelled or running out of time
+     */
+    private HttpResponse send(final HttpClient client, final CrawlerRequest request, final HttpUriRequest httpRequest,
+                              final HttpHost host, final HttpContext httpContext, final long waitStart,
+                              final boolean retrying) throws IOException {
         try {
-            if (httpResponse.getStatusLine().getStatusCode() >= 400) {
-                backOff();
-                LOG.warn(format("HTTP Status %d (%s).  Back-off for %d seconds", httpResponse.getStatusLine().getStatusCode(),
-                    httpResponse.getStatusLine().getReasonPhrase(), backOffSeconds));
-            } else {
-                resetBackOff();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Issuing HTTP "+httpRequest.getMethod()+" "+httpRequest.getURI());
+            }
+            final long start = System.currentTimeMillis();
+            if (metrics != null) {
+                metrics.getThrottleWaitMillis().add(start - waitStart);
+                metrics.getRequests().increment();
             }
+            final HttpResponse httpResponse = client.execute(httpRequest, httpContext);
+            if (rateController != null) {
+                rateController.onResponse(host, httpResponse, System.currentTimeMillis() - start);
+            }
+            return httpResponse;
+        } catch (IOException e) {
+            if (isAbortable(request)) {
+                // Aborted or timed out by us, rather than a failure of the host
+                request.checkAborted();
+            }
+            if (metrics != null) {
+                metrics.getErrors().increment();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.recordFailure(host);
+            }
+            if (rateController != null) {
+                rateController.onError(host);
+            }
+            backOff();
+            LOG.warn("Error fetching "+httpRequest.getURI()
+                    + " Back-off for " + backOffSeconds + " seconds"
+                    + (retrying ? " [retrying]" : ""), e);
+            throw e;
+        }
+    }
 
-            if (isSuccess(httpResponse)) {
-                final URI url = getResponseUrl(httpRequest, httpContext);
-                final byte[] bytes = readEntity(httpResponse);
-                final Header[] headers = httpResponse.getAllHeaders();
-                cacheResponse(request.getId(), url, headers, bytes);
-                return createResponse(url, headers, bytes, false, false);
+    /**
+     * Reports a response's status to the circuit breaker and back-off.
+     */
+    private void recordStatus(final HttpHost host, final HttpResponse httpResponse) {
+        final int status = httpResponse.getStatusLine().getStatusCode();
+        if (circuitBreaker != null) {
+            if (status >= 500) {
+                circuitBreaker.recordFailure(host);
             } else {
-                throw new IOException("Crawler failed ["+request.getUrl()+"] "+httpResponse.getStatusLine());
+                circuitBreaker.recordSuccess(host);
             }
+        }
+        if (isGone(status)) {
+            // Neither a failure nor a sign of recovery, so leave back-off from other hosts in place
+        } else if (status >= 400) {
+            backOff();
+            LOG.warn(format("HTTP Status %d (%s).  Back-off for %d seconds", status,
+                httpResponse.getStatusLine().getReasonPhrase(), backOffSeconds));
+        } else {
+            resetBackOff();
+        }
+    }
+
+    private boolean isStaleWhileRevalidate(final CacheResponse cacheResponse, final CrawlerRequest request) {
+        final Duration window = request.getStaleWhileRevalidate() != null
+                ? request.getStaleWhileRevalidate() : staleWhileRevalidate;
+        if (window == null || request.getMaxAge() == null || !(request instanceof CrawlerGetRequest)) {
+            return false;
+        }
+        return cacheResponse.isUpToDate(request.getMaxAge().plus(window));
+    }
+
+    private void scheduleRefresh(final CrawlerRequest request) {
+        final String id = getCacheId(request);
+        if (!refreshing.add(id)) {
+            // Already queued
+            return;
+        }
+        try {
+            getRefreshExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        execute(request, null, false).closeQuietly();
+                    } catch (IOException e) {
+                        LOG.warn("Background refresh failed: "+id, e);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Background refresh failed: "+id, e);
+                    } finally {
+                        refreshing.remove(id);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(id);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Background refresh rejected: "+id);
+            }
+        }
+    }
+
+    private URI getRedirectTarget(final CrawlerRequest request) {
+        if (redirectCache != null && request instanceof CrawlerGetRequest) {
+            return redirectCache.getTarget(request.getUrl());
+        }
+        return null;
+    }
 
+    private void recordRedirect(final CrawlerRequest request, final HttpContext httpContext, final URI url) {
+        if (redirectCache != null && request instanceof CrawlerGetRequest) {
+            final Integer status = FetcherParams.getRedirectStatus(httpContext);
+            if (status != null && !url.equals(request.getUrl())) {
+                redirectCache.put(request.getUrl(), status, url);
+            }
+        }
+    }
+
+    /**
+     * 404 and 410 say nothing about the health of the server, so neither
+     * cause nor reset back-off.
+     */
+    private boolean isGone(final int status) {
+        return status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE;
+    }
+
+    private boolean isNegativeCacheHit(final CacheResponse cacheResponse, final CrawlerRequest request) {
+        Duration ttl = negativeCacheTtls.get(cacheResponse.getStatus());
+        if (ttl == null) {
+            return false;
+        }
+        if (request.getMaxAge() != null && request.getMaxAge().isShorterThan(ttl)) {
+            ttl = request.getMaxAge();
+        }
+        return cacheResponse.isUpToDate(ttl);
+    }
+
+    private CrawlerStatusException createStatusException(final CacheResponse cacheResponse) throws IOException {
+        final InputStream in = cacheResponse.getContent();
+        final byte[] body;
+        try {
+            body = in == null ? null : IOUtils.toByteArray(in);
         } finally {
-            closeQuietly(httpResponse);
+            IOUtils.closeQuietly(in);
         }
+        return new CrawlerStatusException("Crawler failed ["+cacheResponse.getUrl()+"] HTTP "+cacheResponse.getStatus()+" (cached)",
+                cacheResponse.getStatus(), cacheResponse.getUrl(), cacheResponse.getHeaders(), body, true);
     }
 
     private CookieStore getCookieStore(final HttpContext context) {
@@ -218,6 +990,10 @@ public class DefaultHttpFetcher implements HttpFetcher {
     }
 
     private void backOff() {
+        if (rateController != null) {
+            // Handled per host
+            return;
+        }
         long tmp = backOffSeconds;
         backOffSeconds = Math.min(maxBackoffSeconds, backOffSeconds + backOffStepSeconds);
         backOffStepSeconds = tmp;
@@ -230,26 +1006,232 @@ public class DefaultHttpFetcher implements HttpFetcher {
     }
 
 
-    private void cacheResponse(final String id, final URI url, final Header[] headers, final byte[] bytes) throws IOException {
+    private void cacheResponse(final String id, final URI url, final List<Header> headers, final String encoding, final byte[] bytes) throws IOException {
         if (getCache() != null) {
-            LOG.trace("Cached: "+id);
-            getCache().store(id, url, asList(headers), bytes);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Cached: "+id);
+            }
+            if (metrics != null) {
+                metrics.getBytesStored().add(bytes.length);
+            }
+            if (encoding == null) {
+                getCache().store(id, url, headers, bytes);
+            } else if (getCache() instanceof AbstractHttpCache) {
+                ((AbstractHttpCache) getCache()).store(id, url, headers, encoding, bytes);
+            } else {
+                getCache().store(id, url, headers, ContentEncoding.decode(encoding, bytes));
+            }
         }
     }
 
-    private CrawlerResponse createResponse(final URI url, final Header[] headers, final byte[] bytes, final boolean fromCache, final boolean stale) {
-        final List<Header> headerList = Arrays.asList(headers);
-        final InputStream content = new ByteArrayInputStream(bytes);
-        final CrawlerResponse response = new CrawlerResponse(url, headerList, content, fromCache, stale);
+    private CrawlerResponse createResponse(final URI url, final List<Header> headers, final InputStream content, final boolean fromCache, final boolean stale) {
+        final CrawlerResponse response = new CrawlerResponse(url, headers, content, fromCache, stale);
         return response;
     }
 
-    private byte[] readEntity(final HttpResponse httpResponse) throws IOException {
+    /**
+     * Returns the response's content coding if it is one we can decode, otherwise null.
+     */
+    private String getContentEncoding(final HttpResponse httpResponse) {
+        final Header header = httpResponse.getFirstHeader("Content-Encoding");
+        return header == null ? null : ContentEncoding.normalise(header.getValue());
+    }
+
+    /**
+     * Returns the response headers, less those describing the encoded entity
+     * if the content is to be decoded.
+     */
+    private List<Header> getHeaders(final HttpResponse httpResponse, final String encoding) {
+        final List<Header> headers = new ArrayList<Header>(asList(httpResponse.getAllHeaders()));
+        if (encoding != null) {
+            for (final Iterator<Header> it = headers.iterator(); it.hasNext(); ) {
+                final String name = it.next().getName();
+                if ("Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)) {
+                    it.remove();
+                }
+            }
+        }
+        return headers;
+    }
+
+    private byte[] readEntity(final HttpHost host, final HttpResponse httpResponse) throws IOException {
+        final HttpEntity entity = httpResponse.getEntity();
+        if (entity == null) {
+            return new byte[0];
+        }
+        final CountingInputStream in = new CountingInputStream(getContent(entity, null));
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            auditTransfer(host, in.getByteCount());
+        }
+    }
+
+    private void auditTransfer(final HttpHost host, final long bytes) {
+        if (transferAuditor != null) {
+            transferAuditor.auditTransfer(System.currentTimeMillis(), host, bytes);
+        }
+    }
+
+    private InputStream getContent(final HttpEntity entity, final CrawlerRequest request) throws IOException {
+        InputStream in = entity.getContent();
+        if (isAbortable(request)) {
+            in = new AbortableInputStream(in, request);
+        }
+        return bandwidthLimit == null ? in : new ThrottledInputStream(in, bandwidthLimit, request);
+    }
+
+    /**
+     * Reads the entity of a successful response. If the connection fails part
+     * way through a GET, the transfer is resumed with a range request when the
+     * server supports it, or otherwise restarted, unless the request has
+     * been cancelled or its deadline has passed. Resume requests go through
+     * the same circuit, throttle and failure accounting as the first, and
+     * share its attempts. Entities declaring a length too large to return
+     * as an array are refused before reading.
+     */
+    private byte[] readEntity(final CrawlerRequest request, final HttpUriRequest httpRequest, final URI url,
+                              final HttpResponse httpResponse, final HttpContext httpContext) throws IOException {
         final HttpEntity entity = httpResponse.getEntity();
         if (entity == null) {
             return new byte[0];
         }
-        return IOUtils.toByteArray(entity.getContent());
+        if (entity.getContentLength() > EntitySpool.MAX_ARRAY_LENGTH) {
+            throw new EntityTooLargeException("Entity of " + entity.getContentLength() + " bytes from " + url
+                    + " exceeds limit of " + EntitySpool.MAX_ARRAY_LENGTH + " bytes");
+        }
+        final Cancellation cancellation = request.getCancellation();
+        final HttpHost host = URIUtils.extractHost(url);
+        final EntitySpool spool = new EntitySpool(entity.getContentLength(), SPOOL_THRESHOLD);
+        HttpUriRequest currentRequest = httpRequest;
+        // Across all attempts, including any discarded by a restart
+        long bytesRead = 0;
+        try {
+            final String validator = getRangeValidator(httpResponse);
+            HttpResponse response = httpResponse;
+            int remainingAttempts = MAX_RETRIES_ON_IO_ERROR;
+            while (true) {
+                final long start = spool.getOffset();
+                try {
+                    spool.read(getContent(response.getEntity(), request));
+                    bytesRead += spool.getOffset() - start;
+                    break;
+                } catch (IOException e) {
+                    bytesRead += spool.getOffset() - start;
+                    currentRequest.abort();
+                    if (e instanceof RequestAbortedException) {
+                        throw e;
+                    }
+                    if (isAbortable(request)) {
+                        request.checkAborted();
+                    }
+                    if (!"GET".equals(httpRequest.getMethod())) {
+                        throw e;
+                    }
+                    IOException lastEx = e;
+                    response = null;
+                    while (response == null) {
+                        remainingAttempts--;
+                        if (remainingAttempts == 0) {
+                            throw lastEx;
+                        }
+                        LOG.warn("Error reading "+url+" after "+spool.getOffset()+" bytes"
+                                + (validator != null ? " [resuming]" : " [restarting]"), lastEx);
+                        if (cancellation != null) {
+                            cancellation.unregister((AbortableHttpRequest) currentRequest);
+                        }
+                        currentRequest = createResumeRequest(httpRequest, url, validator, spool.getOffset());
+                        if (isAbortable(request)) {
+                            request.checkAborted();
+                            limitTimeouts(currentRequest, request);
+                        }
+                        if (cancellation != null) {
+                            cancellation.register((AbortableHttpRequest) currentRequest);
+                        }
+                        if (circuitBreaker != null && !circuitBreaker.allowRequest(host)) {
+                            throw new CircuitOpenException(host);
+                        }
+                        final long waitStart = System.currentTimeMillis();
+                        final HttpClient client = getClient(host, request);
+                        try {
+                            response = send(client, request, currentRequest, host, httpContext, waitStart, remainingAttempts > 1);
+                        } catch (IOException resumeEx) {
+                            if (resumeEx instanceof RequestAbortedException) {
+                                throw resumeEx;
+                            }
+                            lastEx = resumeEx;
+                        }
+                    }
+                    recordStatus(host, response);
+                    final int status = response.getStatusLine().getStatusCode();
+                    if (status == HttpStatus.SC_PARTIAL_CONTENT && getRangeStart(response) == spool.getOffset()) {
+                        continue;
+                    }
+                    if (status == HttpStatus.SC_OK && response.getEntity() != null) {
+                        spool.reset();
+                        continue;
+                    }
+                    currentRequest.abort();
+                    throw new IOException("Failed to resume "+url+": "+response.getStatusLine(), lastEx);
+                }
+            }
+            if (response != httpResponse) {
+                closeQuietly(response);
+            }
+            if (metrics != null) {
+                metrics.getBytesFetched().add(spool.getOffset());
+            }
+            return spool.toByteArray();
+        } finally {
+            spool.close();
+            auditTransfer(host, bytesRead);
+            if (cancellation != null && currentRequest != httpRequest) {
+                cancellation.unregister((AbortableHttpRequest) currentRequest);
+            }
+        }
+    }
+
+    /**
+     * Returns the If-Range validator for a response, or null if the server
+     * does not support byte ranges for it.
+     */
+    private String getRangeValidator(final HttpResponse httpResponse) {
+        final Header acceptRanges = httpResponse.getFirstHeader("Accept-Ranges");
+        if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.getValue().trim())) {
+            return null;
+        }
+        final Header etag = httpResponse.getFirstHeader("ETag");
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+        final Header lastModified = httpResponse.getFirstHeader("Last-Modified");
+        return lastModified == null ? null : lastModified.getValue();
+    }
+
+    private HttpUriRequest createResumeRequest(final HttpUriRequest httpRequest, final URI url, final String validator, final long offset) {
+        final HttpGet request = new HttpGet(url);
+        request.setHeaders(httpRequest.getAllHeaders());
+        if (validator != null && offset > 0) {
+            request.setHeader("Range", "bytes=" + offset + "-");
+            request.setHeader("If-Range", validator);
+        }
+        return request;
+    }
+
+    private long getRangeStart(final HttpResponse response) {
+        // e.g. Content-Range: bytes 1000-1999/2000
+        final Header contentRange = response.getFirstHeader("Content-Range");
+        if (contentRange != null) {
+            final String value = contentRange.getValue().trim();
+            if (value.startsWith("bytes ") && value.indexOf('-') != -1) {
+                try {
+                    return Long.parseLong(value.substring(6, value.indexOf('-')).trim());
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+        return -1;
     }
 
     private URI getResponseUrl(final HttpUriRequest httpRequest, final HttpContext httpContext) {
@@ -284,6 +1266,9 @@ public class DefaultHttpFetcher implements HttpFetcher {
             }
             httpRequest.addHeader("Referer", referer);
         }
+        if (acceptEncoding != null) {
+            httpRequest.addHeader("Accept-Encoding", acceptEncoding);
+        }
         return httpRequest;
     }
 
@@ -306,15 +1291,24 @@ public class DefaultHttpFetcher implements HttpFetcher {
         }
     }
 
-    private CacheRequest getCacheRequest(final CrawlerRequest request) {
-        final CacheRequest cacheRequest = new CacheRequest(request.getId());
-        return cacheRequest;
+    private String getCacheId(final CrawlerRequest request) {
+        if (fingerprintCacheKeys && request instanceof CrawlerGetRequest) {
+            return FINGERPRINT_ID_PREFIX + UrlFingerprint.toHex(request.getUrl());
+        }
+        return request.getId();
     }
 
     private CrawlerResponse createResponse(final CacheResponse cacheResponse) {
         return createResponse(cacheResponse, false);
     }
 
+    private CrawlerResponse createStaleResponse(final CacheResponse cacheResponse) {
+        if (metrics != null) {
+            metrics.getStaleServed().increment();
+        }
+        return createResponse(cacheResponse, true);
+    }
+
     private CrawlerResponse createResponse(final CacheResponse cacheResponse, final boolean stale) {
         final CrawlerResponse response = new CrawlerResponse(
                 cacheResponse.getUrl(),
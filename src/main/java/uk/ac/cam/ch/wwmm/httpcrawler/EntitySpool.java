@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+
+/**
+ * Buffer for a response body that keeps track of how much has been
+ * received, so that an interrupted transfer can be resumed from that
+ * offset. Bodies larger than the memory threshold are spooled to a
+ * temporary file; those of unknown length are held in memory until they
+ * outgrow it. A spooled body can be streamed with {@link #writeTo}
+ * whatever its size, but {@link #toByteArray} is limited to
+ * {@link #MAX_ARRAY_LENGTH} bytes.
+ *
+ * @author Sam Adams
+ */
+public class EntitySpool {
+
+    /**
+     * Largest body that can be returned as a byte array.
+     */
+    public static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long memoryThreshold;
+    private final boolean expectLarge;
+    private boolean useFile;
+    private ByteArrayOutputStream buffer;
+    private File file;
+    private OutputStream out;
+    private long offset;
+
+    /**
+     * @param expectedLength the Content-Length, or -1 if unknown
+     * @param memoryThreshold largest expected length to hold in memory
+     */
+    public EntitySpool(final long expectedLength, final long memoryThreshold) throws IOException {
+        this.memoryThreshold = memoryThreshold;
+        this.expectLarge = expectedLength > memoryThreshold;
+        open();
+    }
+
+    private void open() throws IOException {
+        useFile = expectLarge;
+        if (useFile) {
+            if (file == null) {
+                file = File.createTempFile("httpfetcher", ".part");
+            }
+            out = new BufferedOutputStream(new FileOutputStream(file, false));
+        } else {
+            buffer = new ByteArrayOutputStream();
+            out = buffer;
+        }
+    }
+
+    /**
+     * Returns the number of bytes received so far.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Appends the stream to the spool. If reading fails part way, the bytes
+     * already read are kept and counted in the offset.
+     */
+    public void read(final InputStream in) throws IOException {
+        final byte[] b = new byte[BUFFER_SIZE];
+        for (int n = in.read(b); n != -1; n = in.read(b)) {
+            out.write(b, 0, n);
+            offset += n;
+            if (!useFile && offset > memoryThreshold) {
+                spill();
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        if (file == null) {
+            file = File.createTempFile("httpfetcher", ".part");
+        }
+        out = new BufferedOutputStream(new FileOutputStream(file, false));
+        buffer.writeTo(out);
+        buffer = null;
+        useFile = true;
+    }
+
+    /**
+     * Discards everything received, e.g. because the server has sent a
+     * full response to a range request.
+     */
+    public void reset() throws IOException {
+        out.close();
+        offset = 0;
+        open();
+    }
+
+    /**
+     * Returns everything received. A spooled body is read straight into an
+     * array of the right size, rather than through a growing buffer.
+     *
+     * @throws EntityTooLargeException if more than {@link #MAX_ARRAY_LENGTH}
+     *         bytes have been received
+     */
+    public byte[] toByteArray() throws IOException {
+        out.flush();
+        if (offset > MAX_ARRAY_LENGTH) {
+            throw new EntityTooLargeException("Entity of " + offset + " bytes exceeds limit of " + MAX_ARRAY_LENGTH + " bytes");
+        }
+        if (useFile) {
+            final byte[] bytes = new byte[(int) offset];
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+            return bytes;
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Copies everything received to out.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        this.out.flush();
+        if (useFile) {
+            final InputStream in = new FileInputStream(file);
+            try {
+                IOUtils.copyLarge(in, out);
+            } finally {
+                in.close();
+            }
+        } else {
+            buffer.writeTo(out);
+        }
+    }
+
+    /**
+     * Returns a stream over everything received, which must be closed
+     * before the spool is.
+     */
+    public InputStream openStream() throws IOException {
+        out.flush();
+        if (useFile) {
+            return new FileInputStream(file);
+        }
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    /**
+     * Releases the spool, deleting any temporary file.
+     */
+    public void close() {
+        IOUtils.closeQuietly(out);
+        if (file != null) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+}
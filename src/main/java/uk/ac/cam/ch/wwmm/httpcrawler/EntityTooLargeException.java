@@ -0,0 +1,19 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response entity is larger than the limit the caller
+ * was prepared to read.
+ *
+ * @author Sam Adams
+ */
+public class EntityTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EntityTooLargeException(final String message) {
+        super(message);
+    }
+
+}
@@ -8,6 +8,7 @@ import org.apache.http.protocol.HttpContext;
 public class FetcherParams {
 
     private static final String HTTPFETCHER_KEY = "httpfetcher.key";
+    private static final String HTTPFETCHER_REDIRECT_STATUS = "httpfetcher.redirect-status";
 
 
     public static String getKey(final HttpContext context) {
@@ -18,4 +19,20 @@ public class FetcherParams {
         context.setAttribute(HTTPFETCHER_KEY, key);
     }
 
+    /**
+     * Returns the status of the first redirect followed while executing a
+     * request, or null if there was none.
+     */
+    public static Integer getRedirectStatus(final HttpContext context) {
+        return (Integer) context.getAttribute(HTTPFETCHER_REDIRECT_STATUS);
+    }
+
+    public static void setRedirectStatus(final HttpContext context, final Integer status) {
+        if (status == null) {
+            context.removeAttribute(HTTPFETCHER_REDIRECT_STATUS);
+        } else {
+            context.setAttribute(HTTPFETCHER_REDIRECT_STATUS, status);
+        }
+    }
+
 }
@@ -1,6 +1,7 @@
 package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.cookie.Cookie;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 import java.net.URI;
@@ -17,6 +18,9 @@ public class GetRequestBuilder {
     private URI referrer;
     private Duration maxAge;
     private Collection<Cookie> cookies;
+    private Duration staleWhileRevalidate;
+    private DateTime deadline;
+    private Cancellation cancellation;
 
     public String getKey() {
         return key;
@@ -59,8 +63,35 @@ public class GetRequestBuilder {
         return this;
     }
 
+    public Duration getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public GetRequestBuilder withStaleWhileRevalidate(final Duration staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        return this;
+    }
+
+    public DateTime getDeadline() {
+        return deadline;
+    }
+
+    public GetRequestBuilder withDeadline(final DateTime deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    public GetRequestBuilder withCancellation(final Cancellation cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+
     public CrawlerGetRequest build() {
-        return new CrawlerGetRequest(url, key, maxAge, referrer, cookies);
+        return new CrawlerGetRequest(url, key, maxAge, referrer, cookies, staleWhileRevalidate, deadline, cancellation);
     }
 
 }
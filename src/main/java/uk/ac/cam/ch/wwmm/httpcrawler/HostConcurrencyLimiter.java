@@ -0,0 +1,84 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests in progress to each host. Waiting
+ * requests are admitted in arrival order.
+ *
+ * @author Sam Adams
+ */
+public class HostConcurrencyLimiter {
+
+    private final int maxPerHost;
+    private final ConcurrentMap<HttpHost,Semaphore> permits = new ConcurrentHashMap<HttpHost,Semaphore>();
+
+    public HostConcurrencyLimiter(final int maxPerHost) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be positive: "+maxPerHost);
+        }
+        this.maxPerHost = maxPerHost;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    private Semaphore getSemaphore(final HttpHost host) {
+        Semaphore semaphore = permits.get(host);
+        if (semaphore == null) {
+            semaphore = new Semaphore(maxPerHost, true);
+            final Semaphore tmp = permits.putIfAbsent(host, semaphore);
+            if (tmp != null) {
+                semaphore = tmp;
+            }
+        }
+        return semaphore;
+    }
+
+    /**
+     * Waits for a slot for host. Each successful call must be matched by a
+     * call to {@link #release}.
+     */
+    public void acquire(final HttpHost host) throws InterruptedIOException {
+        try {
+            getSemaphore(host).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for "+host.toURI());
+        }
+    }
+
+    /**
+     * Waits up to timeout for a slot for host.
+     *
+     * @return true if a slot was taken, to be returned with {@link #release}
+     */
+    public boolean tryAcquire(final HttpHost host, final long timeout, final TimeUnit timeUnit) throws InterruptedIOException {
+        try {
+            return getSemaphore(host).tryAcquire(timeout, timeUnit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for "+host.toURI());
+        }
+    }
+
+    public void release(final HttpHost host) {
+        getSemaphore(host).release();
+    }
+
+    /**
+     * Returns the number of requests waiting for a slot for host.
+     */
+    public int getQueueLength(final HttpHost host) {
+        final Semaphore semaphore = permits.get(host);
+        return semaphore == null ? 0 : semaphore.getQueueLength();
+    }
+
+}
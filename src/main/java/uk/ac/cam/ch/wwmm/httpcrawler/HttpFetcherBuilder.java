@@ -2,11 +2,32 @@ package uk.ac.cam.ch.wwmm.httpcrawler;
 
 import org.apache.http.HttpHost;
 import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionOperator;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.joda.time.Duration;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.AggregatingRequestAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.CircuitAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.FileRequestAuditor;
 import uk.ac.cam.ch.wwmm.httpcrawler.audit.RequestAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.TransferAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.ContentEncoding;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.HttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.dns.CachingHostResolver;
+import uk.ac.cam.ch.wwmm.httpcrawler.dns.HostResolver;
+import uk.ac.cam.ch.wwmm.httpcrawler.dns.ResolvingClientConnectionOperator;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.FetcherMetrics;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.Gauge;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.MetricsRegistry;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.http.params.HttpConnectionParams.setConnectionTimeout;
@@ -17,12 +38,34 @@ import static org.apache.http.params.HttpProtocolParams.setUserAgent;
  * @author Sam Adams
  */
 public class HttpFetcherBuilder {
+
+    private static final int MAX_TOTAL_CONNECTIONS = 100;
     
     private int connectionTimeout = 10000;
     private int socketTimeout = 10000;
     private HttpHost proxy;
     private String userAgent;
+    private boolean compression;
+    private final Map<Integer,Duration> negativeCacheTtls = new HashMap<Integer,Duration>();
+    private boolean negativeCacheBodies;
+    private int redirectCacheSize;
+    private Duration permanentRedirectTtl;
+    private Duration temporaryRedirectTtl;
+    private AbstractHttpCache redirectStore;
+    private Duration staleWhileRevalidate;
+    private int maxSessions;
+    private boolean fingerprintCacheKeys;
+    private long maxSessionIdleMillis;
+    private int circuitFailureThreshold;
+    private long circuitOpenMillis;
+    private AdaptiveRateController rateController;
+    private int maxConnectionsPerHost;
+    private long maxBytesPerSecond;
+    private double maxRequestsPerSecond;
     
+    private MetricsRegistry metricsRegistry;
+    private HostResolver hostResolver;
+
     private RequestAuditor requestAuditor;
     private HttpCache cache;
 
@@ -46,19 +89,188 @@ public class HttpFetcherBuilder {
         return this;
     }
     
+    /**
+     * Whether to ask servers for gzip/deflate-encoded content. Gzipped
+     * content is passed to the cache without being recompressed. Off by
+     * default, so that requests are sent as before unless asked for.
+     */
+    public HttpFetcherBuilder withCompression(final boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Caches responses with the given HTTP status for the given time.
+     */
+    public HttpFetcherBuilder withNegativeCaching(final int status, final long ttl, final TimeUnit timeUnit) {
+        this.negativeCacheTtls.put(status, new Duration(timeUnit.toMillis(ttl)));
+        return this;
+    }
+
+    public HttpFetcherBuilder withNegativeCacheBodies(final boolean negativeCacheBodies) {
+        this.negativeCacheBodies = negativeCacheBodies;
+        return this;
+    }
+
+    /**
+     * Remembers up to maxEntries redirects, so that repeat requests go
+     * straight to the final URL. Mappings are kept in memory, and in the
+     * redirect store if one is set.
+     */
+    public HttpFetcherBuilder withRedirectCaching(final int maxEntries, final long permanentTtl, final long temporaryTtl, final TimeUnit timeUnit) {
+        this.redirectCacheSize = maxEntries;
+        this.permanentRedirectTtl = new Duration(timeUnit.toMillis(permanentTtl));
+        this.temporaryRedirectTtl = new Duration(timeUnit.toMillis(temporaryTtl));
+        return this;
+    }
+
+    /**
+     * Writes redirect mappings through to store, so that they survive
+     * restarts and are shared between fetchers. The store must be able to
+     * record failures, and must not be the response cache.
+     */
+    public HttpFetcherBuilder withRedirectStore(final AbstractHttpCache redirectStore) {
+        this.redirectStore = redirectStore;
+        return this;
+    }
+
+    /**
+     * Keeps cookies and connection state for up to maxSessions hosts
+     * between requests, dropping a host's session once idle for maxIdle.
+     */
+    public HttpFetcherBuilder withSessions(final int maxSessions, final long maxIdle, final TimeUnit timeUnit) {
+        this.maxSessions = maxSessions;
+        this.maxSessionIdleMillis = timeUnit.toMillis(maxIdle);
+        return this;
+    }
+
+    /**
+     * Returns expired cache entries, marked stale, for up to staleWindow past
+     * their max-age, while refreshing them in the background.
+     */
+    public HttpFetcherBuilder withStaleWhileRevalidate(final long staleWindow, final TimeUnit timeUnit) {
+        this.staleWhileRevalidate = new Duration(timeUnit.toMillis(staleWindow));
+        return this;
+    }
+
+    /**
+     * Stops sending requests to a host for openTime after failureThreshold
+     * consecutive connection errors or 5xx responses, then probes it with a
+     * single request. Transitions are reported to the request auditor, if it
+     * is also a {@link CircuitAuditor}.
+     */
+    public HttpFetcherBuilder withCircuitBreaker(final int failureThreshold, final long openTime, final TimeUnit timeUnit) {
+        this.circuitFailureThreshold = failureThreshold;
+        this.circuitOpenMillis = timeUnit.toMillis(openTime);
+        return this;
+    }
+
+    /**
+     * Adapts the interval between requests to each host, between the given
+     * bounds, in response to latency, errors, 429/503 responses and
+     * Retry-After headers. Replaces the fixed fetcher-wide request step.
+     */
+    public HttpFetcherBuilder withAdaptiveRateControl(final long minInterval, final long maxInterval, final TimeUnit timeUnit) {
+        final long min = timeUnit.toMillis(minInterval);
+        final long max = timeUnit.toMillis(maxInterval);
+        return withAdaptiveRateControl(new AdaptiveRateController(min, max, 1000, Math.max(1, min / 10 + 10), 2.0, 2000));
+    }
+
+    public HttpFetcherBuilder withAdaptiveRateControl(final AdaptiveRateController rateController) {
+        this.rateController = rateController;
+        return this;
+    }
+
+    /**
+     * Allows up to maxConnectionsPerHost concurrent requests to each host.
+     * Requests over the limit queue in arrival order. The limit replaces
+     * the fetcher-wide request step, which would otherwise space every
+     * request a second apart whatever the limit.
+     */
+    public HttpFetcherBuilder withMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Limits the total rate at which response bodies are read, from all hosts.
+     */
+    public HttpFetcherBuilder withMaxBandwidth(final long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Limits the total rate at which requests are sent, to all hosts.
+     * Replaces the fixed fetcher-wide request step.
+     */
+    public HttpFetcherBuilder withMaxRequestRate(final double maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        return this;
+    }
+
+    /**
+     * Resolves hostnames for new connections with resolver, rather than the
+     * JVM's resolver, e.g. a {@link CachingHostResolver}.
+     */
+    public HttpFetcherBuilder withHostResolver(final HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
+        return this;
+    }
+
+    /**
+     * Caches up to maxEntries DNS lookups for ttl, and failed lookups for
+     * negativeTtl. To prefetch hosts, create a {@link CachingHostResolver}
+     * and pass it to {@link #withHostResolver} instead.
+     */
+    public HttpFetcherBuilder withDnsCache(final int maxEntries, final long ttl, final long negativeTtl, final TimeUnit timeUnit) {
+        return withHostResolver(new CachingHostResolver(maxEntries, ttl, negativeTtl, timeUnit));
+    }
+
+    /**
+     * Maintains fetcher and auditor metrics in registry, which can be
+     * exported with {@link MetricsRegistry#registerMBean} or a
+     * {@link uk.ac.cam.ch.wwmm.httpcrawler.metrics.PrometheusServer}.
+     */
+    public HttpFetcherBuilder withMetrics(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        return this;
+    }
+
+    /**
+     * Audits each exchange. If the auditor is also a {@link TransferAuditor},
+     * it is told the number of body bytes read from each response.
+     */
     public HttpFetcherBuilder withRequestAuditor(final RequestAuditor requestAuditor) {
         this.requestAuditor = requestAuditor;
         return this;
     }
     
+    /**
+     * Caches GET responses under the fingerprint of their canonical URL,
+     * rather than the request's ID.
+     */
+    public HttpFetcherBuilder withFingerprintCacheKeys(final boolean fingerprintCacheKeys) {
+        this.fingerprintCacheKeys = fingerprintCacheKeys;
+        return this;
+    }
+
     public HttpFetcherBuilder withCache(final HttpCache cache) {
         this.cache = cache;
         return this;
     }
 
+    /**
+     * @throws IllegalStateException if the cache cannot record the failures
+     *         that negative caching or the redirect store need
+     */
     public HttpFetcher build() {
+        checkCaches();
 
-        final DefaultHttpClient client = new AuditingHttpClient(requestAuditor);
+        final ClientConnectionManager connectionManager = createConnectionManager();
+        final DefaultHttpClient client = connectionManager != null
+                ? new AuditingHttpClient(connectionManager, requestAuditor)
+                : new AuditingHttpClient(requestAuditor);
         client.getParams().setParameter(ClientPNames.MAX_REDIRECTS, 5);
 
         setConnectionTimeout(client.getParams(), connectionTimeout);
@@ -69,7 +281,129 @@ public class HttpFetcherBuilder {
             client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
         }
 
-        return new DefaultHttpFetcher(client, cache);
+        final DefaultHttpFetcher fetcher = new DefaultHttpFetcher(client, cache);
+        if (compression) {
+            fetcher.setAcceptEncoding(ContentEncoding.GZIP + ", " + ContentEncoding.DEFLATE);
+        }
+        for (final Map.Entry<Integer,Duration> e : negativeCacheTtls.entrySet()) {
+            fetcher.setNegativeCacheTtl(e.getKey(), e.getValue());
+        }
+        fetcher.setNegativeCacheBodies(negativeCacheBodies);
+        fetcher.setFingerprintCacheKeys(fingerprintCacheKeys);
+        fetcher.setStaleWhileRevalidate(staleWhileRevalidate);
+        if (rateController != null) {
+            fetcher.setRateController(rateController);
+            fetcher.setRequestStepMillis(0);
+        }
+        if (maxConnectionsPerHost > 0) {
+            fetcher.setConcurrencyLimiter(new HostConcurrencyLimiter(maxConnectionsPerHost));
+            fetcher.setRequestStepMillis(0);
+        }
+        if (maxBytesPerSecond > 0) {
+            // Allow a second's worth of burst
+            fetcher.setBandwidthLimit(new TokenBucket(maxBytesPerSecond, maxBytesPerSecond));
+        }
+        if (maxRequestsPerSecond > 0) {
+            fetcher.setRequestRateLimit(new TokenBucket(maxRequestsPerSecond, Math.max(1, maxRequestsPerSecond)));
+            fetcher.setRequestStepMillis(0);
+        }
+        if (requestAuditor instanceof TransferAuditor) {
+            fetcher.setTransferAuditor((TransferAuditor) requestAuditor);
+        }
+        if (circuitFailureThreshold > 0) {
+            final CircuitAuditor circuitAuditor = requestAuditor instanceof CircuitAuditor ? (CircuitAuditor) requestAuditor : null;
+            fetcher.setCircuitBreaker(new CircuitBreaker(circuitFailureThreshold, circuitOpenMillis, circuitAuditor));
+        }
+        if (redirectCacheSize > 0) {
+            fetcher.setRedirectCache(new RedirectCache(redirectStore, redirectCacheSize, permanentRedirectTtl, temporaryRedirectTtl));
+        }
+        if (maxSessions > 0) {
+            fetcher.setSessionPool(new SessionPool(maxSessions, maxSessionIdleMillis, TimeUnit.MILLISECONDS));
+        }
+        if (metricsRegistry != null) {
+            fetcher.setMetrics(new FetcherMetrics(metricsRegistry));
+            registerAuditorMetrics();
+        }
+        return fetcher;
+    }
+
+    private void checkCaches() {
+        if (!negativeCacheTtls.isEmpty() && cache != null
+                && !(cache instanceof AbstractHttpCache && ((AbstractHttpCache) cache).isFailureCachingSupported())) {
+            throw new IllegalStateException("Negative caching needs a cache that records failures: "+cache.getClass().getName());
+        }
+        if (redirectStore != null) {
+            if (redirectCacheSize <= 0) {
+                throw new IllegalStateException("Redirect store set without redirect caching");
+            }
+            if (redirectStore == cache) {
+                throw new IllegalStateException("Redirect store must not be the response cache");
+            }
+            if (!redirectStore.isFailureCachingSupported()) {
+                throw new IllegalStateException("Redirect store cannot record redirects: "+redirectStore.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Returns a thread-safe connection manager if requests may run
+     * concurrently: when requests to a host may overlap, or when there is
+     * a cache, since stale entries are then refreshed on background threads
+     * sharing the client. Otherwise returns a single-connection manager if
+     * one is needed for the host resolver, or null for the default.
+     */
+    private ClientConnectionManager createConnectionManager() {
+        final HostResolver resolver = hostResolver;
+        if (maxConnectionsPerHost > 0 || cache != null) {
+            final ThreadSafeClientConnManager connectionManager;
+            if (resolver != null) {
+                connectionManager = new ThreadSafeClientConnManager() {
+                    @Override
+                    protected ClientConnectionOperator createConnectionOperator(final SchemeRegistry schemeRegistry) {
+                        return new ResolvingClientConnectionOperator(schemeRegistry, resolver);
+                    }
+                };
+            } else {
+                connectionManager = new ThreadSafeClientConnManager();
+            }
+            if (maxConnectionsPerHost > 0) {
+                connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+                connectionManager.setMaxTotal(Math.max(maxConnectionsPerHost, MAX_TOTAL_CONNECTIONS));
+            }
+            return connectionManager;
+        }
+        if (resolver != null) {
+            return new SingleClientConnManager(SchemeRegistryFactory.createDefault()) {
+                @Override
+                protected ClientConnectionOperator createConnectionOperator(final SchemeRegistry schemeRegistry) {
+                    return new ResolvingClientConnectionOperator(schemeRegistry, resolver);
+                }
+            };
+        }
+        return null;
+    }
+
+    private void registerAuditorMetrics() {
+        if (requestAuditor instanceof FileRequestAuditor) {
+            final FileRequestAuditor auditor = (FileRequestAuditor) requestAuditor;
+            metricsRegistry.gauge("httpcrawler_audit_buffered_bytes", "Audit records not yet written", new Gauge() {
+                public double getValue() {
+                    return auditor.getBufferedBytes();
+                }
+            });
+            metricsRegistry.gauge("httpcrawler_audit_lag_milliseconds", "Time since audit records were last written", new Gauge() {
+                public double getValue() {
+                    return auditor.getBufferedBytes() == 0 ? 0 : System.currentTimeMillis() - auditor.getLastFlushTime();
+                }
+            });
+        } else if (requestAuditor instanceof AggregatingRequestAuditor) {
+            final AggregatingRequestAuditor auditor = (AggregatingRequestAuditor) requestAuditor;
+            metricsRegistry.gauge("httpcrawler_audit_pending_windows", "Audit summaries not yet written", new Gauge() {
+                public double getValue() {
+                    return auditor.getPendingWindows();
+                }
+            });
+        }
     }
 
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.message.BasicHeader;
+import org.apache.log4j.Logger;
+import org.joda.time.Duration;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers where URLs redirected to, so that later requests for the same
+ * URL can go straight to the final location.
+ *
+ * <p>Mappings are held in a bounded LRU map, and written through to an
+ * optional store keyed by source URL, so that they survive restarts and
+ * are shared between fetchers using the same store. The store must be
+ * kept apart from the response cache, whose scans and exports would
+ * otherwise include the mappings. URLs found not to have redirected are
+ * also remembered, for the miss TTL, so that repeat requests for them do
+ * not query the store.</p>
+ *
+ * @author Sam Adams
+ */
+public class RedirectCache {
+
+    private static final Logger LOG = Logger.getLogger(RedirectCache.class);
+
+    private final AbstractHttpCache cache;
+    private final Duration permanentTtl;
+    private final Duration temporaryTtl;
+    private final Map<String,Redirect> redirects;
+    private volatile Duration missTtl;
+
+    /**
+     * @param cache store for the mappings, which must be able to record
+     *              failures; null to keep them only in memory
+     */
+    public RedirectCache(final AbstractHttpCache cache, final int maxEntries, final Duration permanentTtl, final Duration temporaryTtl) {
+        if (cache != null && !cache.isFailureCachingSupported()) {
+            throw new IllegalArgumentException(cache.getClass().getName()+" cannot store redirects");
+        }
+        this.cache = cache;
+        this.permanentTtl = permanentTtl;
+        this.temporaryTtl = temporaryTtl;
+        this.missTtl = temporaryTtl != null ? temporaryTtl : permanentTtl;
+        this.redirects = Collections.synchronizedMap(new LinkedHashMap<String,Redirect>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String,Redirect> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public Duration getMissTtl() {
+        return missTtl;
+    }
+
+    /**
+     * Sets how long a URL with no mapping in the backing cache is assumed
+     * to have none, which bounds how late a mapping written by another
+     * fetcher is seen; null to query the cache on every miss. Defaults to
+     * the temporary redirect TTL, or if that is null the permanent one.
+     */
+    public void setMissTtl(final Duration missTtl) {
+        this.missTtl = missTtl;
+    }
+
+    /**
+     * Returns the final location previously reached from url, or null if
+     * none is known or the mapping has expired.
+     */
+    public URI getTarget(final URI url) {
+        final String key = url.toString();
+        final long now = System.currentTimeMillis();
+        Redirect redirect = redirects.get(key);
+        if (redirect != null && redirect.expires < now) {
+            redirects.remove(key);
+            redirect = null;
+        }
+        if (redirect == null && cache != null) {
+            redirect = load(key);
+            if (redirect == null || redirect.expires < now) {
+                final Duration missTtl = this.missTtl;
+                redirect = missTtl == null ? null : new Redirect(null, now + missTtl.getMillis());
+            }
+            if (redirect != null) {
+                redirects.put(key, redirect);
+            }
+        }
+        if (redirect == null || redirect.target == null) {
+            return null;
+        }
+        return URI.create(redirect.target);
+    }
+
+    /**
+     * Records that url redirected, with the given status on its first hop,
+     * to target.
+     */
+    public void put(final URI url, final int status, final URI target) {
+        final Duration ttl = getTtl(status);
+        if (ttl == null) {
+            return;
+        }
+        final String key = url.toString();
+        final Redirect redirect = new Redirect(target.toString(), System.currentTimeMillis() + ttl.getMillis());
+        redirects.put(key, redirect);
+        if (cache != null) {
+            try {
+                final List<Header> headers = Collections.<Header>singletonList(new BasicHeader("Location", redirect.target));
+                cache.storeFailure(key, url, status, headers, null);
+            } catch (IOException e) {
+                LOG.warn("Error caching redirect from "+key, e);
+            }
+        }
+    }
+
+    /**
+     * Forgets the mapping for url, e.g. because its target has failed. The
+     * next request for url will follow the redirects again.
+     */
+    public void remove(final URI url) {
+        // Tombstone, so that a stale mapping is not reloaded from the cache
+        redirects.put(url.toString(), new Redirect(null, Long.MAX_VALUE));
+    }
+
+    private Redirect load(final String key) {
+        try {
+            final CacheResponse response = cache.head(new CacheRequest(key));
+            if (response == null) {
+                return null;
+            }
+            final Duration ttl = getTtl(response.getStatus());
+            String target = null;
+            for (final Header header : response.getHeaders()) {
+                if ("Location".equalsIgnoreCase(header.getName())) {
+                    target = header.getValue();
+                }
+            }
+            if (ttl == null || target == null) {
+                return null;
+            }
+            return new Redirect(target, response.getCached().getMillis() + ttl.getMillis());
+        } catch (IOException e) {
+            LOG.warn("Error reading cached redirect from "+key, e);
+            return null;
+        }
+    }
+
+    private Duration getTtl(final int status) {
+        switch (status) {
+            case HttpStatus.SC_MOVED_PERMANENTLY:
+            case 308:
+                return permanentTtl;
+            case HttpStatus.SC_MOVED_TEMPORARILY:
+            case HttpStatus.SC_SEE_OTHER:
+            case HttpStatus.SC_TEMPORARY_REDIRECT:
+                return temporaryTtl;
+            default:
+                return null;
+        }
+    }
+
+    private static final class Redirect {
+
+        private final String target;
+        private final long expires;
+
+        private Redirect(final String target, final long expires) {
+            this.target = target;
+            this.expires = expires;
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.InterruptedIOException;
+import java.net.URI;
+
+/**
+ * Thrown when a request is given up because it was cancelled, or because
+ * its deadline has passed or would pass before it could be sent.
+ *
+ * @author Sam Adams
+ */
+public class RequestAbortedException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final URI url;
+    private final boolean cancelled;
+
+    public RequestAbortedException(final URI url, final boolean cancelled) {
+        super((cancelled ? "Request cancelled: " : "Request deadline exceeded: ")+url);
+        this.url = url;
+        this.cancelled = cancelled;
+    }
+
+    public URI getUrl() {
+        return url;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return !cancelled;
+    }
+
+}
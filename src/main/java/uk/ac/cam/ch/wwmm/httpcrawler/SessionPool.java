@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.DefaultedHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a session for each host, so that cookies set by a host, and the
+ * state of connections to it, carry over from one request to the next.
+ *
+ * <p>Sessions are held in a bounded LRU map, and dropped once idle for
+ * longer than the maximum idle time. Each request gets its own context,
+ * layered over its host's session, so that concurrent requests to a host
+ * share the session's cookies but not each other's execution state. The
+ * connection state (user token) of a completed request is copied back to
+ * the session by {@link #release}, so that later requests can reuse
+ * stateful connections.</p>
+ *
+ * @author Sam Adams
+ */
+public class SessionPool {
+
+    private final long maxIdleMillis;
+    private final Map<HttpHost,Session> sessions;
+
+    public SessionPool(final int maxSessions, final long maxIdle, final TimeUnit timeUnit) {
+        this.maxIdleMillis = timeUnit.toMillis(maxIdle);
+        this.sessions = Collections.synchronizedMap(new LinkedHashMap<HttpHost,Session>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<HttpHost,Session> eldest) {
+                return size() > maxSessions;
+            }
+        });
+    }
+
+    /**
+     * Returns a new context for a request to host, backed by host's session.
+     */
+    public HttpContext createContext(final HttpHost host) {
+        final Session session = getSession(host);
+        final HttpContext context = new DefaultedHttpContext(new BasicHttpContext(), session.context);
+        // Set on the request's own context, which the client writes to
+        context.setAttribute(ClientContext.USER_TOKEN, session.userToken);
+        return context;
+    }
+
+    /**
+     * Records the connection state left in context by a completed request
+     * to host.
+     */
+    public void release(final HttpHost host, final HttpContext context) {
+        final Session session = sessions.get(host);
+        if (session != null) {
+            session.userToken = context.getAttribute(ClientContext.USER_TOKEN);
+            session.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the cookies held for host, or null if there is no session.
+     */
+    public CookieStore getCookieStore(final HttpHost host) {
+        final Session session = sessions.get(host);
+        return session == null ? null : session.cookieStore;
+    }
+
+    /**
+     * Forgets host's session; the next request to host starts a new one.
+     */
+    public void invalidate(final HttpHost host) {
+        sessions.remove(host);
+    }
+
+    public void clear() {
+        sessions.clear();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private Session getSession(final HttpHost host) {
+        final long now = System.currentTimeMillis();
+        synchronized (sessions) {
+            Session session = sessions.get(host);
+            if (session == null || now - session.lastUsed > maxIdleMillis) {
+                session = new Session(now);
+                sessions.put(host, session);
+            } else {
+                session.cookieStore.clearExpired(new Date(now));
+                session.lastUsed = now;
+            }
+            return session;
+        }
+    }
+
+    private static final class Session {
+
+        private final BasicHttpContext context = new BasicHttpContext();
+        // BasicCookieStore is synchronized
+        private final CookieStore cookieStore = new BasicCookieStore();
+        private volatile Object userToken;
+        private volatile long lastUsed;
+
+        private Session(final long now) {
+            this.lastUsed = now;
+            context.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InputStream that draws a token from a {@link TokenBucket} for each byte read.
+ *
+ * <p>If given a request with a deadline or cancellation, waits for tokens
+ * only while the request may still complete, failing with a
+ * {@link RequestAbortedException} rather than sleeping past its deadline
+ * or through its cancellation.</p>
+ *
+ * @author Sam Adams
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final TokenBucket bucket;
+    private final CrawlerRequest request;
+
+    public ThrottledInputStream(final InputStream in, final TokenBucket bucket) {
+        this(in, bucket, null);
+    }
+
+    public ThrottledInputStream(final InputStream in, final TokenBucket bucket, final CrawlerRequest request) {
+        super(in);
+        this.bucket = bucket;
+        this.request = request;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b != -1) {
+            acquire(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            acquire(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        if (skipped > 0) {
+            acquire(skipped);
+        }
+        return skipped;
+    }
+
+    private void acquire(final long n) throws InterruptedIOException {
+        if (request == null || !request.isAbortable()) {
+            bucket.acquire(n);
+            return;
+        }
+        // The bytes have been read, so take their tokens whatever the wait
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(bucket.reserve(n, Long.MAX_VALUE) + 999999);
+        if (waitMillis <= 0) {
+            return;
+        }
+        request.checkAborted();
+        if (waitMillis > request.getRemainingMillis()) {
+            // Give up now, rather than wait only to miss the deadline
+            throw new RequestAbortedException(request.getUrl(), false);
+        }
+        final Cancellation cancellation = request.getCancellation();
+        try {
+            if (cancellation != null) {
+                if (cancellation.await(waitMillis, TimeUnit.MILLISECONDS)) {
+                    throw new RequestAbortedException(request.getUrl(), true);
+                }
+            } else {
+                Thread.sleep(waitMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for rate limit");
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket rate limiter.
+ *
+ * <p>Callers reserve tokens in strict arrival order (a fair lock), and may
+ * take the bucket into debt; each then sleeps once for the time it takes
+ * the bucket to refill to its reservation. Nobody spins, and a large
+ * request cannot be starved by a stream of small ones.</p>
+ *
+ * @author Sam Adams
+ */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate     tokens added per second
+     * @param capacity largest burst allowed after an idle period
+     */
+    public TokenBucket(final double rate, final double capacity) {
+        if (rate <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("rate and capacity must be positive");
+        }
+        this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes n tokens, waiting until they are available.
+     */
+    public void acquire(final long n) throws InterruptedIOException {
+        final long waitNanos = reserve(n, Long.MAX_VALUE);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for rate limit");
+            }
+        }
+    }
+
+    /**
+     * Takes n tokens, unless that would mean waiting longer than maxWait.
+     * The caller must then wait the returned time before using them.
+     *
+     * @return nanoseconds to wait, or -1 if no tokens were taken
+     */
+    public long reserve(final long n, final long maxWaitNanos) {
+        lock.lock();
+        try {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            final double remaining = tokens - n;
+            final long waitNanos = remaining < 0 ? (long) (-remaining / tokensPerNano) : 0;
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+            tokens = remaining;
+            return waitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reduces URLs to a canonical form, so that trivially different URLs for
+ * the same resource compare equal.
+ *
+ * <p>The scheme and host are lower-cased, default ports, fragments and
+ * empty query strings are removed, dot segments are resolved, percent
+ * escapes are upper-cased and those of unreserved characters decoded, and
+ * query parameters are sorted by name (keeping the order of repeated
+ * names). Sites that depend on parameter order are rare, but do exist.</p>
+ *
+ * @author Sam Adams
+ */
+public class UrlCanonicalizer {
+
+    private static final Comparator<String> PARAMETER_NAME_ORDER = new Comparator<String>() {
+        public int compare(final String a, final String b) {
+            return getName(a).compareTo(getName(b));
+        }
+    };
+
+    private UrlCanonicalizer() {
+    }
+
+    public static String canonicalize(final URI url) {
+        if (url.isOpaque() || url.getScheme() == null || url.getRawAuthority() == null) {
+            return url.toString();
+        }
+        final String scheme = url.getScheme().toLowerCase(Locale.ENGLISH);
+        final StringBuilder s = new StringBuilder(url.toString().length());
+        s.append(scheme).append("://");
+        if (url.getRawUserInfo() != null) {
+            s.append(url.getRawUserInfo()).append('@');
+        }
+        String host = url.getHost();
+        if (host == null) {
+            // Registry-based authority
+            s.append(url.getRawAuthority());
+        } else {
+            host = host.toLowerCase(Locale.ENGLISH);
+            if (host.endsWith(".")) {
+                host = host.substring(0, host.length() - 1);
+            }
+            s.append(host);
+            final int port = url.getPort();
+            if (port != -1 && port != getDefaultPort(scheme)) {
+                s.append(':').append(port);
+            }
+        }
+        s.append(normalizePath(url.getRawPath()));
+        final String query = normalizeQuery(url.getRawQuery());
+        if (query != null) {
+            s.append('?').append(query);
+        }
+        return s.toString();
+    }
+
+    private static int getDefaultPort(final String scheme) {
+        if ("http".equals(scheme)) {
+            return 80;
+        }
+        if ("https".equals(scheme)) {
+            return 443;
+        }
+        return -1;
+    }
+
+    private static String normalizePath(final String path) {
+        if (path == null || path.length() == 0) {
+            return "/";
+        }
+        final String[] segments = path.split("/", -1);
+        final List<String> out = new ArrayList<String>(segments.length);
+        // Path is absolute, so segments[0] is empty
+        for (int i = 1; i < segments.length; i++) {
+            final String segment = normalizeEscapes(segments[i]);
+            final boolean last = i == segments.length - 1;
+            if (".".equals(segment)) {
+                if (last) {
+                    out.add("");
+                }
+            } else if ("..".equals(segment)) {
+                if (!out.isEmpty()) {
+                    out.remove(out.size() - 1);
+                }
+                if (last) {
+                    out.add("");
+                }
+            } else {
+                out.add(segment);
+            }
+        }
+        final StringBuilder s = new StringBuilder(path.length());
+        for (final String segment : out) {
+            s.append('/').append(segment);
+        }
+        return s.length() == 0 ? "/" : s.toString();
+    }
+
+    private static String normalizeQuery(final String query) {
+        if (query == null) {
+            return null;
+        }
+        final List<String> parameters = new ArrayList<String>();
+        for (final String parameter : query.split("&")) {
+            if (parameter.length() > 0) {
+                parameters.add(normalizeEscapes(parameter));
+            }
+        }
+        if (parameters.isEmpty()) {
+            return null;
+        }
+        // Stable, so repeated names keep their order
+        Collections.sort(parameters, PARAMETER_NAME_ORDER);
+        final StringBuilder s = new StringBuilder(query.length());
+        for (final String parameter : parameters) {
+            if (s.length() > 0) {
+                s.append('&');
+            }
+            s.append(parameter);
+        }
+        return s.toString();
+    }
+
+    private static String getName(final String parameter) {
+        final int i = parameter.indexOf('=');
+        return i == -1 ? parameter : parameter.substring(0, i);
+    }
+
+    /**
+     * Upper-cases percent escapes, and decodes those of unreserved characters.
+     */
+    private static String normalizeEscapes(final String s) {
+        if (s.indexOf('%') == -1) {
+            return s;
+        }
+        final StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length() && isHex(s.charAt(i+1)) && isHex(s.charAt(i+2))) {
+                final int b = Integer.parseInt(s.substring(i+1, i+3), 16);
+                if (isUnreserved(b)) {
+                    out.append((char) b);
+                } else {
+                    out.append('%').append(Character.toUpperCase(s.charAt(i+1))).append(Character.toUpperCase(s.charAt(i+2)));
+                }
+                i += 2;
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isHex(final char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isUnreserved(final int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+}
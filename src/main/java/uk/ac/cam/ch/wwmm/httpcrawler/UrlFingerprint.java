@@ -0,0 +1,146 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+
+/**
+ * Fixed-size fingerprints of canonical URLs, for use as compact keys.
+ *
+ * <p>Fingerprints are the 128-bit MurmurHash3 (x64 variant, seed 0) of the
+ * UTF-8 bytes of the URL's {@link UrlCanonicalizer canonical form}; the
+ * 64-bit fingerprint is its first half. At 64 bits, collisions become
+ * likely around four billion URLs, so the 128-bit form should be used
+ * where a collision would return the wrong content.</p>
+ *
+ * @author Sam Adams
+ */
+public class UrlFingerprint {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private UrlFingerprint() {
+    }
+
+    public static long fingerprint64(final URI url) {
+        return fingerprint128(url)[0];
+    }
+
+    public static long[] fingerprint128(final URI url) {
+        return murmur3(UrlCanonicalizer.canonicalize(url).getBytes(UTF8));
+    }
+
+    /**
+     * Returns the 128-bit fingerprint of url as 32 hex digits.
+     */
+    public static String toHex(final URI url) {
+        final long[] h = fingerprint128(url);
+        final char[] s = new char[32];
+        toHex(h[0], s, 0);
+        toHex(h[1], s, 16);
+        return new String(s);
+    }
+
+    public static String toHex(final long fingerprint) {
+        final char[] s = new char[16];
+        toHex(fingerprint, s, 0);
+        return new String(s);
+    }
+
+    private static void toHex(final long h, final char[] s, final int offset) {
+        for (int i = 0; i < 16; i++) {
+            s[offset + i] = HEX[(int) (h >>> (60 - 4 * i)) & 0xf];
+        }
+    }
+
+    @SuppressWarnings("fallthrough")
+    static long[] murmur3(final byte[] data) {
+        final int length = data.length;
+        final int blocks = length / 16;
+        long h1 = 0;
+        long h2 = 0;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        final int tail = blocks * 16;
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+            case 9:  k2 ^= (long) (data[tail + 8] & 0xff);
+                k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+            case 7:  k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+            case 6:  k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+            case 5:  k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+            case 4:  k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+            case 3:  k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+            case 2:  k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+            case 1:  k1 ^= (long) (data[tail] & 0xff);
+                k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] {h1, h2};
+    }
+
+    private static long getLong(final byte[] data, final int offset) {
+        long v = 0;
+        for (int i = 7; i >= 0; i--) {
+            v = (v << 8) | (data[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+}
@@ -0,0 +1,300 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rolls requests up into one {@link HostSummary} per host per time window,
+ * rather than recording each exchange.
+ *
+ * <p>Counters are striped by thread over an {@link AtomicLongArray}, so
+ * that threads auditing requests to the same host rarely contend.
+ * Response times are kept in a log-linear histogram, accurate to within
+ * 1/8 of the value. Each exchange is counted in the window in which it
+ * completes, not the one in which it started, so that a slow exchange
+ * cannot re-open a window already passed to the sink. A window is passed
+ * to the sink once it has ended and a short grace period has passed.</p>
+ *
+ * @author Sam Adams
+ */
+public class AggregatingRequestAuditor implements RequestAuditor, CircuitAuditor, TransferAuditor, Closeable {
+
+    private static final Logger LOG = Logger.getLogger(AggregatingRequestAuditor.class);
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+
+    private static final int STRIPES;
+    static {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 16) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    // Striped counters; each stripe is padded to its own cache lines
+    private static final int BYTES = 5;
+    private static final int CIRCUIT_OPENS = 6;
+    private static final int STRIPE_SIZE = 16;
+
+    private static final int EXACT_BUCKETS = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int MAX_EXPONENT = 30;
+    // Exponents 4 to MAX_EXPONENT - 1, then one bucket for everything larger
+    private static final int BUCKETS = EXACT_BUCKETS + (MAX_EXPONENT - 4) * SUB_BUCKETS + 1;
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 1.0};
+
+    private final SummarySink sink;
+    private final long windowMillis;
+    private final long graceMillis;
+    private final ConcurrentMap<WindowKey,WindowStats> windows = new ConcurrentHashMap<WindowKey,WindowStats>();
+    private final ScheduledExecutorService flusher;
+
+    public AggregatingRequestAuditor(final SummarySink sink) {
+        this(sink, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public AggregatingRequestAuditor(final SummarySink sink, final long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be positive: "+windowMillis);
+        }
+        this.sink = sink;
+        this.windowMillis = windowMillis;
+        this.graceMillis = Math.min(windowMillis, 5000);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "audit-aggregator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final long period = Math.max(1000, windowMillis / 4);
+        flusher.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                flush(System.currentTimeMillis() - graceMillis);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void auditResponse(final long timestamp, final HttpHost host, final HttpRequest request, final HttpResponse response, final HttpContext context) {
+        final long now = System.currentTimeMillis();
+        final WindowStats stats = getStats(host, now);
+        final int stripe = getStripe();
+        final int statusClass = response.getStatusLine().getStatusCode() / 100;
+        if (statusClass >= 1 && statusClass <= 5) {
+            stats.counters.incrementAndGet(stripe + statusClass - 1);
+        }
+        stats.latencies.incrementAndGet(getBucket(now - timestamp));
+    }
+
+    public void auditError(final long timestamp, final HttpHost host, final HttpRequest request, final Throwable error, final HttpContext context) {
+        final WindowStats stats = getStats(host, System.currentTimeMillis());
+        final String type = error.getClass().getSimpleName();
+        AtomicLong count = stats.errors.get(type);
+        if (count == null) {
+            final AtomicLong tmp = stats.errors.putIfAbsent(type, count = new AtomicLong());
+            if (tmp != null) {
+                count = tmp;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Counts the bytes actually read, which the response's Content-Length
+     * would overstate for a failed transfer and understate for a resumed
+     * one.
+     */
+    public void auditTransfer(final long timestamp, final HttpHost host, final long bytes) {
+        if (bytes > 0) {
+            getStats(host, System.currentTimeMillis()).counters.addAndGet(getStripe() + BYTES, bytes);
+        }
+    }
+
+    public void auditCircuitChange(final long timestamp, final HttpHost host, final CircuitState previous, final CircuitState state) {
+        if (state == CircuitState.OPEN) {
+            getStats(host, System.currentTimeMillis()).counters.incrementAndGet(getStripe() + CIRCUIT_OPENS);
+        }
+    }
+
+    /**
+     * Returns the number of host windows not yet passed to the sink.
+     */
+    public int getPendingWindows() {
+        return windows.size();
+    }
+
+    /**
+     * Returns the stats for host in the window containing time, which must
+     * be the current time: windows are flushed by wall-clock time.
+     */
+    private WindowStats getStats(final HttpHost host, final long time) {
+        final WindowKey key = new WindowKey(host == null ? null : host.toURI(), time - time % windowMillis);
+        WindowStats stats = windows.get(key);
+        if (stats == null) {
+            stats = new WindowStats();
+            final WindowStats tmp = windows.putIfAbsent(key, stats);
+            if (tmp != null) {
+                stats = tmp;
+            }
+        }
+        return stats;
+    }
+
+    private static int getStripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+    }
+
+    static int getBucket(final long millis) {
+        if (millis < EXACT_BUCKETS) {
+            return (int) Math.max(0, millis);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(millis);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int sub = (int) (millis >> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value falling in bucket.
+     */
+    static long getBucketLimit(final int bucket) {
+        if (bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        final int exponent = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 4;
+        final int sub = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * Passes windows that started before time minus the window length to
+     * the sink.
+     */
+    private void flush(final long time) {
+        for (final Iterator<Map.Entry<WindowKey,WindowStats>> it = windows.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<WindowKey,WindowStats> e = it.next();
+            if (e.getKey().start + windowMillis <= time) {
+                it.remove();
+                try {
+                    sink.write(summarise(e.getKey(), e.getValue()));
+                } catch (RuntimeException ex) {
+                    LOG.warn("Error writing audit summary for "+e.getKey().host, ex);
+                }
+            }
+        }
+    }
+
+    private HostSummary summarise(final WindowKey key, final WindowStats stats) {
+        final long[] statusCounts = new long[5];
+        long bytes = 0;
+        long circuitOpens = 0;
+        for (int stripe = 0; stripe < STRIPES * STRIPE_SIZE; stripe += STRIPE_SIZE) {
+            for (int i = 0; i < statusCounts.length; i++) {
+                statusCounts[i] += stats.counters.get(stripe + i);
+            }
+            bytes += stats.counters.get(stripe + BYTES);
+            circuitOpens += stats.counters.get(stripe + CIRCUIT_OPENS);
+        }
+        final Map<String,Long> errors = new HashMap<String,Long>();
+        for (final Map.Entry<String,AtomicLong> e : stats.errors.entrySet()) {
+            errors.put(e.getKey(), e.getValue().get());
+        }
+        return new HostSummary(key.host, key.start, windowMillis, statusCounts, errors, bytes, circuitOpens,
+                getPercentiles(stats.latencies));
+    }
+
+    private static long[] getPercentiles(final AtomicLongArray histogram) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        final long[] values = new long[PERCENTILES.length];
+        if (total == 0) {
+            return values;
+        }
+        long seen = 0;
+        int p = 0;
+        for (int i = 0; i < BUCKETS && p < PERCENTILES.length; i++) {
+            seen += counts[i];
+            while (p < PERCENTILES.length && seen >= Math.ceil(PERCENTILES[p] * total)) {
+                values[p++] = getBucketLimit(i);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Stops the background flushing, and passes all windows, including the
+     * current ones, to the sink.
+     */
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(windowMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(Long.MAX_VALUE - windowMillis);
+    }
+
+    private static final class WindowKey {
+
+        private final String host;
+        private final long start;
+
+        private WindowKey(final String host, final long start) {
+            this.host = host;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof WindowKey)) {
+                return false;
+            }
+            final WindowKey that = (WindowKey) o;
+            return start == that.start && (host == null ? that.host == null : host.equals(that.host));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (host == null ? 0 : host.hashCode()) + (int) (start ^ (start >>> 32));
+        }
+
+    }
+
+    private static final class WindowStats {
+
+        private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+        private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+        private final ConcurrentMap<String,AtomicLong> errors = new ConcurrentHashMap<String,AtomicLong>(4);
+
+    }
+
+}
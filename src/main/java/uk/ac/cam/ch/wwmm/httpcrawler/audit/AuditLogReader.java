@@ -0,0 +1,180 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the segments written by {@link FileRequestAuditor}, gzipped or not.
+ * A record truncated by a crash ends the segment.
+ *
+ * <p>Run as a program to convert segments to tab-separated text:</p>
+ * <pre>java uk.ac.cam.ch.wwmm.httpcrawler.audit.AuditLogReader file...</pre>
+ *
+ * @author Sam Adams
+ */
+public class AuditLogReader implements Closeable {
+
+    private static final DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+
+    private final DataInputStream in;
+    private byte[] record = new byte[1024];
+
+    public AuditLogReader(final File file) throws IOException {
+        this(file.getName().endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(file))
+                : new FileInputStream(file));
+    }
+
+    public AuditLogReader(final InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        final byte[] magic = new byte[FileRequestAuditor.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, FileRequestAuditor.MAGIC)) {
+            throw new IOException("Not an audit log");
+        }
+    }
+
+    /**
+     * Returns the next record, or null at the end of the segment.
+     */
+    public AuditRecord next() throws IOException {
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 9) {
+            throw new IOException("Bad record length: "+length);
+        }
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        try {
+            in.readFully(record, 0, length);
+        } catch (EOFException e) {
+            return null;
+        }
+        final DataInputStream r = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+        final byte type = r.readByte();
+        final long timestamp = r.readLong();
+        switch (type) {
+            case FileRequestAuditor.RESPONSE: {
+                final String key = readString(r);
+                final String host = readString(r);
+                final String method = readString(r);
+                final String url = readString(r);
+                final List<Header> headers = readHeaders(r);
+                final int status = r.readUnsignedShort();
+                final String message = readString(r);
+                return new AuditRecord(type, timestamp, key, host, method, url, headers, status, message, null, null);
+            }
+            case FileRequestAuditor.ERROR: {
+                final String key = readString(r);
+                final String host = readString(r);
+                final String method = readString(r);
+                final String url = readString(r);
+                final List<Header> headers = readHeaders(r);
+                final String error = readString(r);
+                final String message = readString(r);
+                final String causeClass = readString(r);
+                final String causeMessage = readString(r);
+                final String cause = causeClass == null ? null : causeMessage == null ? causeClass : causeClass+": "+causeMessage;
+                return new AuditRecord(type, timestamp, key, host, method, url, headers, -1, message, error, cause);
+            }
+            case FileRequestAuditor.CIRCUIT: {
+                final String host = readString(r);
+                final String previous = readString(r);
+                final String state = readString(r);
+                return new AuditRecord(type, timestamp, null, host, null, null, Collections.<Header>emptyList(), -1, state, previous, null);
+            }
+            default:
+                throw new IOException("Unknown record type: "+type);
+        }
+    }
+
+    private static List<Header> readHeaders(final DataInputStream r) throws IOException {
+        final int n = r.readShort();
+        final List<Header> headers = new ArrayList<Header>(n);
+        for (int i = 0; i < n; i++) {
+            headers.add(new BasicHeader(readString(r), readString(r)));
+        }
+        return headers;
+    }
+
+    private static String readString(final DataInputStream r) throws IOException {
+        final int n = r.readUnsignedShort();
+        if (n == FileRequestAuditor.NULL_LENGTH) {
+            return null;
+        }
+        final byte[] b = new byte[n];
+        r.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Writes each record as a line of tab-separated fields: time, type,
+     * host, method, URL, status, message, error, cause, key.
+     */
+    public void writeTsv(final Writer out) throws IOException {
+        for (AuditRecord record = next(); record != null; record = next()) {
+            final String type;
+            switch (record.getType()) {
+                case FileRequestAuditor.RESPONSE:
+                    type = "response";
+                    break;
+                case FileRequestAuditor.ERROR:
+                    type = "error";
+                    break;
+                default:
+                    type = "circuit";
+            }
+            out.write(DATE_FORMAT.print(record.getTimestamp()));
+            writeField(out, type);
+            writeField(out, record.getHost());
+            writeField(out, record.getMethod());
+            writeField(out, record.getUrl());
+            writeField(out, record.getStatus() < 0 ? null : Integer.toString(record.getStatus()));
+            writeField(out, record.getMessage());
+            writeField(out, record.getError());
+            writeField(out, record.getCause());
+            writeField(out, record.getKey());
+            out.write('\n');
+        }
+    }
+
+    private static void writeField(final Writer out, final String s) throws IOException {
+        out.write('\t');
+        if (s != null) {
+            out.write(s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        for (final String arg : args) {
+            final AuditLogReader reader = new AuditLogReader(new File(arg));
+            try {
+                reader.writeTsv(out);
+            } finally {
+                reader.close();
+            }
+        }
+        out.flush();
+    }
+
+}
@@ -0,0 +1,102 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.Header;
+
+import java.util.List;
+
+/**
+ * An entry read from a {@link FileRequestAuditor} log. Fields that do not
+ * apply to the record's type are null, or -1 for the status.
+ *
+ * @author Sam Adams
+ */
+public class AuditRecord {
+
+    private final byte type;
+    private final long timestamp;
+    private final String key;
+    private final String host;
+    private final String method;
+    private final String url;
+    private final List<Header> headers;
+    private final int status;
+    private final String message;
+    private final String error;
+    private final String cause;
+
+    AuditRecord(final byte type, final long timestamp, final String key, final String host, final String method,
+                final String url, final List<Header> headers, final int status, final String message,
+                final String error, final String cause) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.key = key;
+        this.host = host;
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.status = status;
+        this.message = message;
+        this.error = error;
+        this.cause = cause;
+    }
+
+    /**
+     * Returns {@link FileRequestAuditor#RESPONSE}, {@link FileRequestAuditor#ERROR}
+     * or {@link FileRequestAuditor#CIRCUIT}.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public List<Header> getHeaders() {
+        return headers;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the reason phrase of a response, the error message of an
+     * error, or the new state of a circuit change.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the exception class of an error, or the previous state of a
+     * circuit change.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the class and message of an error's cause.
+     */
+    public String getCause() {
+        return cause;
+    }
+
+}
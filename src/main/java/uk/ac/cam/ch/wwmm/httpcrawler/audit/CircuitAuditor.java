@@ -0,0 +1,17 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.HttpHost;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
+
+/**
+ * Receives the state changes of a {@link uk.ac.cam.ch.wwmm.httpcrawler.CircuitBreaker}.
+ * The auditors in this package implement it alongside {@link RequestAuditor},
+ * and the fetcher builder passes them to the breaker when they do.
+ *
+ * @author Sam Adams
+ */
+public interface CircuitAuditor {
+
+    void auditCircuitChange(long timestamp, HttpHost host, CircuitState previous, CircuitState state);
+
+}
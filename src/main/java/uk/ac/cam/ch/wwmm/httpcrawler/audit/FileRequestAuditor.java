@@ -0,0 +1,536 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
+import uk.ac.cam.ch.wwmm.httpcrawler.FetcherParams;
+
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends audit records to local files in a compact binary format, which
+ * can be read back with {@link AuditLogReader}.
+ *
+ * <p>Records are encoded into one of two preallocated buffers. When it is
+ * full, or the flush interval has passed, it is handed to a background
+ * thread to write out while records go into the other, so requests do not
+ * wait on the disk unless it falls a whole buffer behind. {@link #flush()}
+ * writes on the calling thread. A new segment file is started when the
+ * current one reaches the maximum size or age, and the finished segment is
+ * gzipped in the background. A background task checks the interval and age
+ * every flush interval, so records are written and segments finished even
+ * when no more arrive. Records arriving after {@link #close()} are dropped
+ * with a warning.</p>
+ *
+ * <p>Each segment starts with {@link #MAGIC}. Each record is an int length
+ * followed by a type byte, a long timestamp and the record's fields;
+ * strings are an unsigned short UTF-8 length (0xFFFF for null) followed
+ * by their bytes.</p>
+ *
+ * @author Sam Adams
+ */
+public class FileRequestAuditor implements RequestAuditor, CircuitAuditor, Closeable {
+
+    private static final Logger LOG = Logger.getLogger(FileRequestAuditor.class);
+
+    public static final byte[] MAGIC = {'H', 'C', 'A', 'U', 'D', 'I', 'T', 1};
+
+    public static final byte RESPONSE = 1;
+    public static final byte ERROR = 2;
+    public static final byte CIRCUIT = 3;
+
+    public static final String SUFFIX = ".audit";
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 256L * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_AGE = 60L * 60 * 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    static final int NULL_LENGTH = 0xFFFF;
+    private static final int MAX_STRING_BYTES = NULL_LENGTH - 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final DateTimeFormatter FILENAME_FORMAT =
+            DateTimeFormat.forPattern("yyyyMMdd-HHmmss-SSS").withZone(DateTimeZone.UTC);
+
+    private final File directory;
+    private final String prefix;
+    private final long maxFileSize;
+    private final long maxFileAge;
+    private final long flushInterval;
+    private final boolean compress;
+
+    private final ScheduledExecutorService executor;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // The other buffer, or null while it is being written out
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private int writingBytes;
+    private long lastFlush;
+    private boolean closed;
+    private boolean dropWarned;
+
+    // Guards the segment, which is written without holding the auditor's lock
+    private final Object fileLock = new Object();
+    private File file;
+    private FileChannel channel;
+    private long fileSize;
+    private long fileOpened;
+
+    public FileRequestAuditor(final File directory, final String prefix) throws IOException {
+        this(directory, prefix, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILE_AGE, DEFAULT_FLUSH_INTERVAL, true);
+    }
+
+    /**
+     * @param maxFileSize   size in bytes at which a new segment is started
+     * @param maxFileAge    age in milliseconds at which a new segment is started
+     * @param flushInterval longest time in milliseconds records are buffered
+     * @param compress      whether to gzip finished segments
+     */
+    public FileRequestAuditor(final File directory, final String prefix, final long maxFileSize,
+                              final long maxFileAge, final long flushInterval, final boolean compress) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+        this.maxFileAge = maxFileAge;
+        this.flushInterval = flushInterval;
+        this.compress = compress;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "audit-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        FileUtils.forceMkdir(directory);
+        open(System.currentTimeMillis());
+        if (flushInterval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    tick();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void auditResponse(final long timestamp, final HttpHost host, final HttpRequest request, final HttpResponse response, final HttpContext context) {
+        synchronized (this) {
+            final int start = begin(RESPONSE, timestamp);
+            if (start < 0) {
+                return;
+            }
+            try {
+                putRequest(host, request, context);
+                buffer.putShort((short) response.getStatusLine().getStatusCode());
+                putString(response.getStatusLine().getReasonPhrase());
+            } catch (BufferOverflowException e) {
+                if (retry(start, e)) {
+                    auditResponse(timestamp, host, request, response, context);
+                }
+                return;
+            }
+            end(start, timestamp);
+        }
+    }
+
+    public void auditError(final long timestamp, final HttpHost host, final HttpRequest request, final Throwable error, final HttpContext context) {
+        synchronized (this) {
+            final int start = begin(ERROR, timestamp);
+            if (start < 0) {
+                return;
+            }
+            try {
+                putRequest(host, request, context);
+                putString(error.getClass().getName());
+                putString(error.getMessage());
+                final Throwable cause = error.getCause();
+                putString(cause == null ? null : cause.getClass().getName());
+                putString(cause == null ? null : cause.getMessage());
+            } catch (BufferOverflowException e) {
+                if (retry(start, e)) {
+                    auditError(timestamp, host, request, error, context);
+                }
+                return;
+            }
+            end(start, timestamp);
+        }
+    }
+
+    public void auditCircuitChange(final long timestamp, final HttpHost host, final CircuitState previous, final CircuitState state) {
+        synchronized (this) {
+            final int start = begin(CIRCUIT, timestamp);
+            if (start < 0) {
+                return;
+            }
+            try {
+                putString(host == null ? null : host.toURI());
+                putString(previous.name());
+                putString(state.name());
+            } catch (BufferOverflowException e) {
+                if (retry(start, e)) {
+                    auditCircuitChange(timestamp, host, previous, state);
+                }
+                return;
+            }
+            end(start, timestamp);
+        }
+    }
+
+    /**
+     * Starts a record, returning its position in the buffer, or -1 if it is
+     * to be dropped because the auditor has been closed.
+     */
+    private int begin(final byte type, final long timestamp) {
+        if (closed) {
+            if (!dropWarned) {
+                LOG.warn("Dropping audit records received after close: "+new File(directory, prefix));
+                dropWarned = true;
+            }
+            return -1;
+        }
+        final int start = buffer.position();
+        if (buffer.remaining() < 13) {
+            return retry(start, null) ? begin(type, timestamp) : -1;
+        }
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(timestamp);
+        return start;
+    }
+
+    private void end(final int start, final long timestamp) {
+        buffer.putInt(start, buffer.position() - start - 4);
+        if (System.currentTimeMillis() - lastFlush >= flushInterval && spare != null) {
+            writeInBackground(takeBuffer());
+        }
+    }
+
+    /**
+     * Writes out records buffered for longer than the flush interval, and
+     * finishes a segment that has reached its maximum age. Runs on the
+     * background thread, so never waits for it.
+     */
+    private void tick() {
+        final long now = System.currentTimeMillis();
+        final ByteBuffer full;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (buffer.position() > 0) {
+                if (now - lastFlush < flushInterval || spare == null) {
+                    return;
+                }
+                full = takeBuffer();
+            } else {
+                full = null;
+            }
+        }
+        if (full != null) {
+            writeQuietly(full);
+            return;
+        }
+        synchronized (fileLock) {
+            if (channel.isOpen() && fileSize > MAGIC.length && now - fileOpened >= maxFileAge) {
+                try {
+                    rotate(now);
+                } catch (IOException e) {
+                    LOG.warn("Error starting audit log segment", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards a partly-encoded record, and makes room to encode it again:
+     * by handing the buffer to the background thread, or if it was already
+     * empty, by enlarging it.
+     *
+     * @return false if the record is to be dropped, because the thread was
+     *         interrupted waiting for the background thread
+     */
+    private boolean retry(final int start, final BufferOverflowException e) {
+        buffer.position(start);
+        if (start == 0) {
+            if (e == null) {
+                throw new IllegalStateException();
+            }
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            return true;
+        }
+        try {
+            awaitSpare();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (!closed && buffer.position() > 0) {
+            writeInBackground(takeBuffer());
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the background thread has finished writing out the
+     * previous buffer. Other threads may add records meanwhile.
+     */
+    private void awaitSpare() throws InterruptedException {
+        while (spare == null) {
+            wait();
+        }
+    }
+
+    /**
+     * Swaps in the spare buffer, returning the one holding records.
+     */
+    private ByteBuffer takeBuffer() {
+        final ByteBuffer full = buffer;
+        buffer = spare;
+        spare = null;
+        writingBytes = full.position();
+        lastFlush = System.currentTimeMillis();
+        return full;
+    }
+
+    private synchronized void returnBuffer(final ByteBuffer full) {
+        full.clear();
+        spare = full;
+        writingBytes = 0;
+        notifyAll();
+    }
+
+    private void writeInBackground(final ByteBuffer full) {
+        executor.execute(new Runnable() {
+            public void run() {
+                writeQuietly(full);
+            }
+        });
+    }
+
+    private void writeQuietly(final ByteBuffer full) {
+        try {
+            write(full);
+        } catch (IOException e) {
+            // Drop the records, rather than let the buffers grow unbounded
+            LOG.warn("Error writing audit log "+file, e);
+        } finally {
+            returnBuffer(full);
+        }
+    }
+
+    /**
+     * Writes records to the current segment, first starting a new segment
+     * if the current one is full or too old.
+     */
+    private void write(final ByteBuffer full) throws IOException {
+        if (full.position() == 0) {
+            return;
+        }
+        synchronized (fileLock) {
+            final long now = System.currentTimeMillis();
+            if (fileSize >= maxFileSize || now - fileOpened >= maxFileAge) {
+                rotate(now);
+            }
+            full.flip();
+            while (full.hasRemaining()) {
+                fileSize += channel.write(full);
+            }
+        }
+    }
+
+    private void putRequest(final HttpHost host, final HttpRequest request, final HttpContext context) {
+        putString(FetcherParams.getKey(context));
+        putString(host == null ? null : host.toURI());
+        putString(request.getRequestLine().getMethod());
+        if (request instanceof HttpUriRequest) {
+            putString(((HttpUriRequest) request).getURI().toString());
+        } else {
+            putString(request.getRequestLine().getUri());
+        }
+        final Header[] headers = request.getAllHeaders();
+        buffer.putShort((short) Math.min(headers.length, Short.MAX_VALUE));
+        for (int i = 0; i < headers.length && i < Short.MAX_VALUE; i++) {
+            putString(headers[i].getName());
+            putString(headers[i].getValue());
+        }
+    }
+
+    /**
+     * Encodes s as UTF-8 directly into the buffer, truncating it if it
+     * exceeds the maximum length.
+     */
+    private void putString(final String s) {
+        if (s == null) {
+            buffer.putShort((short) NULL_LENGTH);
+            return;
+        }
+        final int lengthPosition = buffer.position();
+        buffer.putShort((short) 0);
+        final int start = buffer.position();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            final int n;
+            if (c < 0x80) {
+                n = 1;
+            } else if (c < 0x800) {
+                n = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i+1))) {
+                n = 4;
+            } else {
+                n = 3;
+            }
+            if (buffer.position() - start + n > MAX_STRING_BYTES) {
+                break;
+            }
+            if (n == 1) {
+                buffer.put((byte) c);
+            } else if (n == 2) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (n == 3) {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (cp & 0x3f)));
+            }
+        }
+        buffer.putShort(lengthPosition, (short) (buffer.position() - start));
+    }
+
+    /**
+     * Returns the number of bytes of records not yet written out.
+     */
+    public synchronized int getBufferedBytes() {
+        return buffer.position() + writingBytes;
+    }
+
+    /**
+     * Returns the time buffered records were last written out.
+     */
+    public synchronized long getLastFlushTime() {
+        return lastFlush;
+    }
+
+    /**
+     * Writes buffered records to the current segment, first starting a new
+     * segment if the current one is full or too old. Waits for any records
+     * being written in the background, so all those received before the
+     * call are written when it returns.
+     */
+    public void flush() throws IOException {
+        final ByteBuffer full;
+        synchronized (this) {
+            awaitSpareInterruptibly();
+            full = takeBuffer();
+        }
+        try {
+            write(full);
+        } finally {
+            returnBuffer(full);
+        }
+    }
+
+    private void awaitSpareInterruptibly() throws InterruptedIOException {
+        try {
+            awaitSpare();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for audit log writer");
+        }
+    }
+
+    private void open(final long now) throws IOException {
+        file = new File(directory, prefix + "-" + FILENAME_FORMAT.print(now) + SUFFIX);
+        channel = new FileOutputStream(file, true).getChannel();
+        fileSize = channel.size();
+        if (fileSize == 0) {
+            fileSize += channel.write(ByteBuffer.wrap(MAGIC));
+        }
+        fileOpened = now;
+    }
+
+    private void rotate(final long now) throws IOException {
+        final File finished = file;
+        channel.close();
+        open(now);
+        if (compress) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    compress(finished);
+                }
+            });
+        }
+    }
+
+    private static void compress(final File file) {
+        final File gz = new File(file.getPath() + ".gz");
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                final OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+                try {
+                    IOUtils.copyLarge(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            FileUtils.forceDelete(file);
+        } catch (IOException e) {
+            LOG.warn("Error compressing audit log "+file, e);
+            FileUtils.deleteQuietly(gz);
+        }
+    }
+
+    /**
+     * Writes out buffered records and closes the current segment. The
+     * last segment is left uncompressed.
+     */
+    public void close() throws IOException {
+        final ByteBuffer full;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            awaitSpareInterruptibly();
+            closed = true;
+            full = takeBuffer();
+        }
+        try {
+            synchronized (fileLock) {
+                try {
+                    write(full);
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            returnBuffer(full);
+            executor.shutdown();
+        }
+    }
+
+}
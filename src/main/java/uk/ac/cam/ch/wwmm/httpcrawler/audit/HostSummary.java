@@ -0,0 +1,108 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.joda.time.DateTime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Activity for one host during one window of an
+ * {@link AggregatingRequestAuditor}.
+ *
+ * @author Sam Adams
+ */
+public class HostSummary {
+
+    private final String host;
+    private final long windowStart;
+    private final long windowMillis;
+    private final long[] statusCounts;
+    private final Map<String,Long> errorCounts;
+    private final long bytes;
+    private final long circuitOpens;
+    private final long[] latencyPercentiles;
+
+    HostSummary(final String host, final long windowStart, final long windowMillis, final long[] statusCounts,
+                final Map<String,Long> errorCounts, final long bytes, final long circuitOpens, final long[] latencyPercentiles) {
+        this.host = host;
+        this.windowStart = windowStart;
+        this.windowMillis = windowMillis;
+        this.statusCounts = statusCounts;
+        this.errorCounts = Collections.unmodifiableMap(errorCounts);
+        this.bytes = bytes;
+        this.circuitOpens = circuitOpens;
+        this.latencyPercentiles = latencyPercentiles;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public DateTime getWindowStart() {
+        return new DateTime(windowStart);
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getResponseCount() {
+        long n = 0;
+        for (final long count : statusCounts) {
+            n += count;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of responses with status in the class, e.g. 2 for
+     * 2xx responses.
+     */
+    public long getStatusCount(final int statusClass) {
+        return statusClass < 1 || statusClass > statusCounts.length ? 0 : statusCounts[statusClass-1];
+    }
+
+    /**
+     * Returns the number of failed exchanges, keyed by exception class.
+     */
+    public Map<String,Long> getErrorCounts() {
+        return errorCounts;
+    }
+
+    public long getErrorCount() {
+        long n = 0;
+        for (final long count : errorCounts.values()) {
+            n += count;
+        }
+        return n;
+    }
+
+    /**
+     * Returns the total body bytes read from responses, as reported to
+     * the auditor through {@link TransferAuditor}.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getCircuitOpens() {
+        return circuitOpens;
+    }
+
+    /**
+     * Returns the approximate response time, in milliseconds, at the 50th,
+     * 90th, 99th and 100th percentiles.
+     */
+    public long[] getLatencyPercentiles() {
+        return latencyPercentiles.clone();
+    }
+
+    @Override
+    public String toString() {
+        return host+" "+getWindowStart()+" responses="+Arrays.toString(statusCounts)+" errors="+errorCounts
+                +" bytes="+bytes+" latency(p50,p90,p99,max)="+Arrays.toString(latencyPercentiles)
+                +(circuitOpens > 0 ? " circuitOpens="+circuitOpens : "");
+    }
+
+}
@@ -0,0 +1,20 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes summaries to a log4j logger at INFO level.
+ *
+ * @author Sam Adams
+ */
+public class LoggingSummarySink implements SummarySink {
+
+    private static final Logger LOG = Logger.getLogger(LoggingSummarySink.class);
+
+    public void write(final HostSummary summary) {
+        if (LOG.isInfoEnabled()) {
+            LOG.info(summary);
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+/**
+ * Receives the per-host summaries produced by an
+ * {@link AggregatingRequestAuditor}.
+ *
+ * @author Sam Adams
+ */
+public interface SummarySink {
+
+    void write(HostSummary summary);
+
+}
@@ -0,0 +1,17 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Receives the number of body bytes read from each response, which may
+ * differ from its Content-Length when the transfer fails part way, is
+ * resumed, or has no declared length. The fetcher reports to its request
+ * auditor through this interface when the auditor implements it.
+ *
+ * @author Sam Adams
+ */
+public interface TransferAuditor {
+
+    void auditTransfer(long timestamp, HttpHost host, long bytes);
+
+}
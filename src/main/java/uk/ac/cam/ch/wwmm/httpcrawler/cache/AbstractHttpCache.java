@@ -19,6 +19,7 @@ package uk.ac.cam.ch.wwmm.httpcrawler.cache;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
 import org.apache.http.message.BasicHeader;
+import org.apache.log4j.Logger;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -26,18 +27,144 @@ import org.joda.time.format.DateTimeFormatter;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Base for the caches in this package, providing the operations beyond
+ * {@link HttpCache#get} and {@link HttpCache#store}. Each has a default
+ * built on those two, which subclasses override where their storage can
+ * do better.
+ *
  * @author Sam Adams
  */
 public abstract class AbstractHttpCache implements HttpCache {
 
+    private static final Logger LOG = Logger.getLogger(AbstractHttpCache.class);
+
     public static final DateTimeFormatter DATETIME_FORMATTER =
             DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z")
                     .withZone(DateTimeZone.UTC);
 
+    private volatile boolean failureIgnored;
+
+    /**
+     * Stores content that is still in its transfer {@link ContentEncoding}.
+     * Subclasses that keep content in the same coding store the bytes as
+     * they are; by default they are decoded first.
+     *
+     * @param contentEncoding canonical coding name, or null if not encoded
+     */
+    public void store(final String id, final URI url, final List<Header> headers, final String contentEncoding, final byte[] bytes) throws IOException {
+        store(id, url, headers, ContentEncoding.decode(contentEncoding, bytes));
+    }
+
+    /**
+     * Records an unsuccessful response, so that it can be answered from the
+     * cache. A successful entry already stored under id is kept, and the
+     * failure not recorded, so that the entry can still be served stale.
+     * Subclasses that cannot record a status ignore failures, with a
+     * warning the first time.
+     *
+     * @param bytes the response body, or null if it is not to be kept
+     * @see #isFailureCachingSupported()
+     */
+    public void storeFailure(final String id, final URI url, final int status, final List<Header> headers, final byte[] bytes) throws IOException {
+        if (!failureIgnored) {
+            failureIgnored = true;
+            LOG.warn(getClass().getName()+" cannot record failures; not caching HTTP "+status+" for "+id);
+        }
+    }
+
+    /**
+     * Whether {@link #storeFailure} records failures. False unless a
+     * subclass overrides both.
+     */
+    public boolean isFailureCachingSupported() {
+        return false;
+    }
+
+    /**
+     * Stores several entries at once, keeping their IDs and statuses. Each
+     * entry's content stream is read and closed. Where an ID appears more
+     * than once, the last entry for it is kept.
+     *
+     * <p>By default each entry is stored in turn, and the cached time is
+     * not kept unless the subclass overrides this.</p>
+     */
+    public void storeAll(final List<CacheResponse> entries) throws IOException {
+        for (final CacheResponse entry : entries) {
+            final byte[] bytes = readContent(entry);
+            if (entry.isSuccess()) {
+                store(entry.getId(), entry.getUrl(), entry.getHeaders(), bytes);
+            } else {
+                storeFailure(entry.getId(), entry.getUrl(), entry.getStatus(), entry.getHeaders(), bytes);
+            }
+        }
+    }
+
+    protected static byte[] readContent(final CacheResponse entry) throws IOException {
+        final InputStream in = entry.getContent();
+        if (in == null) {
+            return new byte[0];
+        }
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Returns the cached URL, headers and timestamp for a request, without
+     * its content; {@link CacheResponse#getContent()} will return null.
+     */
+    public CacheResponse head(final CacheRequest request) throws IOException {
+        final CacheResponse response = get(request);
+        if (response == null) {
+            return null;
+        }
+        IOUtils.closeQuietly(response.getContent());
+        return new CacheResponse(response.getId(), response.getStatus(), response.getUrl(), response.getHeaders(), null, response.getCached());
+    }
+
+    /**
+     * Returns the cached URL, headers and timestamps of the revisions kept
+     * for a request, newest first, without their content. Caches that do
+     * not keep history return at most the current entry.
+     */
+    public List<CacheResponse> getHistory(final CacheRequest request) throws IOException {
+        final CacheResponse response = head(request);
+        return response == null ? Collections.<CacheResponse>emptyList() : Collections.singletonList(response);
+    }
+
+    /**
+     * Returns an earlier revision of an entry: 0 for the current one, 1 for
+     * the one it replaced, and so on; null if it has not been kept.
+     */
+    public CacheResponse getRevision(final CacheRequest request, final int age) throws IOException {
+        return age == 0 ? get(request) : null;
+    }
+
+    /**
+     * Looks up several requests at once. The result is keyed by ID and has
+     * no entries for misses. Content is not read until it is first used.
+     */
+    public Map<String,CacheResponse> getAll(final Collection<CacheRequest> requests) throws IOException {
+        final Map<String,CacheResponse> map = new LinkedHashMap<String,CacheResponse>();
+        for (final CacheRequest request : requests) {
+            final CacheResponse response = get(request);
+            if (response != null) {
+                map.put(request.getId(), response);
+            }
+        }
+        return map;
+    }
 
     protected static List<Header> readHeaders(final InputStream r) throws IOException {
         final List<Header> list = new ArrayList<Header>();
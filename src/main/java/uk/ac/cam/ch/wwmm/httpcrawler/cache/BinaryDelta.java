@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary deltas, which rebuild a target byte array from a source array.
+ *
+ * <p>Positions in the source are indexed by a hash of the {@link #BLOCK}
+ * bytes starting there. The target is scanned for matching blocks, which
+ * are extended in both directions and encoded as copies from the source;
+ * the bytes between them are encoded as literals. Revisions of the same
+ * page, which mostly differ by a few bytes, give deltas of a few dozen
+ * bytes.</p>
+ *
+ * <p>A delta is the varint target length, followed by instructions: a
+ * varint <code>length &lt;&lt; 1</code> followed by that many literal
+ * bytes, or a varint <code>length &lt;&lt; 1 | 1</code> followed by a
+ * varint source offset to copy from.</p>
+ *
+ * @author Sam Adams
+ */
+public class BinaryDelta {
+
+    static final int BLOCK = 16;
+
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+
+    private BinaryDelta() {
+    }
+
+    public static byte[] create(final byte[] source, final byte[] target) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeVarint(out, target.length);
+
+        final int[] table = index(source);
+        final int mask = table.length - 1;
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            final int candidate = table.length == 0 ? 0 : table[hash(target, i) & mask] - 1;
+            if (candidate >= 0 && matches(source, candidate, target, i)) {
+                int start = i;
+                int sourceStart = candidate;
+                while (start > literalStart && sourceStart > 0 && source[sourceStart-1] == target[start-1]) {
+                    start--;
+                    sourceStart--;
+                }
+                int end = i + BLOCK;
+                int sourceEnd = candidate + BLOCK;
+                while (end < target.length && sourceEnd < source.length && source[sourceEnd] == target[end]) {
+                    end++;
+                    sourceEnd++;
+                }
+                writeLiteral(out, target, literalStart, start);
+                writeVarint(out, ((long) (end - start) << 1) | 1);
+                writeVarint(out, sourceStart);
+                i = literalStart = end;
+            } else {
+                i++;
+            }
+        }
+        writeLiteral(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    public static byte[] apply(final byte[] source, final byte[] delta) throws IOException {
+        final int[] pos = {0};
+        final long length = readVarint(delta, pos);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Bad delta: target length "+length);
+        }
+        final byte[] target = new byte[(int) length];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            final long op = readVarint(delta, pos);
+            final long count = op >>> 1;
+            if (count > target.length - n) {
+                throw new IOException("Bad delta: instruction overruns target");
+            }
+            if ((op & 1) == 0) {
+                if (count > delta.length - pos[0]) {
+                    throw new IOException("Bad delta: truncated literal");
+                }
+                System.arraycopy(delta, pos[0], target, n, (int) count);
+                pos[0] += count;
+            } else {
+                final long offset = readVarint(delta, pos);
+                if (offset < 0 || offset + count > source.length) {
+                    throw new IOException("Bad delta: copy outside source");
+                }
+                System.arraycopy(source, (int) offset, target, n, (int) count);
+            }
+            n += count;
+        }
+        if (n != target.length) {
+            throw new IOException("Bad delta: expected "+target.length+" bytes, got "+n);
+        }
+        return target;
+    }
+
+    /**
+     * Maps block hashes to the first source position with that hash, plus
+     * one, so that zero marks an empty slot.
+     */
+    private static int[] index(final byte[] source) {
+        final int blocks = source.length - BLOCK + 1;
+        if (blocks <= 0) {
+            return new int[0];
+        }
+        int size = 1;
+        while (size < blocks && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        final int[] table = new int[size];
+        final int mask = size - 1;
+        // Backwards, so earlier positions win
+        for (int i = blocks - 1; i >= 0; i--) {
+            table[hash(source, i) & mask] = i + 1;
+        }
+        return table;
+    }
+
+    private static int hash(final byte[] b, final int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            h = h * 31 + b[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(final byte[] source, final int sourceOffset, final byte[] target, final int targetOffset) {
+        for (int i = 0; i < BLOCK; i++) {
+            if (source[sourceOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeLiteral(final ByteArrayOutputStream out, final byte[] target, final int start, final int end) {
+        if (end > start) {
+            writeVarint(out, (long) (end - start) << 1);
+            out.write(target, start, end - start);
+        }
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(final byte[] b, final int[] pos) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= b.length) {
+                throw new IOException("Bad delta: truncated varint");
+            }
+            final int x = b[pos[0]++];
+            v |= (long) (x & 0x7f) << shift;
+            if ((x & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Bad delta: varint too long");
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over cache entries, in storage order. Entry content is not read
+ * until it is used. Cursors hold server resources and must be closed.
+ *
+ * @author Sam Adams
+ */
+public interface CacheCursor extends Iterator<CacheResponse>, Closeable {
+
+}
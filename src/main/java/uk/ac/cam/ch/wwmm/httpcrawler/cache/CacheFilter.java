@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.joda.time.DateTime;
+
+/**
+ * Selects cache entries for a scan. An empty filter matches every entry.
+ *
+ * @author Sam Adams
+ */
+public class CacheFilter {
+
+    private String idPrefix;
+    private DateTime cachedAfter;
+    private DateTime cachedBefore;
+
+    public String getIdPrefix() {
+        return idPrefix;
+    }
+
+    public CacheFilter withIdPrefix(final String idPrefix) {
+        this.idPrefix = idPrefix;
+        return this;
+    }
+
+    public DateTime getCachedAfter() {
+        return cachedAfter;
+    }
+
+    /**
+     * Matches entries cached at or after the given time.
+     */
+    public CacheFilter withCachedAfter(final DateTime cachedAfter) {
+        this.cachedAfter = cachedAfter;
+        return this;
+    }
+
+    public DateTime getCachedBefore() {
+        return cachedBefore;
+    }
+
+    /**
+     * Matches entries cached before the given time.
+     */
+    public CacheFilter withCachedBefore(final DateTime cachedBefore) {
+        this.cachedBefore = cachedBefore;
+        return this;
+    }
+
+    public boolean matches(final CacheResponse response) {
+        if (idPrefix != null && !response.getId().startsWith(idPrefix)) {
+            return false;
+        }
+        if (cachedAfter != null && response.getCached().isBefore(cachedAfter)) {
+            return false;
+        }
+        if (cachedBefore != null && !response.getCached().isBefore(cachedBefore)) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -17,6 +17,7 @@ package uk.ac.cam.ch.wwmm.httpcrawler.cache;
 
 import org.apache.http.Header;
 import org.apache.http.HeaderElement;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -31,13 +32,19 @@ import java.util.List;
 public class CacheResponse {
 
     private final String id;
+    private final int status;
     private final URI url;
     private final List<Header> headers;
     private final InputStream content;
     private final DateTime cached;
 
     public CacheResponse(final String id, final URI url, final List<Header> headers, final InputStream content, final DateTime cached) {
+        this(id, HttpStatus.SC_OK, url, headers, content, cached);
+    }
+
+    public CacheResponse(final String id, final int status, final URI url, final List<Header> headers, final InputStream content, final DateTime cached) {
         this.id = id;
+        this.status = status;
         this.url = url;
         this.headers = headers;
         this.content = content;
@@ -48,6 +55,18 @@ public class CacheResponse {
         return id;
     }
 
+    /**
+     * Returns the HTTP status of the cached response; other than 200 for
+     * negatively-cached failures.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == HttpStatus.SC_OK;
+    }
+
     public URI getUrl() {
         return url;
     }
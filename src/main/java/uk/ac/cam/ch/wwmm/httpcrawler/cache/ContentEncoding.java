@@ -0,0 +1,99 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP content codings that the crawler can decode.
+ *
+ * @author Sam Adams
+ */
+public final class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private ContentEncoding() { }
+
+    /**
+     * Returns the canonical name of a Content-Encoding header value, or null
+     * if it is empty, <code>identity</code>, or a coding we cannot decode.
+     */
+    public static String normalise(final String value) {
+        if (value == null) {
+            return null;
+        }
+        final String s = value.trim().toLowerCase();
+        if (GZIP.equals(s) || "x-gzip".equals(s)) {
+            return GZIP;
+        }
+        if (DEFLATE.equals(s)) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    public static InputStream decode(final String encoding, final InputStream in) throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        if (GZIP.equals(encoding)) {
+            return new GZIPInputStream(in);
+        }
+        if (DEFLATE.equals(encoding)) {
+            return inflate(in);
+        }
+        throw new IOException("Unsupported content encoding: "+encoding);
+    }
+
+    public static byte[] decode(final String encoding, final byte[] bytes) throws IOException {
+        if (encoding == null) {
+            return bytes;
+        }
+        final InputStream in = decode(encoding, new ByteArrayInputStream(bytes));
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static InputStream inflate(final InputStream in) throws IOException {
+        // 'deflate' should be zlib-wrapped, but some servers send raw deflate data
+        final PushbackInputStream pin = new PushbackInputStream(in, 2);
+        final int b0 = pin.read();
+        final int b1 = pin.read();
+        if (b1 != -1) {
+            pin.unread(b1);
+        }
+        if (b0 != -1) {
+            pin.unread(b0);
+        }
+        final boolean zlib = b0 != -1 && b1 != -1
+                && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        return new InflaterInputStream(pin, new Inflater(!zlib));
+    }
+
+}
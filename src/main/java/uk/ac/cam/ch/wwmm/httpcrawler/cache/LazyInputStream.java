@@ -0,0 +1,72 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream that defers opening the underlying stream until it is
+ * first read, so cache entries that are never read cost no I/O.
+ *
+ * @author Sam Adams
+ */
+public abstract class LazyInputStream extends InputStream {
+
+    private InputStream in;
+    private boolean closed;
+
+    protected abstract InputStream open() throws IOException;
+
+    private InputStream getStream() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (in == null) {
+            in = open();
+        }
+        return in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return getStream().read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        return getStream().read(b, off, len);
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        return getStream().skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in == null ? 0 : in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (in != null) {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HttpCache that keeps entries in memory, for tests, tools and crawls
+ * small enough not to need a database.
+ *
+ * <p>Content is held gzipped, as in {@link uk.ac.cam.ch.wwmm.httpcrawler.mongodb.MongoCache},
+ * and decompressed only when read. Entries are ordered by ID, so scans
+ * with an ID prefix only visit matching entries, and partitioned scans
+ * split the ID space into contiguous ranges.</p>
+ *
+ * @author Sam Adams
+ */
+public class MemoryHttpCache extends AbstractHttpCache implements ScannableHttpCache {
+
+    private final ConcurrentNavigableMap<String,Record> entries = new ConcurrentSkipListMap<String,Record>();
+
+    public CacheResponse get(final CacheRequest request) throws IOException {
+        final Record record = entries.get(request.getId());
+        return record == null ? null : record.toResponse(true);
+    }
+
+    @Override
+    public CacheResponse head(final CacheRequest request) throws IOException {
+        final Record record = entries.get(request.getId());
+        return record == null ? null : record.toResponse(false);
+    }
+
+    public void store(final String id, final URI url, final List<Header> headers, final byte[] bytes) throws IOException {
+        entries.put(id, new Record(id, HttpStatus.SC_OK, url, headers, new DateTime(), compress(bytes)));
+    }
+
+    @Override
+    public void store(final String id, final URI url, final List<Header> headers, final String contentEncoding, final byte[] bytes) throws IOException {
+        if (ContentEncoding.GZIP.equals(contentEncoding)) {
+            // Already in our storage format
+            entries.put(id, new Record(id, HttpStatus.SC_OK, url, headers, new DateTime(), bytes));
+        } else {
+            super.store(id, url, headers, contentEncoding, bytes);
+        }
+    }
+
+    @Override
+    public boolean isFailureCachingSupported() {
+        return true;
+    }
+
+    @Override
+    public void storeFailure(final String id, final URI url, final int status, final List<Header> headers, final byte[] bytes) throws IOException {
+        final Record failure = new Record(id, status, url, headers, new DateTime(), compress(bytes == null ? new byte[0] : bytes));
+        while (true) {
+            final Record previous = entries.get(id);
+            if (previous == null) {
+                if (entries.putIfAbsent(id, failure) == null) {
+                    return;
+                }
+            } else if (previous.status == HttpStatus.SC_OK) {
+                // Keep good content
+                return;
+            } else if (entries.replace(id, previous, failure)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stores entries keeping their statuses and cached times.
+     */
+    @Override
+    public void storeAll(final List<CacheResponse> entries) throws IOException {
+        for (final CacheResponse entry : entries) {
+            final DateTime cached = entry.getCached() != null ? entry.getCached() : new DateTime();
+            this.entries.put(entry.getId(), new Record(entry.getId(), entry.getStatus(), entry.getUrl(),
+                    entry.getHeaders(), cached, compress(readContent(entry))));
+        }
+    }
+
+    public boolean remove(final String id) {
+        return entries.remove(id) != null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public CacheCursor scan(final CacheFilter filter) throws IOException {
+        return new MemoryCacheCursor(getRange(filter).values(), filter);
+    }
+
+    /**
+     * Splits the scan into ranges of ID holding similar numbers of entries.
+     */
+    @Override
+    public List<CacheCursor> scan(final CacheFilter filter, final int partitions) throws IOException {
+        final ConcurrentNavigableMap<String,Record> range = getRange(filter);
+        final int size = range.size();
+        if (partitions <= 1 || size < 2) {
+            return Collections.singletonList(scan(filter));
+        }
+        final int step = (size + partitions - 1) / partitions;
+        final List<String> bounds = new ArrayList<String>();
+        int i = 0;
+        for (final String id : range.keySet()) {
+            if (i > 0 && i % step == 0) {
+                bounds.add(id);
+            }
+            i++;
+        }
+        final List<CacheCursor> cursors = new ArrayList<CacheCursor>();
+        String from = null;
+        for (final String to : bounds) {
+            cursors.add(new MemoryCacheCursor((from == null ? range.headMap(to) : range.subMap(from, to)).values(), filter));
+            from = to;
+        }
+        cursors.add(new MemoryCacheCursor((from == null ? range : range.tailMap(from)).values(), filter));
+        return cursors;
+    }
+
+    private ConcurrentNavigableMap<String,Record> getRange(final CacheFilter filter) {
+        final String prefix = filter.getIdPrefix();
+        if (prefix == null || prefix.length() == 0) {
+            return entries;
+        }
+        final char last = prefix.charAt(prefix.length() - 1);
+        if (last == Character.MAX_VALUE) {
+            return entries.tailMap(prefix);
+        }
+        return entries.subMap(prefix, prefix.substring(0, prefix.length() - 1) + (char) (last + 1));
+    }
+
+    private static class MemoryCacheCursor implements CacheCursor {
+
+        private final Iterator<Record> records;
+        private final CacheFilter filter;
+        private CacheResponse next;
+
+        private MemoryCacheCursor(final Iterable<Record> records, final CacheFilter filter) {
+            this.records = records.iterator();
+            this.filter = filter;
+        }
+
+        public boolean hasNext() {
+            while (next == null && records.hasNext()) {
+                final CacheResponse response = records.next().toResponse(true);
+                if (filter.matches(response)) {
+                    next = response;
+                }
+            }
+            return next != null;
+        }
+
+        public CacheResponse next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final CacheResponse response = next;
+            next = null;
+            return response;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            // Nothing held
+        }
+    }
+
+    private static byte[] compress(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(bytes);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static class Record {
+
+        private final String id;
+        private final int status;
+        private final URI url;
+        private final List<Header> headers;
+        private final DateTime cached;
+        private final byte[] content;
+
+        private Record(final String id, final int status, final URI url, final List<Header> headers, final DateTime cached, final byte[] content) {
+            this.id = id;
+            this.status = status;
+            this.url = url;
+            this.headers = Collections.unmodifiableList(new ArrayList<Header>(headers));
+            this.cached = cached;
+            this.content = content;
+        }
+
+        private CacheResponse toResponse(final boolean withContent) {
+            final InputStream in = !withContent ? null : new LazyInputStream() {
+                @Override
+                protected InputStream open() throws IOException {
+                    return new GZIPInputStream(new ByteArrayInputStream(content));
+                }
+            };
+            return new CacheResponse(id, status, url, headers, in, cached);
+        }
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.apache.http.Header;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * HttpCache that spreads entries across several backing caches by
+ * consistent hashing of their IDs.
+ *
+ * <p>Each partition is placed at a number of points on a hash ring, and an
+ * entry belongs to the first partition at or after the hash of its ID.
+ * Adding or removing a partition therefore only moves the entries in the
+ * affected arcs of the ring (roughly 1/N of them); moved entries are
+ * treated as misses until they are next stored.</p>
+ *
+ * <p>Partitions are identified by name, so the ring is the same on every
+ * node that is configured with the same names, whatever order they are
+ * added in.</p>
+ *
+ * @author Sam Adams
+ */
+public class PartitionedHttpCache extends AbstractHttpCache implements ScannableHttpCache {
+
+    public static final int DEFAULT_POINTS_PER_PARTITION = 128;
+
+    private final int pointsPerPartition;
+    private final Map<String,AbstractHttpCache> partitions = new LinkedHashMap<String,AbstractHttpCache>();
+
+    private volatile TreeMap<Long,AbstractHttpCache> ring = new TreeMap<Long,AbstractHttpCache>();
+
+    public PartitionedHttpCache() {
+        this(DEFAULT_POINTS_PER_PARTITION);
+    }
+
+    public PartitionedHttpCache(final int pointsPerPartition) {
+        if (pointsPerPartition < 1) {
+            throw new IllegalArgumentException("pointsPerPartition must be positive: "+pointsPerPartition);
+        }
+        this.pointsPerPartition = pointsPerPartition;
+    }
+
+    /**
+     * Adds a partition, which must be scannable so that this cache can be.
+     */
+    public synchronized <C extends AbstractHttpCache & ScannableHttpCache> PartitionedHttpCache addPartition(final String name, final C cache) {
+        if (partitions.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate partition: "+name);
+        }
+        partitions.put(name, cache);
+        rebuildRing();
+        return this;
+    }
+
+    public synchronized void removePartition(final String name) {
+        if (partitions.remove(name) != null) {
+            rebuildRing();
+        }
+    }
+
+    public synchronized Map<String,AbstractHttpCache> getPartitions() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String,AbstractHttpCache>(partitions));
+    }
+
+    private void rebuildRing() {
+        final TreeMap<Long,AbstractHttpCache> ring = new TreeMap<Long,AbstractHttpCache>();
+        // Sorted so that collisions resolve the same way on every node
+        for (final String name : new TreeSet<String>(partitions.keySet())) {
+            for (int i = 0; i < pointsPerPartition; i++) {
+                final Long point = hash(name + '#' + i);
+                if (!ring.containsKey(point)) {
+                    ring.put(point, partitions.get(name));
+                }
+            }
+        }
+        this.ring = ring;
+    }
+
+    protected AbstractHttpCache getPartition(final String id) {
+        final TreeMap<Long,AbstractHttpCache> ring = this.ring;
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("No partitions");
+        }
+        final Map.Entry<Long,AbstractHttpCache> e = ring.ceilingEntry(hash(id));
+        return e != null ? e.getValue() : ring.firstEntry().getValue();
+    }
+
+    public CacheResponse get(final CacheRequest request) throws IOException {
+        return getPartition(request.getId()).get(request);
+    }
+
+    public CacheResponse head(final CacheRequest request) throws IOException {
+        return getPartition(request.getId()).head(request);
+    }
+
+    public List<CacheResponse> getHistory(final CacheRequest request) throws IOException {
+        return getPartition(request.getId()).getHistory(request);
+    }
+
+    public CacheResponse getRevision(final CacheRequest request, final int age) throws IOException {
+        return getPartition(request.getId()).getRevision(request, age);
+    }
+
+    public void storeAll(final List<CacheResponse> entries) throws IOException {
+        final Map<AbstractHttpCache,List<CacheResponse>> groups = new LinkedHashMap<AbstractHttpCache,List<CacheResponse>>();
+        for (final CacheResponse entry : entries) {
+            final AbstractHttpCache partition = getPartition(entry.getId());
+            List<CacheResponse> group = groups.get(partition);
+            if (group == null) {
+                group = new ArrayList<CacheResponse>();
+                groups.put(partition, group);
+            }
+            group.add(entry);
+        }
+        for (final Map.Entry<AbstractHttpCache,List<CacheResponse>> e : groups.entrySet()) {
+            e.getKey().storeAll(e.getValue());
+        }
+    }
+
+    public Map<String,CacheResponse> getAll(final Collection<CacheRequest> requests) throws IOException {
+        final Map<AbstractHttpCache,List<CacheRequest>> groups = new LinkedHashMap<AbstractHttpCache,List<CacheRequest>>();
+        for (final CacheRequest request : requests) {
+            final AbstractHttpCache partition = getPartition(request.getId());
+            List<CacheRequest> group = groups.get(partition);
+            if (group == null) {
+                group = new ArrayList<CacheRequest>();
+                groups.put(partition, group);
+            }
+            group.add(request);
+        }
+        final Map<String,CacheResponse> found = new HashMap<String,CacheResponse>();
+        for (final Map.Entry<AbstractHttpCache,List<CacheRequest>> e : groups.entrySet()) {
+            found.putAll(e.getKey().getAll(e.getValue()));
+        }
+        final Map<String,CacheResponse> map = new LinkedHashMap<String,CacheResponse>();
+        for (final CacheRequest request : requests) {
+            final CacheResponse response = found.get(request.getId());
+            if (response != null) {
+                map.put(request.getId(), response);
+            }
+        }
+        return map;
+    }
+
+    public void store(final String id, final URI url, final List<Header> headers, final byte[] bytes) throws IOException {
+        getPartition(id).store(id, url, headers, bytes);
+    }
+
+    public void store(final String id, final URI url, final List<Header> headers, final String contentEncoding, final byte[] bytes) throws IOException {
+        getPartition(id).store(id, url, headers, contentEncoding, bytes);
+    }
+
+    /**
+     * Failures are recorded only if every partition records them.
+     */
+    @Override
+    public boolean isFailureCachingSupported() {
+        for (final AbstractHttpCache partition : getPartitions().values()) {
+            if (!partition.isFailureCachingSupported()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void storeFailure(final String id, final URI url, final int status, final List<Header> headers, final byte[] bytes) throws IOException {
+        getPartition(id).storeFailure(id, url, status, headers, bytes);
+    }
+
+    public CacheCursor scan(final CacheFilter filter) throws IOException {
+        final List<CacheCursor> cursors = new ArrayList<CacheCursor>();
+        try {
+            for (final AbstractHttpCache partition : getPartitions().values()) {
+                cursors.add(((ScannableHttpCache) partition).scan(filter));
+            }
+        } catch (IOException e) {
+            closeQuietly(cursors);
+            throw e;
+        }
+        return new ConcatenatedCursor(cursors);
+    }
+
+    public List<CacheCursor> scan(final CacheFilter filter, final int partitions) throws IOException {
+        final Collection<AbstractHttpCache> backends = getPartitions().values();
+        final int n = Math.max(1, partitions / Math.max(1, backends.size()));
+        final List<CacheCursor> cursors = new ArrayList<CacheCursor>();
+        try {
+            for (final AbstractHttpCache partition : backends) {
+                cursors.addAll(((ScannableHttpCache) partition).scan(filter, n));
+            }
+        } catch (IOException e) {
+            closeQuietly(cursors);
+            throw e;
+        }
+        return cursors;
+    }
+
+    private static void closeQuietly(final List<CacheCursor> cursors) {
+        for (final CacheCursor cursor : cursors) {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class ConcatenatedCursor implements CacheCursor {
+
+        private final Iterator<CacheCursor> cursors;
+        private final List<CacheCursor> all;
+        private CacheCursor current;
+
+        private ConcatenatedCursor(final List<CacheCursor> cursors) {
+            this.all = cursors;
+            this.cursors = cursors.iterator();
+        }
+
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (!cursors.hasNext()) {
+                    return false;
+                }
+                current = cursors.next();
+            }
+            return true;
+        }
+
+        public CacheResponse next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            closeQuietly(all);
+        }
+    }
+
+    private static long hash(final String s) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not supported", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 encoding error", e);
+        }
+        long h = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xff);
+        }
+        return h;
+    }
+
+}
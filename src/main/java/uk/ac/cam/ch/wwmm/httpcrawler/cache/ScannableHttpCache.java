@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * HttpCache whose entries can be enumerated, e.g. for export.
+ *
+ * @author Sam Adams
+ */
+public interface ScannableHttpCache extends HttpCache {
+
+    /**
+     * Returns a cursor over the entries matching filter.
+     */
+    CacheCursor scan(CacheFilter filter) throws IOException;
+
+    /**
+     * Splits a scan into up to the requested number of cursors over
+     * disjoint sets of entries, which may be consumed in parallel.
+     */
+    List<CacheCursor> scan(CacheFilter filter, int partitions) throws IOException;
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.dns;
+
+import org.apache.log4j.Logger;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the results of another resolver in a bounded LRU map.
+ *
+ * <p>Successful lookups are kept for the positive TTL and failures for the
+ * negative TTL; the JDK resolver does not expose record TTLs, so these are
+ * fixed. Concurrent lookups of the same host share one query. Hosts about
+ * to be fetched can be resolved ahead of time with {@link #prefetch}, and
+ * entries used in the last quarter of their lifetime are refreshed in the
+ * background, so that fetches rarely wait on DNS.</p>
+ *
+ * @author Sam Adams
+ */
+public class CachingHostResolver implements HostResolver {
+
+    private static final Logger LOG = Logger.getLogger(CachingHostResolver.class);
+
+    private static final int PREFETCH_THREADS = 4;
+    private static final int PREFETCH_QUEUE_SIZE = 4096;
+
+    private final HostResolver resolver;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final Map<String,Lookup> cache;
+    private final ConcurrentMap<String,FutureTask<Lookup>> pending = new ConcurrentHashMap<String,FutureTask<Lookup>>();
+    private final ExecutorService prefetchExecutor;
+
+    public CachingHostResolver(final int maxEntries, final long ttl, final long negativeTtl, final TimeUnit timeUnit) {
+        this(SystemHostResolver.INSTANCE, maxEntries, ttl, negativeTtl, timeUnit);
+    }
+
+    public CachingHostResolver(final HostResolver resolver, final int maxEntries, final long ttl, final long negativeTtl, final TimeUnit timeUnit) {
+        this.resolver = resolver;
+        this.ttlMillis = timeUnit.toMillis(ttl);
+        this.negativeTtlMillis = timeUnit.toMillis(negativeTtl);
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<String,Lookup>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String,Lookup> eldest) {
+                return size() > maxEntries;
+            }
+        });
+        this.prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "dns-prefetch-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        ((ThreadPoolExecutor) prefetchExecutor).allowCoreThreadTimeOut(true);
+    }
+
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        final String key = host.toLowerCase();
+        final long now = System.currentTimeMillis();
+        Lookup entry = cache.get(key);
+        if (entry == null || entry.expires <= now) {
+            entry = lookup(key);
+        } else if (entry.refresh <= now) {
+            prefetch(key);
+        }
+        if (entry.addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return entry.addresses.clone();
+    }
+
+    /**
+     * Starts resolving host in the background, unless it is already cached
+     * and fresh, or being resolved. Requests beyond the prefetch queue's
+     * capacity are dropped.
+     */
+    public void prefetch(final String host) {
+        final String key = host.toLowerCase();
+        final Lookup entry = cache.get(key);
+        if (entry != null && entry.refresh > System.currentTimeMillis()) {
+            return;
+        }
+        final FutureTask<Lookup> task = createTask(key);
+        if (pending.putIfAbsent(key, task) == null) {
+            try {
+                prefetchExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                pending.remove(key, task);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("DNS prefetch rejected: "+host);
+                }
+            }
+        }
+    }
+
+    public void prefetch(final Collection<String> hosts) {
+        for (final String host : hosts) {
+            prefetch(host);
+        }
+    }
+
+    public void invalidate(final String host) {
+        cache.remove(host.toLowerCase());
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private Lookup lookup(final String key) throws UnknownHostException {
+        FutureTask<Lookup> task = pending.get(key);
+        if (task == null) {
+            final FutureTask<Lookup> newTask = createTask(key);
+            task = pending.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+            }
+        }
+        // Runs a prefetch still queued here, rather than wait behind others;
+        // does nothing if the task has already started
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final UnknownHostException ex = new UnknownHostException("Interrupted resolving "+key);
+            ex.initCause(new InterruptedIOException());
+            throw ex;
+        } catch (ExecutionException e) {
+            final UnknownHostException ex = new UnknownHostException(key);
+            ex.initCause(e.getCause());
+            throw ex;
+        }
+    }
+
+    private FutureTask<Lookup> createTask(final String key) {
+        return new FutureTask<Lookup>(new Callable<Lookup>() {
+            public Lookup call() {
+                try {
+                    final long now = System.currentTimeMillis();
+                    Lookup entry;
+                    try {
+                        entry = new Lookup(resolver.resolve(key), now, ttlMillis);
+                    } catch (UnknownHostException e) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Unknown host: "+key);
+                        }
+                        entry = new Lookup(null, now, negativeTtlMillis);
+                    }
+                    cache.put(key, entry);
+                    return entry;
+                } finally {
+                    pending.remove(key);
+                }
+            }
+        });
+    }
+
+    private static final class Lookup {
+
+        private final InetAddress[] addresses;
+        private final long expires;
+        private final long refresh;
+
+        private Lookup(final InetAddress[] addresses, final long now, final long ttl) {
+            this.addresses = addresses;
+            this.expires = now + ttl;
+            this.refresh = addresses == null ? expires : now + ttl * 3 / 4;
+        }
+
+    }
+
+}
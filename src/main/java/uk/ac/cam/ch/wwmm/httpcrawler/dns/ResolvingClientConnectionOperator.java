@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.dns;
+
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Connection operator that looks up target hosts with a {@link HostResolver}.
+ *
+ * @author Sam Adams
+ */
+public class ResolvingClientConnectionOperator extends DefaultClientConnectionOperator {
+
+    private final HostResolver resolver;
+
+    public ResolvingClientConnectionOperator(final SchemeRegistry schemeRegistry, final HostResolver resolver) {
+        super(schemeRegistry);
+        this.resolver = resolver;
+    }
+
+    @Override
+    protected InetAddress[] resolveHostname(final String host) throws UnknownHostException {
+        return resolver.resolve(host);
+    }
+
+}
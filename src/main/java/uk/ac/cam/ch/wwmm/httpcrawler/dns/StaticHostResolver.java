@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves hostnames from a fixed table, e.g. to point virtual hosts at a
+ * local server. Hosts not in the table are passed to a fallback resolver,
+ * if there is one, and are otherwise unknown.
+ *
+ * @author Sam Adams
+ */
+public class StaticHostResolver implements HostResolver {
+
+    private final Map<String,InetAddress[]> hosts = new ConcurrentHashMap<String,InetAddress[]>();
+    private final HostResolver fallback;
+
+    public StaticHostResolver() {
+        this(null);
+    }
+
+    public StaticHostResolver(final HostResolver fallback) {
+        this.fallback = fallback;
+    }
+
+    public StaticHostResolver add(final String host, final InetAddress... addresses) {
+        hosts.put(host.toLowerCase(), addresses.clone());
+        return this;
+    }
+
+    public void remove(final String host) {
+        hosts.remove(host.toLowerCase());
+    }
+
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        final InetAddress[] addresses = hosts.get(host.toLowerCase());
+        if (addresses != null) {
+            return addresses.clone();
+        }
+        if (fallback != null) {
+            return fallback.resolve(host);
+        }
+        throw new UnknownHostException(host);
+    }
+
+}
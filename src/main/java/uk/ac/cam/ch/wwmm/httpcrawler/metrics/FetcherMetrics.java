@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+/**
+ * The counters maintained by a fetcher.
+ *
+ * @author Sam Adams
+ */
+public class FetcherMetrics {
+
+    private final MetricsRegistry registry;
+
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter cacheExpired;
+    private final Counter staleServed;
+    private final Counter negativeCacheHits;
+    private final Counter requests;
+    private final Counter errors;
+    private final Counter aborted;
+    private final Counter throttleWaitMillis;
+    private final Counter bytesFetched;
+    private final Counter bytesStored;
+
+    public FetcherMetrics(final MetricsRegistry registry) {
+        this.registry = registry;
+        this.cacheHits = registry.counter("httpcrawler_cache_hits_total", "Requests answered from the cache");
+        this.cacheMisses = registry.counter("httpcrawler_cache_misses_total", "Requests not in the cache");
+        this.cacheExpired = registry.counter("httpcrawler_cache_expired_total", "Requests whose cached entry was too old");
+        this.staleServed = registry.counter("httpcrawler_cache_stale_served_total", "Stale cached responses returned");
+        this.negativeCacheHits = registry.counter("httpcrawler_cache_negative_hits_total", "Cached failures replayed");
+        this.requests = registry.counter("httpcrawler_requests_total", "HTTP requests sent");
+        this.errors = registry.counter("httpcrawler_request_errors_total", "HTTP requests failing with an I/O error");
+        this.aborted = registry.counter("httpcrawler_requests_aborted_total", "Requests cancelled or past their deadline");
+        this.throttleWaitMillis = registry.counter("httpcrawler_throttle_wait_milliseconds_total", "Time spent waiting to send requests");
+        this.bytesFetched = registry.counter("httpcrawler_fetched_bytes_total", "Response body bytes received");
+        this.bytesStored = registry.counter("httpcrawler_stored_bytes_total", "Bytes passed to the cache");
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    public Counter getCacheHits() {
+        return cacheHits;
+    }
+
+    public Counter getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public Counter getCacheExpired() {
+        return cacheExpired;
+    }
+
+    public Counter getStaleServed() {
+        return staleServed;
+    }
+
+    public Counter getNegativeCacheHits() {
+        return negativeCacheHits;
+    }
+
+    public Counter getRequests() {
+        return requests;
+    }
+
+    public Counter getAborted() {
+        return aborted;
+    }
+
+    public Counter getErrors() {
+        return errors;
+    }
+
+    public Counter getThrottleWaitMillis() {
+        return throttleWaitMillis;
+    }
+
+    public Counter getBytesFetched() {
+        return bytesFetched;
+    }
+
+    public Counter getBytesStored() {
+        return bytesStored;
+    }
+
+}
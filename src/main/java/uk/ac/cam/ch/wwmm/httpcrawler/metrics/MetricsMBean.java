@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes a {@link MetricsRegistry} as read-only MBean attributes, one per
+ * metric, and one per host for per-host gauges. The set of attributes
+ * follows the registry, so it can change between calls.
+ *
+ * @author Sam Adams
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private final MetricsRegistry registry;
+
+    MetricsMBean(final MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Number value = registry.getValues().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String,Number> values = registry.getValues();
+        final AttributeList list = new AttributeList();
+        for (final String attribute : attributes) {
+            final Number value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (final Map.Entry<String,Number> e : registry.getValues().entrySet()) {
+            final int i = e.getKey().indexOf('{');
+            final String help = registry.getHelp(i == -1 ? e.getKey() : e.getKey().substring(0, i));
+            attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(),
+                    help == null ? e.getKey() : help, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "HTTP crawler metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read only: "+attribute.getName());
+    }
+
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters and gauges, readable through JMX or in the Prometheus
+ * text exposition format.
+ *
+ * <p>Names should follow Prometheus conventions: lower case words joined
+ * by underscores, with a unit suffix such as <code>_bytes</code> or
+ * <code>_seconds</code>, and <code>_total</code> for counters.</p>
+ *
+ * @author Sam Adams
+ */
+public class MetricsRegistry {
+
+    private final Map<String,Metric> metrics = new ConcurrentSkipListMap<String,Metric>();
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     */
+    public synchronized Counter counter(final String name, final String help) {
+        final Metric metric = metrics.get(name);
+        if (metric != null) {
+            if (!(metric.value instanceof Counter)) {
+                throw new IllegalArgumentException("Not a counter: "+name);
+            }
+            return (Counter) metric.value;
+        }
+        final Counter counter = new Counter();
+        metrics.put(name, new Metric(help, counter));
+        return counter;
+    }
+
+    /**
+     * Registers gauge, replacing any metric of the same name.
+     */
+    public void gauge(final String name, final String help, final Gauge gauge) {
+        metrics.put(name, new Metric(help, gauge));
+    }
+
+    /**
+     * Registers a per-host gauge, replacing any metric of the same name.
+     */
+    public void hostGauge(final String name, final String help, final HostGauge gauge) {
+        metrics.put(name, new Metric(help, gauge));
+    }
+
+    public void remove(final String name) {
+        metrics.remove(name);
+    }
+
+    /**
+     * Returns the current value of every metric. Per-host values are keyed
+     * <code>name{host="..."}</code>.
+     */
+    public Map<String,Number> getValues() {
+        final Map<String,Number> values = new LinkedHashMap<String,Number>();
+        for (final Map.Entry<String,Metric> e : metrics.entrySet()) {
+            final Object value = e.getValue().value;
+            if (value instanceof Counter) {
+                values.put(e.getKey(), ((Counter) value).get());
+            } else if (value instanceof Gauge) {
+                values.put(e.getKey(), ((Gauge) value).getValue());
+            } else {
+                for (final Map.Entry<String,? extends Number> h : ((HostGauge) value).getValues().entrySet()) {
+                    values.put(e.getKey()+"{host=\""+escape(h.getKey())+"\"}", h.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    String getHelp(final String name) {
+        final Metric metric = metrics.get(name);
+        return metric == null ? null : metric.help;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format, version 0.0.4.
+     */
+    public void writePrometheus(final Writer out) throws IOException {
+        for (final Map.Entry<String,Metric> e : metrics.entrySet()) {
+            final String name = e.getKey();
+            final Metric metric = e.getValue();
+            if (metric.help != null) {
+                out.write("# HELP "+name+" "+metric.help.replace("\\", "\\\\").replace("\n", "\\n")+"\n");
+            }
+            if (metric.value instanceof Counter) {
+                out.write("# TYPE "+name+" counter\n");
+                out.write(name+" "+((Counter) metric.value).get()+"\n");
+            } else if (metric.value instanceof Gauge) {
+                out.write("# TYPE "+name+" gauge\n");
+                out.write(name+" "+format(((Gauge) metric.value).getValue())+"\n");
+            } else {
+                out.write("# TYPE "+name+" gauge\n");
+                for (final Map.Entry<String,? extends Number> h : ((HostGauge) metric.value).getValues().entrySet()) {
+                    out.write(name+"{host=\""+escape(h.getKey())+"\"} "+format(h.getValue().doubleValue())+"\n");
+                }
+            }
+        }
+    }
+
+    private static String format(final double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(final String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under the given
+     * name, e.g. <code>uk.ac.cam.ch.wwmm.httpcrawler:type=Metrics</code>.
+     */
+    public ObjectName registerMBean(final String objectName) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(objectName);
+        server.registerMBean(new MetricsMBean(this), name);
+        return name;
+    }
+
+    private static final class Metric {
+
+        private final String help;
+        private final Object value;
+
+        private Metric(final String help, final Object value) {
+            this.help = help;
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+
+/**
+ * Serves a {@link MetricsRegistry} in the Prometheus text format at
+ * <code>/metrics</code>, using the HTTP server built into the JDK.
+ *
+ * @author Sam Adams
+ */
+public class PrometheusServer {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public PrometheusServer(final MetricsRegistry registry, final InetSocketAddress address) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, 0);
+                    final OutputStream out = exchange.getResponseBody();
+                    final Writer writer = new OutputStreamWriter(out, "UTF-8");
+                    registry.writePrometheus(writer);
+                    writer.flush();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+}
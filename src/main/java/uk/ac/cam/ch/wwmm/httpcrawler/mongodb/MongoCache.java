@@ -20,36 +20,111 @@ import com.mongodb.*;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSInputFile;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.Header;
+import org.apache.http.HttpStatus;
 import org.apache.http.message.BasicHeader;
 import org.joda.time.DateTime;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
+import org.bson.types.ObjectId;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.BinaryDelta;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheCursor;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheFilter;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
 import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.ContentEncoding;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.LazyInputStream;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.ScannableHttpCache;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 /**
+ * HttpCache backed by a MongoDB GridFS bucket.
+ *
+ * <p>Entries whose compressed content is smaller than the inline threshold
+ * are written directly to the bucket's files collection, with the content
+ * held in a <code>data</code> field, so they can be read with a single
+ * query. Larger entries are stored as ordinary GridFS files.</p>
+ *
+ * <p>Headers are stored as <code>{name, value}</code> documents and
+ * timestamps as BSON dates. Entries written by earlier versions, with
+ * <code>"Name: value"</code> header strings and formatted timestamps, are
+ * still readable and can be converted in place with {@link #migrate()}.</p>
+ *
+ * <p>With {@link #setMaxRevisions} above 1, replaced entries are kept in
+ * the bucket's <code>revisions</code> collection, each as a binary delta
+ * that rebuilds it from the revision that replaced it. The current entry
+ * is stored in full, so reading it costs the same as without history;
+ * older revisions are rebuilt on demand by applying deltas in turn.</p>
+ *
  * @author Sam Adams
  */
-public class MongoCache extends AbstractHttpCache {
+public class MongoCache extends AbstractHttpCache implements ScannableHttpCache {
+
+    public static final int DEFAULT_INLINE_THRESHOLD = 64 * 1024;
+
+    private static final DBObject METADATA_FIELDS = BasicDBObjectBuilder.start()
+            .add("filename", 1).add("url", 1).add("headers", 1).add("timestamp", 1).add("status", 1).get();
 
     private final DB db;
     private final GridFS fs;
+    private final DBCollection files;
+    private final DBCollection revisions;
+    private final int inlineThreshold;
+    private volatile int maxRevisions = 1;
 
     public MongoCache(final DB db, final String collection) {
+        this(db, collection, DEFAULT_INLINE_THRESHOLD);
+    }
+
+    /**
+     * @param inlineThreshold size in bytes (after compression) below which
+     *                        content is stored inline; 0 to always use GridFS
+     */
+    public MongoCache(final DB db, final String collection, final int inlineThreshold) {
         this.db = db;
+        this.inlineThreshold = inlineThreshold;
 
         this.fs = new GridFS(db, collection);
-        this.db.getCollection(collection + ".files").ensureIndex(
+        this.files = db.getCollection(collection + ".files");
+        this.files.ensureIndex(
                 BasicDBObjectBuilder.start().add("filename", 1).add("unique", true).get());
+        this.files.ensureIndex(new BasicDBObject("timestamp", 1));
+        this.files.ensureIndex(new BasicDBObject("last_accessed", 1));
+        this.revisions = db.getCollection(collection + ".revisions");
+    }
+
+    public int getMaxRevisions() {
+        return maxRevisions;
+    }
+
+    /**
+     * Sets the number of revisions kept for each entry, including the
+     * current one; 1, the default, to keep no history.
+     */
+    public void setMaxRevisions(final int maxRevisions) {
+        if (maxRevisions < 1) {
+            throw new IllegalArgumentException("maxRevisions must be positive: "+maxRevisions);
+        }
+        if (maxRevisions > 1) {
+            revisions.ensureIndex(BasicDBObjectBuilder.start().add("filename", 1).add("revision", -1).get());
+        }
+        this.maxRevisions = maxRevisions;
     }
 
     public CacheResponse get(final CacheRequest request) throws IOException {
@@ -57,27 +132,347 @@ public class MongoCache extends AbstractHttpCache {
 
         final GridFSDBFile file = fs.findOne(filename);
         if (file != null) {
-            final URI url = URI.create((String) file.get("url"));
-            final BasicDBList list = (BasicDBList) file.get("headers");
-            final List<Header> headers = getHeaders(list);
-            final DateTime cached = DATETIME_FORMATTER.parseDateTime((String) file.get("timestamp"));
-            final InputStream in = new GZIPInputStream(file.getInputStream());
-            final CacheResponse response = new CacheResponse(filename, url, headers, in, cached);
-
-            file.put("last_accessed", DATETIME_FORMATTER.print(System.currentTimeMillis()));
-            file.save();
+            final CacheResponse response = createResponse(file, openContent(file));
+            touch(new BasicDBObject("filename", filename));
             return response;
         }
         return null;
     }
 
+    @Override
+    public CacheResponse head(final CacheRequest request) throws IOException {
+        final DBObject file = files.findOne(new BasicDBObject("filename", request.getId()), METADATA_FIELDS);
+        if (file != null) {
+            return createResponse(file, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String,CacheResponse> getAll(final Collection<CacheRequest> requests) throws IOException {
+        final List<String> filenames = new ArrayList<String>(requests.size());
+        for (final CacheRequest request : requests) {
+            filenames.add(request.getId());
+        }
+        final DBObject query = new BasicDBObject("filename", new BasicDBObject("$in", filenames));
+
+        final Map<String,CacheResponse> found = new LinkedHashMap<String,CacheResponse>();
+        for (final GridFSDBFile file : fs.find(query)) {
+            found.put(file.getFilename(), createResponse(file, openContent(file)));
+        }
+        final Map<String,CacheResponse> map = new LinkedHashMap<String,CacheResponse>();
+        for (final String filename : filenames) {
+            final CacheResponse response = found.get(filename);
+            if (response != null) {
+                map.put(filename, response);
+            }
+        }
+        if (!map.isEmpty()) {
+            touch(query);
+        }
+        return map;
+    }
+
+    @Override
+    public List<CacheResponse> getHistory(final CacheRequest request) throws IOException {
+        final DBObject file = files.findOne(new BasicDBObject("filename", request.getId()), METADATA_FIELDS);
+        if (file == null) {
+            return Collections.emptyList();
+        }
+        final List<CacheResponse> history = new ArrayList<CacheResponse>();
+        history.add(createResponse(file, null));
+        final DBCursor cursor = revisions.find(new BasicDBObject("filename", request.getId()), METADATA_FIELDS)
+                .sort(new BasicDBObject("revision", -1));
+        try {
+            for (final DBObject revision : cursor) {
+                history.add(createResponse(revision, null));
+            }
+        } finally {
+            cursor.close();
+        }
+        return history;
+    }
+
+    @Override
+    public CacheResponse getRevision(final CacheRequest request, final int age) throws IOException {
+        if (age <= 0) {
+            return age == 0 ? get(request) : null;
+        }
+        final GridFSDBFile file = fs.findOne(request.getId());
+        if (file == null || file.get("revision") == null) {
+            return null;
+        }
+        final int current = ((Number) file.get("revision")).intValue();
+        final int wanted = current - age;
+        if (wanted < 1) {
+            return null;
+        }
+        byte[] content = readFully(openContent(file));
+        DBObject revision = null;
+        int expected = current - 1;
+        final DBCursor cursor = revisions.find(BasicDBObjectBuilder.start()
+                .add("filename", request.getId()).add("revision", new BasicDBObject("$gte", wanted)).get())
+                .sort(new BasicDBObject("revision", -1));
+        try {
+            for (final DBObject r : cursor) {
+                if (((Number) r.get("revision")).intValue() != expected) {
+                    // Missing link, e.g. trimmed by a concurrent store
+                    return null;
+                }
+                content = BinaryDelta.apply(content, decompress((byte[]) r.get("delta")));
+                revision = r;
+                expected--;
+            }
+        } finally {
+            cursor.close();
+        }
+        if (revision == null || expected != wanted - 1) {
+            return null;
+        }
+        return createResponse(revision, new ByteArrayInputStream(content));
+    }
+
+    private CacheResponse createResponse(final DBObject file, final InputStream in) {
+        final String filename = (String) file.get("filename");
+        final URI url = URI.create((String) file.get("url"));
+        final BasicDBList list = (BasicDBList) file.get("headers");
+        final List<Header> headers = getHeaders(list);
+        final DateTime cached = getDateTime(file.get("timestamp"));
+        final Number status = (Number) file.get("status");
+        return new CacheResponse(filename, status == null ? HttpStatus.SC_OK : status.intValue(), url, headers, in, cached);
+    }
+
+    private static DateTime getDateTime(final Object o) {
+        if (o instanceof Date) {
+            return new DateTime(o);
+        }
+        // Legacy entries
+        return DATETIME_FORMATTER.parseDateTime((String) o);
+    }
+
+    public CacheCursor scan(final CacheFilter filter) throws IOException {
+        return new MongoCacheCursor(files.find(getQuery(filter)));
+    }
+
+    /**
+     * Splits the scan into ranges of _id. Since _ids are ObjectIds, which
+     * start with their creation time, this divides entries by when they
+     * were stored.
+     */
+    @Override
+    public List<CacheCursor> scan(final CacheFilter filter, final int partitions) throws IOException {
+        final DBObject query = getQuery(filter);
+        final DBObject first = findEndpoint(query, 1);
+        final DBObject last = findEndpoint(query, -1);
+        if (partitions <= 1 || first == null || !(first.get("_id") instanceof ObjectId)
+                || !(last.get("_id") instanceof ObjectId)) {
+            return Collections.singletonList(scan(filter));
+        }
+        final long start = ((ObjectId) first.get("_id")).getTime() / 1000;
+        final long end = ((ObjectId) last.get("_id")).getTime() / 1000 + 1;
+        final long step = Math.max(1, (end - start + partitions - 1) / partitions);
+
+        final List<CacheCursor> cursors = new ArrayList<CacheCursor>();
+        for (long t = start; t < end; t += step) {
+            final BasicDBObject range = new BasicDBObject();
+            if (t > start) {
+                range.put("$gte", new ObjectId(new Date(t * 1000), 0, 0));
+            }
+            if (t + step < end) {
+                range.put("$lt", new ObjectId(new Date((t + step) * 1000), 0, 0));
+            }
+            final DBObject q = new BasicDBObject(query.toMap());
+            if (!range.isEmpty()) {
+                q.put("_id", range);
+            }
+            cursors.add(new MongoCacheCursor(files.find(q)));
+        }
+        return cursors;
+    }
+
+    private DBObject findEndpoint(final DBObject query, final int order) {
+        final DBCursor cursor = files.find(query, new BasicDBObject("_id", 1))
+                .sort(new BasicDBObject("_id", order)).limit(1);
+        try {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private DBObject getQuery(final CacheFilter filter) {
+        final DBObject query = new BasicDBObject();
+        if (filter.getIdPrefix() != null) {
+            query.put("filename", Pattern.compile("^" + Pattern.quote(filter.getIdPrefix())));
+        }
+        if (filter.getCachedAfter() != null || filter.getCachedBefore() != null) {
+            final BasicDBObject range = new BasicDBObject();
+            if (filter.getCachedAfter() != null) {
+                range.put("$gte", filter.getCachedAfter().toDate());
+            }
+            if (filter.getCachedBefore() != null) {
+                range.put("$lt", filter.getCachedBefore().toDate());
+            }
+            query.put("timestamp", range);
+        }
+        return query;
+    }
+
+    private class MongoCacheCursor implements CacheCursor {
+
+        private final DBCursor cursor;
+
+        private MongoCacheCursor(final DBCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        public CacheResponse next() {
+            final DBObject file = cursor.next();
+            return createResponse(file, openContent(file));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Opens the content of a files document read directly from the
+     * collection; GridFS chunks are located by the document's _id.
+     */
+    private InputStream openContent(final DBObject file) {
+        final byte[] data = (byte[]) file.get("data");
+        if (data != null) {
+            return new LazyInputStream() {
+                @Override
+                protected InputStream open() throws IOException {
+                    return new GZIPInputStream(new ByteArrayInputStream(data));
+                }
+            };
+        }
+        final Object id = file.get("_id");
+        return new LazyInputStream() {
+            @Override
+            protected InputStream open() throws IOException {
+                final GridFSDBFile gridFile = fs.findOne(new BasicDBObject("_id", id));
+                if (gridFile == null) {
+                    throw new IOException("Cache entry removed: "+file.get("filename"));
+                }
+                return new GZIPInputStream(gridFile.getInputStream());
+            }
+        };
+    }
+
+    private InputStream openContent(final GridFSDBFile file) {
+        final byte[] data = (byte[]) file.get("data");
+        if (data != null) {
+            return new LazyInputStream() {
+                @Override
+                protected InputStream open() throws IOException {
+                    return new GZIPInputStream(new ByteArrayInputStream(data));
+                }
+            };
+        }
+        // Chunks are not fetched until the content is read
+        return new LazyInputStream() {
+            @Override
+            protected InputStream open() throws IOException {
+                return new GZIPInputStream(file.getInputStream());
+            }
+        };
+    }
+
+    private void touch(final DBObject query) {
+        final DBObject update = new BasicDBObject("$set",
+                new BasicDBObject("last_accessed", new Date()));
+        files.update(query, update, false, true);
+    }
+
+    /**
+     * Removes all entries that have not been read or written since the
+     * given time.
+     */
+    public void removeNotAccessedSince(final DateTime time) {
+        final DBObject query = new BasicDBObject("last_accessed", new BasicDBObject("$lt", time.toDate()));
+        if (maxRevisions > 1) {
+            removeRevisions(query);
+        }
+        fs.remove(query);
+    }
+
+    private void removeRevisions(final DBObject query) {
+        final List<String> filenames = new ArrayList<String>();
+        final DBCursor cursor = files.find(query, new BasicDBObject("filename", 1));
+        try {
+            for (final DBObject file : cursor) {
+                filenames.add((String) file.get("filename"));
+                if (filenames.size() == 1000) {
+                    revisions.remove(new BasicDBObject("filename", new BasicDBObject("$in", filenames)));
+                    filenames.clear();
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!filenames.isEmpty()) {
+            revisions.remove(new BasicDBObject("filename", new BasicDBObject("$in", filenames)));
+        }
+    }
+
+    /**
+     * Converts entries written with string headers and timestamps to the
+     * current layout. Safe to run repeatedly, and while the cache is in use.
+     *
+     * @return the number of entries converted
+     */
+    public int migrate() {
+        // BSON type 2: string
+        final DBObject query = new BasicDBObject("$or", Arrays.asList(
+                new BasicDBObject("timestamp", new BasicDBObject("$type", 2)),
+                new BasicDBObject("last_accessed", new BasicDBObject("$type", 2))));
+        final DBObject fields = BasicDBObjectBuilder.start()
+                .add("headers", 1).add("timestamp", 1).add("last_accessed", 1).get();
+        int count = 0;
+        final DBCursor cursor = files.find(query, fields);
+        try {
+            for (final DBObject file : cursor) {
+                final DBObject set = new BasicDBObject();
+                set.put("headers", getHeaderDocuments(getHeaders((List<?>) file.get("headers"))));
+                set.put("timestamp", getDateTime(file.get("timestamp")).toDate());
+                final Object lastAccessed = file.get("last_accessed");
+                if (lastAccessed != null) {
+                    set.put("last_accessed", getDateTime(lastAccessed).toDate());
+                }
+                files.update(new BasicDBObject("_id", file.get("_id")), new BasicDBObject("$set", set));
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
     private List<Header> getHeaders(final List<?> s) {
         final List<Header> list = new ArrayList<Header>();
         for (final Object o : s) {
-            final String line = (String) o;
-            final int i = line.indexOf(':');
-            final Header h = new BasicHeader(line.substring(i), line.substring(i+2));
-            list.add(h);
+            if (o instanceof DBObject) {
+                final DBObject h = (DBObject) o;
+                list.add(new BasicHeader((String) h.get("name"), (String) h.get("value")));
+            } else {
+                // Legacy entries
+                final String line = (String) o;
+                final int i = line.indexOf(':');
+                final Header h = new BasicHeader(line.substring(0, i), line.substring(i+2));
+                list.add(h);
+            }
         }
         return list;
     }
@@ -87,17 +482,149 @@ public class MongoCache extends AbstractHttpCache {
         store(filename, url, headers, now, bytes);
     }
 
+    @Override
+    public void store(final String filename, final URI url, final List<Header> headers, final String contentEncoding, final byte[] bytes) throws IOException {
+        if (ContentEncoding.GZIP.equals(contentEncoding)) {
+            // Already in our storage format
+            storeCompressed(filename, HttpStatus.SC_OK, url, headers, new DateTime(), bytes);
+        } else {
+            super.store(filename, url, headers, contentEncoding, bytes);
+        }
+    }
+
     public void store(final String filename, final URI url, final List<Header> headers, final DateTime timestamp, final byte[] bytes) throws IOException {
-        final byte[] content = compress(bytes);
+        storeCompressed(filename, HttpStatus.SC_OK, url, headers, timestamp, compress(bytes));
+    }
+
+    @Override
+    public boolean isFailureCachingSupported() {
+        return true;
+    }
+
+    /**
+     * Records a failure, unless a successful entry is stored under
+     * filename; entries without a status field are successful.
+     */
+    @Override
+    public void storeFailure(final String filename, final URI url, final int status, final List<Header> headers, final byte[] bytes) throws IOException {
+        final DBObject query = BasicDBObjectBuilder.start()
+                .add("filename", filename).add("status", new BasicDBObject("$exists", false)).get();
+        if (files.findOne(query, new BasicDBObject("_id", 1)) != null) {
+            // Keep good content
+            return;
+        }
+        storeCompressed(filename, status, url, headers, new DateTime(), compress(bytes == null ? new byte[0] : bytes));
+    }
+
+    /**
+     * Stores entries keeping their cached times. Small entries are written
+     * to the files collection in a single insert, unless history is kept.
+     * Where an ID appears more than once only its last entry is stored.
+     */
+    @Override
+    public void storeAll(final List<CacheResponse> entries) throws IOException {
+        final Map<String,CacheResponse> latest = new LinkedHashMap<String,CacheResponse>();
+        for (final CacheResponse entry : entries) {
+            final CacheResponse previous = latest.put(entry.getId(), entry);
+            if (previous != null) {
+                IOUtils.closeQuietly(previous.getContent());
+            }
+        }
+        final List<String> filenames = new ArrayList<String>();
+        final List<DBObject> inline = new ArrayList<DBObject>();
+        for (final CacheResponse entry : latest.values()) {
+            final byte[] content = compress(readContent(entry));
+            if (content.length < inlineThreshold && maxRevisions == 1) {
+                filenames.add(entry.getId());
+                inline.add(createInlineFile(entry.getId(), entry.getStatus(), entry.getUrl(), entry.getHeaders(), entry.getCached(), content));
+            } else {
+                storeCompressed(entry.getId(), entry.getStatus(), entry.getUrl(), entry.getHeaders(), entry.getCached(), content);
+            }
+        }
+        if (!inline.isEmpty()) {
+            fs.remove(new BasicDBObject("filename", new BasicDBObject("$in", filenames)));
+            files.insert(inline);
+        }
+    }
+
+    private void storeCompressed(final String filename, final int status, final URI url, final List<Header> headers, final DateTime timestamp, final byte[] content) throws IOException {
 
-        final GridFSInputFile file = fs.createFile(content);
-        file.setFilename(filename);
+        final int revision = maxRevisions > 1 ? archiveRevision(filename, content) : 0;
+        if (content.length < inlineThreshold) {
+            final DBObject file = createInlineFile(filename, status, url, headers, timestamp, content);
+            if (revision > 0) {
+                file.put("revision", revision);
+            }
+            fs.remove(filename);
+            files.insert(file);
+        } else {
+            final GridFSInputFile file = fs.createFile(content);
+            file.setFilename(filename);
+            file.put("url", url.toString());
+            file.put("headers", getHeaderDocuments(headers));
+            file.put("timestamp", timestamp.toDate());
+            file.put("last_accessed", new Date());
+            if (status != HttpStatus.SC_OK) {
+                file.put("status", status);
+            }
+            if (revision > 0) {
+                file.put("revision", revision);
+            }
+            fs.remove(filename);
+            file.save();
+        }
+    }
+
+    /**
+     * Moves the current entry for filename, if any, to the revisions
+     * collection as a delta against the new content, and drops revisions
+     * beyond the maximum.
+     *
+     * @return the revision number of the new content
+     */
+    private int archiveRevision(final String filename, final byte[] content) throws IOException {
+        final GridFSDBFile previous = fs.findOne(filename);
+        final Number n = previous == null ? null : (Number) previous.get("revision");
+        if (n == null) {
+            // Any revisions left are deltas against content since replaced
+            // without history, and can no longer be rebuilt
+            revisions.remove(new BasicDBObject("filename", filename));
+            if (previous == null) {
+                return 1;
+            }
+        }
+        final int revision = n == null ? 1 : n.intValue();
+        final byte[] delta = BinaryDelta.create(decompress(content), readFully(openContent(previous)));
+        final DBObject doc = new BasicDBObject();
+        doc.put("filename", filename);
+        doc.put("revision", revision);
+        doc.put("url", previous.get("url"));
+        doc.put("headers", previous.get("headers"));
+        doc.put("timestamp", previous.get("timestamp"));
+        if (previous.get("status") != null) {
+            doc.put("status", previous.get("status"));
+        }
+        doc.put("delta", compress(delta));
+        revisions.insert(doc);
+        revisions.remove(BasicDBObjectBuilder.start().add("filename", filename)
+                .add("revision", new BasicDBObject("$lte", revision + 1 - maxRevisions)).get());
+        return revision + 1;
+    }
+
+    private DBObject createInlineFile(final String filename, final int status, final URI url, final List<Header> headers, final DateTime timestamp, final byte[] content) {
+        final DBObject file = new BasicDBObject();
+        file.put("filename", filename);
+        file.put("length", content.length);
+        file.put("uploadDate", new Date());
+        file.put("data", content);
         file.put("url", url.toString());
-        file.put("headers", getHeaderStrings(headers));
-        file.put("timestamp", DATETIME_FORMATTER.print(timestamp));
-        file.put("last_accessed", DATETIME_FORMATTER.print(System.currentTimeMillis()));
-        fs.remove(filename);
-        file.save();
+        file.put("headers", getHeaderDocuments(headers));
+        file.put("timestamp", timestamp.toDate());
+        file.put("last_accessed", new Date());
+        if (status != HttpStatus.SC_OK) {
+            file.put("status", status);
+        }
+        return file;
     }
 
     private byte[] compress(final byte[] bytes) throws IOException {
@@ -108,10 +635,22 @@ public class MongoCache extends AbstractHttpCache {
         return buffer.toByteArray();
     }
 
-    private List<String> getHeaderStrings(List<Header> headers) {
-        final List<String> list = new ArrayList<String>();
+    private static byte[] decompress(final byte[] bytes) throws IOException {
+        return readFully(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private List<DBObject> getHeaderDocuments(final List<Header> headers) {
+        final List<DBObject> list = new ArrayList<DBObject>();
         for (final Header h : headers) {
-            list.add(h.getName() + ": " + h.getValue());
+            list.add(BasicDBObjectBuilder.start().add("name", h.getName()).add("value", h.getValue()).get());
         }
         return list;
     }
@@ -8,7 +8,9 @@ import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.protocol.HttpContext;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
 import uk.ac.cam.ch.wwmm.httpcrawler.FetcherParams;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.CircuitAuditor;
 import uk.ac.cam.ch.wwmm.httpcrawler.audit.RequestAuditor;
 
 import java.io.PrintWriter;
@@ -19,7 +21,7 @@ import java.util.Date;
 /**
  * @author Sam Adams
  */
-public class MongoRequestAuditor implements RequestAuditor {
+public class MongoRequestAuditor implements RequestAuditor, CircuitAuditor {
 
     private final DBCollection collection;
 
@@ -45,6 +47,16 @@ public class MongoRequestAuditor implements RequestAuditor {
         collection.insert(o);
     }
 
+    public void auditCircuitChange(final long timestamp, final HttpHost host, final CircuitState previous, final CircuitState state) {
+        final DBObject o = new BasicDBObject();
+        o.put("timestamp", new Date(timestamp));
+        o.put("host", host.toURI());
+        o.put("circuit", state.name());
+        o.put("previous", previous.name());
+
+        collection.insert(o);
+    }
+
     private void recordRequest(final long timestamp, final HttpHost host, final HttpRequest request, final HttpContext context, final DBObject o) {
         final String key = FetcherParams.getKey(context);
         if (key != null) {
@@ -0,0 +1,54 @@
+package uk.ac.cam.ch.wwmm.httpcrawler.mongodb;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.HostSummary;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.SummarySink;
+
+import java.util.Map;
+
+/**
+ * Writes one document per host summary.
+ *
+ * @author Sam Adams
+ */
+public class MongoSummarySink implements SummarySink {
+
+    private final DBCollection collection;
+
+    public MongoSummarySink(final DBCollection collection) {
+        this.collection = collection;
+    }
+
+    public void write(final HostSummary summary) {
+        final DBObject o = new BasicDBObject();
+        o.put("host", summary.getHost());
+        o.put("timestamp", summary.getWindowStart().toDate());
+        o.put("window", summary.getWindowMillis());
+        o.put("responses", summary.getResponseCount());
+        final DBObject status = new BasicDBObject();
+        for (int i = 1; i <= 5; i++) {
+            if (summary.getStatusCount(i) > 0) {
+                status.put(i+"xx", summary.getStatusCount(i));
+            }
+        }
+        o.put("status", status);
+        if (!summary.getErrorCounts().isEmpty()) {
+            final DBObject errors = new BasicDBObject();
+            for (final Map.Entry<String,Long> e : summary.getErrorCounts().entrySet()) {
+                errors.put(e.getKey(), e.getValue());
+            }
+            o.put("errors", errors);
+        }
+        o.put("bytes", summary.getBytes());
+        final long[] latency = summary.getLatencyPercentiles();
+        o.put("latency", new BasicDBObject("p50", latency[0]).append("p90", latency[1]).append("p99", latency[2]).append("max", latency[3]));
+        if (summary.getCircuitOpens() > 0) {
+            o.put("circuit_opens", summary.getCircuitOpens());
+        }
+
+        collection.insert(o);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.queue;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.message.BasicNameValuePair;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerGetRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerPostRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static uk.ac.cam.ch.wwmm.httpcrawler.queue.RequestEncoder.*;
+
+/**
+ * Decodes requests written by a {@link RequestEncoder}.
+ *
+ * @author Sam Adams
+ */
+public class RequestDecoder {
+
+    private final List<String> hosts = new ArrayList<String>();
+
+    public CrawlerRequest decode(final byte[] record) throws IOException {
+        return decode(ByteBuffer.wrap(record));
+    }
+
+    /**
+     * Decodes a record starting at the buffer's position, leaving the
+     * position after it.
+     */
+    public CrawlerRequest decode(final ByteBuffer buffer) throws IOException {
+        try {
+            final byte type = buffer.get();
+            final int flags = (int) readVarint(buffer);
+            final URI url = readUrl(buffer);
+            String id = null;
+            if ((flags & HAS_ID) != 0) {
+                id = readString(buffer);
+            } else if ((flags & ID_IS_URL) != 0) {
+                id = url.toString();
+            }
+            final Duration maxAge = (flags & HAS_MAX_AGE) != 0 ? new Duration(readVarint(buffer)) : null;
+            final URI referrer = (flags & HAS_REFERRER) != 0 ? readUrl(buffer) : null;
+            List<Cookie> cookies = null;
+            if ((flags & HAS_COOKIES) != 0) {
+                final int n = (int) readVarint(buffer);
+                cookies = new ArrayList<Cookie>(n);
+                for (int i = 0; i < n; i++) {
+                    cookies.add(readCookie(buffer));
+                }
+            }
+            final Duration staleWhileRevalidate = (flags & HAS_STALE_WHILE_REVALIDATE) != 0 ? new Duration(readVarint(buffer)) : null;
+            final DateTime deadline = (flags & HAS_DEADLINE) != 0 ? new DateTime(readVarint(buffer)) : null;
+            if (type == GET) {
+                return new CrawlerGetRequest(url, id, maxAge, referrer, cookies, staleWhileRevalidate, deadline, null);
+            }
+            if (type == POST) {
+                final int n = (int) readVarint(buffer);
+                final List<NameValuePair> parameters = new ArrayList<NameValuePair>(n);
+                for (int i = 0; i < n; i++) {
+                    parameters.add(new BasicNameValuePair(readString(buffer), readString(buffer)));
+                }
+                return new CrawlerPostRequest(url, parameters, id, maxAge, deadline, null);
+            }
+            throw new IOException("Unknown request type: "+type);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated request record", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad URL in request record", e);
+        }
+    }
+
+    /**
+     * Forgets the hosts seen so far; must match resets of the encoder.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    private URI readUrl(final ByteBuffer buffer) throws IOException {
+        final int kind = (int) readVarint(buffer);
+        if (kind == URL_VERBATIM) {
+            return URI.create(readString(buffer));
+        }
+        final int index = (int) readVarint(buffer);
+        final String host;
+        if (index == 0) {
+            host = readString(buffer);
+            hosts.add(host);
+        } else if (index <= hosts.size()) {
+            host = hosts.get(index - 1);
+        } else {
+            throw new IOException("Unknown host number: "+index);
+        }
+        final int port = (int) readVarint(buffer) - 1;
+        final String rest = readString(buffer);
+        final StringBuilder s = new StringBuilder(host.length() + rest.length() + 16);
+        s.append(kind == URL_HTTPS ? "https://" : "http://").append(host);
+        if (port != -1) {
+            s.append(':').append(port);
+        }
+        s.append(rest);
+        return URI.create(s.toString());
+    }
+
+    private Cookie readCookie(final ByteBuffer buffer) throws IOException {
+        final BasicClientCookie cookie = new BasicClientCookie(readString(buffer), readNullableString(buffer));
+        cookie.setDomain(readNullableString(buffer));
+        cookie.setPath(readNullableString(buffer));
+        final long expiry = readVarint(buffer);
+        if (expiry != 0) {
+            cookie.setExpiryDate(new Date(expiry - 1));
+        }
+        final int bits = (int) readVarint(buffer);
+        cookie.setSecure((bits & 1) != 0);
+        cookie.setVersion(bits >>> 1);
+        return cookie;
+    }
+
+    private static String readNullableString(final ByteBuffer buffer) throws IOException {
+        final long n = readVarint(buffer);
+        return n == 0 ? null : readString(buffer, n - 1);
+    }
+
+    private static String readString(final ByteBuffer buffer) throws IOException {
+        return readString(buffer, readVarint(buffer));
+    }
+
+    private static String readString(final ByteBuffer buffer, final long length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated string in request record");
+        }
+        final byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static long readVarint(final ByteBuffer buffer) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = buffer.get();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Varint too long in request record");
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.queue;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.cookie.Cookie;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerGetRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerPostRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerRequest;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes requests compactly, for {@link SpillingRequestQueue} or other
+ * bulk storage; read them back with a {@link RequestDecoder}.
+ *
+ * <p>A record is a type byte, a varint of flags marking the fields
+ * present, then the URL and fields, with numbers as varints and strings
+ * as a varint UTF-8 length followed by their bytes. HTTP and HTTPS URLs
+ * are split into scheme, host, port and the rest; the first time a host
+ * appears it is written out and numbered, and afterwards only its number
+ * is written. The ID is omitted when it is the URL, as is usual.</p>
+ *
+ * <p>Hosts are numbered per encoder, so records must be decoded in the
+ * order they were encoded, by a decoder reset whenever the encoder was.
+ * Cancellation handles are not encoded.</p>
+ *
+ * @author Sam Adams
+ */
+public class RequestEncoder {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final byte GET = 1;
+    static final byte POST = 2;
+
+    static final int HAS_ID = 1;
+    static final int ID_IS_URL = 1 << 1;
+    static final int HAS_MAX_AGE = 1 << 2;
+    static final int HAS_REFERRER = 1 << 3;
+    static final int HAS_COOKIES = 1 << 4;
+    static final int HAS_STALE_WHILE_REVALIDATE = 1 << 5;
+    static final int HAS_DEADLINE = 1 << 6;
+
+    static final int URL_HTTP = 0;
+    static final int URL_HTTPS = 1;
+    static final int URL_VERBATIM = 2;
+
+    private final Map<String,Integer> hosts = new HashMap<String,Integer>();
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    public byte[] encode(final CrawlerRequest request) {
+        length = 0;
+        final byte type;
+        if (request instanceof CrawlerGetRequest) {
+            type = GET;
+        } else if (request instanceof CrawlerPostRequest) {
+            type = POST;
+        } else {
+            throw new IllegalArgumentException("Unknown request type: "+request.getClass());
+        }
+        final String id = request.getId();
+        final String url = request.getUrl().toString();
+        int flags = 0;
+        if (id != null) {
+            flags |= id.equals(url) ? ID_IS_URL : HAS_ID;
+        }
+        if (request.getMaxAge() != null) {
+            flags |= HAS_MAX_AGE;
+        }
+        if (request.getReferrer() != null) {
+            flags |= HAS_REFERRER;
+        }
+        if (request.getCookies() != null && !request.getCookies().isEmpty()) {
+            flags |= HAS_COOKIES;
+        }
+        if (request.getStaleWhileRevalidate() != null) {
+            flags |= HAS_STALE_WHILE_REVALIDATE;
+        }
+        if (request.getDeadline() != null) {
+            flags |= HAS_DEADLINE;
+        }
+
+        writeByte(type);
+        writeVarint(flags);
+        writeUrl(request.getUrl());
+        if ((flags & HAS_ID) != 0) {
+            writeString(id);
+        }
+        if ((flags & HAS_MAX_AGE) != 0) {
+            writeVarint(request.getMaxAge().getMillis());
+        }
+        if ((flags & HAS_REFERRER) != 0) {
+            writeUrl(request.getReferrer());
+        }
+        if ((flags & HAS_COOKIES) != 0) {
+            writeVarint(request.getCookies().size());
+            for (final Cookie cookie : request.getCookies()) {
+                writeCookie(cookie);
+            }
+        }
+        if ((flags & HAS_STALE_WHILE_REVALIDATE) != 0) {
+            writeVarint(request.getStaleWhileRevalidate().getMillis());
+        }
+        if ((flags & HAS_DEADLINE) != 0) {
+            writeVarint(request.getDeadline().getMillis());
+        }
+        if (type == POST) {
+            final CrawlerPostRequest post = (CrawlerPostRequest) request;
+            writeVarint(post.getParameters().size());
+            for (final NameValuePair parameter : post.getParameters()) {
+                writeString(parameter.getName());
+                writeString(parameter.getValue());
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Forgets the hosts seen so far, e.g. at the start of a new file.
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    private void writeUrl(final URI url) {
+        final String scheme = url.getScheme();
+        final String host = url.getHost();
+        final int kind = "http".equals(scheme) ? URL_HTTP : "https".equals(scheme) ? URL_HTTPS : URL_VERBATIM;
+        if (kind == URL_VERBATIM || host == null || url.isOpaque() || url.getRawUserInfo() != null) {
+            writeVarint(URL_VERBATIM);
+            writeString(url.toString());
+            return;
+        }
+        writeVarint(kind);
+        final Integer index = hosts.get(host);
+        if (index == null) {
+            // Zero introduces a new host, which takes the next number
+            writeVarint(0);
+            writeString(host);
+            hosts.put(host, hosts.size() + 1);
+        } else {
+            writeVarint(index);
+        }
+        writeVarint(url.getPort() + 1);
+        final StringBuilder rest = new StringBuilder();
+        if (url.getRawPath() != null) {
+            rest.append(url.getRawPath());
+        }
+        if (url.getRawQuery() != null) {
+            rest.append('?').append(url.getRawQuery());
+        }
+        if (url.getRawFragment() != null) {
+            rest.append('#').append(url.getRawFragment());
+        }
+        writeString(rest.toString());
+    }
+
+    private void writeCookie(final Cookie cookie) {
+        writeString(cookie.getName());
+        writeNullableString(cookie.getValue());
+        writeNullableString(cookie.getDomain());
+        writeNullableString(cookie.getPath());
+        writeVarint(cookie.getExpiryDate() == null ? 0 : cookie.getExpiryDate().getTime() + 1);
+        writeVarint((cookie.getVersion() << 1) | (cookie.isSecure() ? 1 : 0));
+    }
+
+    private void writeNullableString(final String s) {
+        if (s == null) {
+            writeVarint(0);
+        } else {
+            writeBytes(s.getBytes(UTF8), 1);
+        }
+    }
+
+    private void writeString(final String s) {
+        writeBytes(s.getBytes(UTF8), 0);
+    }
+
+    private void writeBytes(final byte[] bytes, final int lengthOffset) {
+        writeVarint(bytes.length + lengthOffset);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeByte(final int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeVarint(long v) {
+        ensureCapacity(10);
+        while ((v & ~0x7fL) != 0) {
+            buffer[length++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        buffer[length++] = (byte) v;
+    }
+
+    private void ensureCapacity(final int n) {
+        if (length + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+        }
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.queue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerRequest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A FIFO queue of requests held in memory-mapped segment files, so that
+ * backlogs of millions of requests take disk space rather than heap.
+ *
+ * <p>Requests are {@link RequestEncoder encoded} and appended to the tail
+ * segment; when it is full a new one is started. Requests are taken from
+ * the head segment, which is deleted once consumed. While the head is
+ * being read, the segment after it is mapped and loaded into memory in
+ * the background, so that taking requests rarely waits for the disk. Only
+ * the head, the tail and the next segment are mapped at a time.</p>
+ *
+ * <p>Each segment starts with {@link #MAGIC} and the offset up to which
+ * its requests have been taken, which is updated on {@link #close()};
+ * records follow as a varint length and the encoded request, until a zero
+ * length. A consumed segment's offset is set to {@link #CONSUMED} before
+ * it is deleted, so that it is skipped if deletion fails, as it can while
+ * the file is still mapped on some platforms. Segments left in the
+ * directory by an earlier queue with the same prefix are taken first, so
+ * a backlog survives a restart. After a crash, requests taken since the
+ * head offset was last saved are taken again. Cancellation handles are
+ * not kept.</p>
+ *
+ * @author Sam Adams
+ */
+public class SpillingRequestQueue implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(SpillingRequestQueue.class);
+
+    public static final byte[] MAGIC = {'H', 'C', 'Q', 'U', 'E', 'U', 'E', 1};
+
+    public static final String SUFFIX = ".seg";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Head offset marking a segment all of whose requests have been taken */
+    public static final int CONSUMED = -1;
+
+    private static final int OFFSET_POSITION = MAGIC.length;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+    /** Longest varint record length, plus the zero terminating a segment */
+    private static final int RECORD_OVERHEAD = 6;
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final ExecutorService loader;
+
+    /** Segment files, from the head to the tail */
+    private final LinkedList<File> files = new LinkedList<File>();
+    private long nextSequence;
+
+    private final RequestEncoder encoder = new RequestEncoder();
+    private MappedByteBuffer tail;
+
+    private final RequestDecoder decoder = new RequestDecoder();
+    private ByteBuffer head;
+    private MappedByteBuffer headMapping;
+
+    private File prefetchFile;
+    private Future<MappedByteBuffer> prefetch;
+
+    private long size;
+    private boolean closed;
+
+    public SpillingRequestQueue(final File directory, final String prefix) throws IOException {
+        this(directory, prefix, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size in bytes of each segment file
+     */
+    public SpillingRequestQueue(final File directory, final String prefix, final int segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_OVERHEAD) {
+            throw new IllegalArgumentException("segmentSize too small: "+segmentSize);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "request-queue-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        FileUtils.forceMkdir(directory);
+        recover();
+        startTail(0);
+        if (head == null) {
+            openHead();
+        }
+    }
+
+    /**
+     * Finds segments left by an earlier queue, counting the requests not
+     * yet taken from them.
+     */
+    private void recover() throws IOException {
+        final String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return name.matches(Pattern.quote(prefix) + "-\\d{16}" + Pattern.quote(SUFFIX));
+            }
+        });
+        if (names == null || names.length == 0) {
+            return;
+        }
+        // Sequence numbers are zero-padded, so names sort in order
+        Arrays.sort(names);
+        for (final String name : names) {
+            final File file = new File(directory, name);
+            final MappedByteBuffer buffer = map(file);
+            if (!hasMagic(buffer)) {
+                LOG.warn("Ignoring unrecognised queue segment: "+file);
+                continue;
+            }
+            nextSequence = getSequence(name) + 1;
+            if (buffer.getInt(OFFSET_POSITION) == CONSUMED) {
+                if (!file.delete()) {
+                    LOG.warn("Unable to delete consumed queue segment "+file);
+                }
+                continue;
+            }
+            final boolean first = files.isEmpty();
+            buffer.position(HEADER_SIZE);
+            if (first) {
+                // Replay the hosts defined in the part already taken
+                final int offset = buffer.getInt(OFFSET_POSITION);
+                while (buffer.position() < offset && nextLength(buffer) > 0) {
+                    RequestDecoder.readVarint(buffer);
+                    decoder.decode(buffer);
+                }
+            }
+            final int start = buffer.position();
+            for (int n = nextLength(buffer); n > 0; n = nextLength(buffer)) {
+                RequestDecoder.readVarint(buffer);
+                buffer.position(buffer.position() + n);
+                size++;
+            }
+            buffer.position(start);
+            if (first) {
+                head = buffer;
+                headMapping = buffer;
+            }
+            files.add(file);
+        }
+        if (size > 0) {
+            LOG.info("Recovered "+size+" queued requests from "+files.size()+" segments in "+directory);
+        }
+    }
+
+    public synchronized void add(final CrawlerRequest request) throws IOException {
+        checkOpen();
+        byte[] record = encoder.encode(request);
+        if (tail.remaining() < record.length + RECORD_OVERHEAD) {
+            // Hosts are numbered afresh in the new segment, so the record
+            // may now define its host, and be longer
+            encoder.reset();
+            record = encoder.encode(request);
+            startTail(record.length);
+        }
+        writeVarint(tail, record.length);
+        tail.put(record);
+        size++;
+        notifyAll();
+    }
+
+    /**
+     * Takes the request at the head of the queue, or returns null if the
+     * queue is empty.
+     */
+    public synchronized CrawlerRequest poll() throws IOException {
+        checkOpen();
+        if (size == 0) {
+            return null;
+        }
+        while (nextLength(head) == 0) {
+            advanceHead();
+        }
+        RequestDecoder.readVarint(head);
+        final CrawlerRequest request = decoder.decode(head);
+        size--;
+        return request;
+    }
+
+    /**
+     * Takes the request at the head of the queue, waiting up to timeout
+     * for one to be added if it is empty.
+     *
+     * @return the request, or null if none was added in time
+     */
+    public synchronized CrawlerRequest poll(final long timeout, final TimeUnit timeUnit) throws IOException, InterruptedException {
+        final long end = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        for (long wait = timeUnit.toMillis(timeout); size == 0 && wait > 0; wait = end - System.currentTimeMillis()) {
+            checkOpen();
+            wait(wait);
+        }
+        return poll();
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Records how far the head segment has been taken, and releases the
+     * segment files. Requests not yet taken remain on disk, and are taken
+     * first by the next queue opened on the same directory and prefix; if
+     * there are none, the files are deleted.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        loader.shutdownNow();
+        if (size == 0) {
+            markConsumed(headMapping);
+            if (tail != headMapping) {
+                markConsumed(tail);
+            }
+            for (final File file : files) {
+                FileUtils.deleteQuietly(file);
+            }
+        } else {
+            saveHeadOffset();
+            tail.force();
+        }
+        head = null;
+        headMapping = null;
+        tail = null;
+        notifyAll();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Queue closed");
+        }
+    }
+
+    private void startTail(final int recordLength) throws IOException {
+        final File file = new File(directory, String.format("%s-%016d%s", prefix, nextSequence++, SUFFIX));
+        final int length = Math.max(segmentSize, HEADER_SIZE + recordLength + RECORD_OVERHEAD);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+            tail = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            raf.close();
+        }
+        tail.put(MAGIC);
+        tail.putInt(HEADER_SIZE);
+        files.add(file);
+        if (head != null) {
+            prefetchNext();
+        }
+    }
+
+    /**
+     * Starts reading the first segment, which if it is also the tail is
+     * read through a view of the tail's mapping.
+     */
+    private void openHead() throws IOException {
+        final File file = files.getFirst();
+        if (files.size() == 1) {
+            headMapping = tail;
+            head = tail.duplicate();
+        } else {
+            headMapping = file.equals(prefetchFile) ? getPrefetched() : map(file);
+            head = headMapping;
+        }
+        head.position(HEADER_SIZE);
+        decoder.reset();
+        prefetchNext();
+    }
+
+    private void advanceHead() throws IOException {
+        final File finished = files.removeFirst();
+        markConsumed(headMapping);
+        head = null;
+        headMapping = null;
+        if (!finished.delete()) {
+            LOG.warn("Unable to delete consumed queue segment "+finished);
+        }
+        openHead();
+    }
+
+    /**
+     * Maps and loads the segment after the head in the background, unless
+     * it is the tail, which is already mapped.
+     */
+    private void prefetchNext() {
+        if (files.size() < 3) {
+            prefetchFile = null;
+            prefetch = null;
+            return;
+        }
+        final File file = files.get(1);
+        if (file.equals(prefetchFile)) {
+            return;
+        }
+        prefetchFile = file;
+        prefetch = loader.submit(new Callable<MappedByteBuffer>() {
+            public MappedByteBuffer call() throws IOException {
+                return map(file).load();
+            }
+        });
+    }
+
+    private MappedByteBuffer getPrefetched() throws IOException {
+        try {
+            return prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading "+prefetchFile);
+        } catch (ExecutionException e) {
+            throw new IOException("Error loading "+prefetchFile, e.getCause());
+        } finally {
+            prefetchFile = null;
+            prefetch = null;
+        }
+    }
+
+    private void saveHeadOffset() {
+        if (head != null) {
+            headMapping.putInt(OFFSET_POSITION, head.position());
+            headMapping.force();
+        }
+    }
+
+    private static void markConsumed(final MappedByteBuffer segment) {
+        if (segment != null) {
+            segment.putInt(OFFSET_POSITION, CONSUMED);
+            segment.force();
+        }
+    }
+
+    private static MappedByteBuffer map(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean hasMagic(final ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the record at the buffer's position, without
+     * moving it; 0 at the end of the segment's records.
+     */
+    private static int nextLength(final ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining() || buffer.get(buffer.position()) == 0) {
+            return 0;
+        }
+        final int position = buffer.position();
+        final long n = RequestDecoder.readVarint(buffer);
+        buffer.position(position);
+        return (int) n;
+    }
+
+    private static void writeVarint(final ByteBuffer buffer, int v) {
+        while ((v & ~0x7f) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private static long getSequence(final String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()).substring(name.lastIndexOf('-') + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.log4j.Logger;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheCursor;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheFilter;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.ScannableHttpCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Dumps the entries of a {@link ScannableHttpCache} to gzipped WARC files, starting
+ * a new file whenever the current one exceeds the maximum size.
+ *
+ * @author Sam Adams
+ */
+public class WarcExporter {
+
+    private static final Logger LOG = Logger.getLogger(WarcExporter.class);
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024;
+
+    private final ScannableHttpCache cache;
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    public WarcExporter(final ScannableHttpCache cache) {
+        this.cache = cache;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(final long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Writes the entries matching filter to files named
+     * <code>prefix-00000.warc.gz</code>, <code>prefix-00001.warc.gz</code>,
+     * etc. in directory.
+     *
+     * @return the number of entries written
+     */
+    public long export(final CacheFilter filter, final File directory, final String prefix) throws IOException {
+        final CacheCursor cursor = cache.scan(filter);
+        int fileCount = 0;
+        long count = 0;
+        WarcWriter writer = null;
+        try {
+            while (cursor.hasNext()) {
+                if (writer == null || writer.getLength() >= maxFileSize) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                    final File file = new File(directory, String.format("%s-%05d.warc.gz", prefix, fileCount++));
+                    LOG.info("Writing "+file);
+                    writer = new WarcWriter(new FileOutputStream(file), true);
+                }
+                writer.write(cursor.next());
+                count++;
+            }
+        } finally {
+            cursor.close();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the entries matching filter to a single WARC.
+     *
+     * @return the number of entries written
+     */
+    public long export(final CacheFilter filter, final WarcWriter writer) throws IOException {
+        final CacheCursor cursor = cache.scan(filter);
+        long count = 0;
+        try {
+            while (cursor.hasNext()) {
+                writer.write(cursor.next());
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.flush();
+        return count;
+    }
+
+}
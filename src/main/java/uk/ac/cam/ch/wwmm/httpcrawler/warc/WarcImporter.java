@@ -0,0 +1,179 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import uk.ac.cam.ch.wwmm.httpcrawler.EntitySpool;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
+
+import java.io.*;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the response records of WARC files into an {@link AbstractHttpCache},
+ * passing them to {@link AbstractHttpCache#storeAll} in batches.
+ *
+ * <p>Entries keep the ID recorded in their <code>WARC-Cache-ID</code>
+ * field, or are keyed by their target URI if there is none, and the time
+ * in their <code>WARC-Date</code>. Other record types are skipped.</p>
+ *
+ * <p>Bodies are spooled to temporary files when large, as by
+ * {@link WarcWriter}, so the memory held by a batch is bounded by the
+ * maximum batch size in bytes rather than by the largest entry.</p>
+ *
+ * @author Sam Adams
+ */
+public class WarcImporter {
+
+    private static final Logger LOG = Logger.getLogger(WarcImporter.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+    private static final long SPOOL_THRESHOLD = 1024 * 1024;
+
+    private final AbstractHttpCache cache;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    public WarcImporter(final AbstractHttpCache cache) {
+        this.cache = cache;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Sets the total body size at which a batch is written even if it has
+     * fewer than batchSize entries, which bounds memory use.
+     */
+    public void setMaxBatchBytes(final long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the number of entries stored
+     */
+    public long importWarc(final File file) throws IOException {
+        LOG.info("Reading "+file);
+        final InputStream in = new FileInputStream(file);
+        try {
+            return importWarc(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the number of entries stored
+     */
+    public long importWarc(final InputStream in) throws IOException {
+        final WarcReader reader = new WarcReader(in);
+        final List<CacheResponse> batch = new ArrayList<CacheResponse>();
+        final List<EntitySpool> spools = new ArrayList<EntitySpool>();
+        long batchBytes = 0;
+        long count = 0;
+        try {
+            for (WarcRecord record = reader.next(); record != null; record = reader.next()) {
+                if (!WarcWriter.RESPONSE.equals(record.getType()) || record.getTargetUri() == null) {
+                    continue;
+                }
+                final EntitySpool body = new EntitySpool(record.getContentLength(), SPOOL_THRESHOLD);
+                spools.add(body);
+                batch.add(readEntry(record, body));
+                batchBytes += record.getContentLength();
+                if (batch.size() >= batchSize || batchBytes >= maxBatchBytes) {
+                    count += flush(batch, spools);
+                    batchBytes = 0;
+                }
+            }
+            count += flush(batch, spools);
+        } finally {
+            release(batch, spools);
+        }
+        return count;
+    }
+
+    private int flush(final List<CacheResponse> batch, final List<EntitySpool> spools) throws IOException {
+        final int n = batch.size();
+        if (n > 0) {
+            try {
+                cache.storeAll(batch);
+            } finally {
+                release(batch, spools);
+            }
+        }
+        return n;
+    }
+
+    private static void release(final List<CacheResponse> batch, final List<EntitySpool> spools) {
+        for (final CacheResponse entry : batch) {
+            IOUtils.closeQuietly(entry.getContent());
+        }
+        for (final EntitySpool spool : spools) {
+            spool.close();
+        }
+        batch.clear();
+        spools.clear();
+    }
+
+    private static CacheResponse readEntry(final WarcRecord record, final EntitySpool body) throws IOException {
+        final URI url = URI.create(record.getTargetUri());
+        final String cacheId = record.getHeader(WarcWriter.WARC_CACHE_ID);
+        final String id = cacheId != null ? cacheId : record.getTargetUri();
+        final String date = record.getHeader(WarcWriter.WARC_DATE);
+        final DateTime cached = date != null ? new DateTime(date) : new DateTime();
+
+        final InputStream in = record.getContent();
+        final String statusLine = WarcReader.readLine(in, "ISO-8859-1");
+        if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+            throw new IOException("Bad HTTP status line in record for "+url+": "+statusLine);
+        }
+        final String[] parts = statusLine.split(" ", 3);
+        final int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Bad HTTP status line in record for "+url+": "+statusLine);
+        }
+        final List<Header> headers = new ArrayList<Header>();
+        for (String line = WarcReader.readLine(in, "ISO-8859-1"); line != null && line.length() > 0; line = WarcReader.readLine(in, "ISO-8859-1")) {
+            final int i = line.indexOf(':');
+            if (i > 0) {
+                headers.add(new BasicHeader(line.substring(0, i).trim(), line.substring(i+1).trim()));
+            }
+        }
+        body.read(in);
+        return new CacheResponse(id, status, url, headers, body.openStream(), cached);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads records sequentially from a WARC file, which may be gzipped. Only
+ * the current record's header is held in memory; its content is streamed.
+ *
+ * @author Sam Adams
+ */
+public class WarcReader implements Closeable {
+
+    private final InputStream in;
+    private WarcRecord current;
+
+    public WarcReader(final InputStream in) throws IOException {
+        final PushbackInputStream pin = new PushbackInputStream(new BufferedInputStream(in), 2);
+        final int b0 = pin.read();
+        final int b1 = pin.read();
+        if (b1 != -1) {
+            pin.unread(b1);
+        }
+        if (b0 != -1) {
+            pin.unread(b0);
+        }
+        if (b0 == 0x1f && b1 == 0x8b) {
+            // Each record is a gzip member; GZIPInputStream reads them consecutively
+            this.in = new BufferedInputStream(new GZIPInputStream(pin));
+        } else {
+            this.in = pin;
+        }
+    }
+
+    /**
+     * Returns the next record, or null at the end of the file. Any unread
+     * content of the previous record is skipped.
+     */
+    public WarcRecord next() throws IOException {
+        if (current != null) {
+            skipFully(current.getContent());
+            current = null;
+        }
+        String line = readLine();
+        // Skip the blank lines ending the previous record
+        while (line != null && line.length() == 0) {
+            line = readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        if (!line.startsWith("WARC/")) {
+            throw new IOException("Not a WARC record: "+line);
+        }
+        final List<Header> headers = new ArrayList<Header>();
+        long length = -1;
+        for (line = readLine(); line != null && line.length() > 0; line = readLine()) {
+            final int i = line.indexOf(':');
+            if (i == -1) {
+                throw new IOException("Bad WARC header: "+line);
+            }
+            final Header header = new BasicHeader(line.substring(0, i).trim(), line.substring(i+1).trim());
+            headers.add(header);
+            if (WarcWriter.CONTENT_LENGTH.equalsIgnoreCase(header.getName())) {
+                length = Long.parseLong(header.getValue());
+            }
+        }
+        if (length < 0) {
+            throw new IOException("WARC record has no Content-Length");
+        }
+        final BoundedInputStream content = new BoundedInputStream(in, length);
+        content.setPropagateClose(false);
+        current = new WarcRecord(headers, length, content);
+        return current;
+    }
+
+    private String readLine() throws IOException {
+        return readLine(in, "UTF-8");
+    }
+
+    /**
+     * Reads a CRLF- or LF-terminated line, or returns null at end of
+     * stream.
+     */
+    static String readLine(final InputStream in, final String charset) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        for (; b != -1 && b != '\n'; b = in.read()) {
+            buffer.write(b);
+        }
+        final String line = buffer.toString(charset);
+        return line.endsWith("\r") ? line.substring(0, line.length()-1) : line;
+    }
+
+    private static void skipFully(final InputStream in) throws IOException {
+        final byte[] b = new byte[8192];
+        while (in.read(b) != -1) {
+            // skip
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
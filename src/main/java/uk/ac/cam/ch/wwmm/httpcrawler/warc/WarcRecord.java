@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.http.Header;
+
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A record read from a WARC file. The content stream is only valid until
+ * the next record is read.
+ *
+ * @author Sam Adams
+ */
+public class WarcRecord {
+
+    private final List<Header> headers;
+    private final long contentLength;
+    private final InputStream content;
+
+    WarcRecord(final List<Header> headers, final long contentLength, final InputStream content) {
+        this.headers = headers;
+        this.contentLength = contentLength;
+        this.content = content;
+    }
+
+    public List<Header> getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(final String name) {
+        for (final Header header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    public String getType() {
+        return getHeader(WarcWriter.WARC_TYPE);
+    }
+
+    public String getTargetUri() {
+        return getHeader(WarcWriter.WARC_TARGET_URI);
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public InputStream getContent() {
+        return content;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import uk.ac.cam.ch.wwmm.httpcrawler.EntitySpool;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+
+import java.io.*;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes cache entries as WARC/1.0 response records.
+ *
+ * <p>When compressing, each record is written as a separate gzip member,
+ * as is conventional for <code>.warc.gz</code> files, so that records can
+ * be located and read individually. Bodies are spooled to a temporary file
+ * when large, to find their length, so memory use does not depend on the
+ * size of the entries.</p>
+ *
+ * <p>The cache ID of each entry is recorded in a <code>WARC-Cache-ID</code>
+ * field, so that it can be restored on import.</p>
+ *
+ * @author Sam Adams
+ */
+public class WarcWriter implements Closeable {
+
+    public static final String WARC_VERSION = "WARC/1.0";
+    public static final String WARC_TYPE = "WARC-Type";
+    public static final String WARC_RECORD_ID = "WARC-Record-ID";
+    public static final String WARC_DATE = "WARC-Date";
+    public static final String WARC_TARGET_URI = "WARC-Target-URI";
+    public static final String WARC_CACHE_ID = "WARC-Cache-ID";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_LENGTH = "Content-Length";
+
+    public static final String RESPONSE = "response";
+    public static final String HTTP_RESPONSE_TYPE = "application/http; msgtype=response";
+
+    static final DateTimeFormatter WARC_DATE_FORMAT = ISODateTimeFormat.dateTimeNoMillis().withZone(DateTimeZone.UTC);
+
+    private static final String CRLF = "\r\n";
+    private static final long SPOOL_THRESHOLD = 1024 * 1024;
+
+    private final CountingOutputStream out;
+    private final boolean compress;
+
+    public WarcWriter(final OutputStream out, final boolean compress) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out));
+        this.compress = compress;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long getLength() {
+        return out.getByteCount();
+    }
+
+    /**
+     * Writes entry as a response record, reading and closing its content.
+     */
+    public void write(final CacheResponse entry) throws IOException {
+        final byte[] httpHeader = getHttpHeader(entry);
+        final EntitySpool body = new EntitySpool(-1, SPOOL_THRESHOLD);
+        try {
+            final InputStream in = entry.getContent();
+            if (in != null) {
+                try {
+                    body.read(in);
+                } finally {
+                    in.close();
+                }
+            }
+
+            final StringBuilder s = new StringBuilder();
+            s.append(WARC_VERSION).append(CRLF);
+            appendField(s, WARC_TYPE, RESPONSE);
+            appendField(s, WARC_RECORD_ID, "<urn:uuid:"+UUID.randomUUID()+">");
+            appendField(s, WARC_DATE, WARC_DATE_FORMAT.print(entry.getCached()));
+            appendField(s, WARC_TARGET_URI, entry.getUrl().toString());
+            appendField(s, WARC_CACHE_ID, entry.getId());
+            appendField(s, CONTENT_TYPE, HTTP_RESPONSE_TYPE);
+            appendField(s, CONTENT_LENGTH, Long.toString(httpHeader.length + body.getOffset()));
+            s.append(CRLF);
+
+            final GZIPOutputStream gz = compress ? new GZIPOutputStream(new CloseShieldOutputStream(out)) : null;
+            final OutputStream record = compress ? gz : out;
+            record.write(s.toString().getBytes("UTF-8"));
+            record.write(httpHeader);
+            body.writeTo(record);
+            record.write((CRLF + CRLF).getBytes("US-ASCII"));
+            if (gz != null) {
+                gz.finish();
+            }
+        } finally {
+            body.close();
+        }
+    }
+
+    private static byte[] getHttpHeader(final CacheResponse entry) throws UnsupportedEncodingException {
+        final StringBuilder s = new StringBuilder();
+        final String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(entry.getStatus(), Locale.ENGLISH);
+        s.append("HTTP/1.1 ").append(entry.getStatus());
+        if (reason != null) {
+            s.append(' ').append(reason);
+        }
+        s.append(CRLF);
+        for (final Header header : entry.getHeaders()) {
+            appendField(s, header.getName(), header.getValue());
+        }
+        s.append(CRLF);
+        return s.toString().getBytes("ISO-8859-1");
+    }
+
+    private static void appendField(final StringBuilder s, final String name, final String value) {
+        s.append(name).append(": ").append(value).append(CRLF);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
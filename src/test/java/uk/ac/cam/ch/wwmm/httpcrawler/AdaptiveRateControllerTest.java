@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class AdaptiveRateControllerTest {
+
+    private static final HttpHost HOST = new HttpHost("www.example.com");
+    private static final HttpHost OTHER = new HttpHost("other.example.com");
+
+    private static HttpResponse createResponse(final int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+    }
+
+    private static AdaptiveRateController createController() {
+        return new AdaptiveRateController(100, 10000, 1000, 50, 2.0, 0);
+    }
+
+    @Test
+    public void testInitialInterval() {
+        final AdaptiveRateController controller = createController();
+        assertEquals(1000, controller.getIntervalMillis(HOST));
+        assertTrue(controller.getIntervals().isEmpty());
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        final AdaptiveRateController controller = createController();
+        for (int i = 0; i < 4; i++) {
+            controller.onResponse(HOST, createResponse(200), 10);
+        }
+        assertEquals(800, controller.getIntervalMillis(HOST));
+        assertEquals(1000, controller.getIntervalMillis(OTHER));
+    }
+
+    @Test
+    public void testIntervalFloor() {
+        final AdaptiveRateController controller = createController();
+        for (int i = 0; i < 100; i++) {
+            controller.onResponse(HOST, createResponse(200), 10);
+        }
+        assertEquals(100, controller.getIntervalMillis(HOST));
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        final AdaptiveRateController controller = createController();
+        controller.onResponse(HOST, createResponse(503), 10);
+        assertEquals(2000, controller.getIntervalMillis(HOST));
+        controller.onResponse(HOST, createResponse(500), 10);
+        assertEquals(4000, controller.getIntervalMillis(HOST));
+        controller.onError(HOST);
+        assertEquals(8000, controller.getIntervalMillis(HOST));
+        controller.onResponse(HOST, createResponse(429), 10);
+        assertEquals(10000, controller.getIntervalMillis(HOST));
+        assertEquals(Long.valueOf(10000), controller.getIntervals().get(HOST.toURI()));
+    }
+
+    @Test
+    public void testClientErrorIsNotCongestion() {
+        final AdaptiveRateController controller = createController();
+        controller.onResponse(HOST, createResponse(404), 10);
+        assertEquals(950, controller.getIntervalMillis(HOST));
+    }
+
+    @Test
+    public void testLatencyTarget() {
+        final AdaptiveRateController controller = new AdaptiveRateController(100, 10000, 1000, 10, 2.0, 500);
+        // A full window of slow responses: the last one backs off
+        for (int i = 0; i < 31; i++) {
+            controller.onResponse(HOST, createResponse(200), 1000);
+        }
+        assertEquals(690, controller.getIntervalMillis(HOST));
+        controller.onResponse(HOST, createResponse(200), 1000);
+        assertEquals(1380, controller.getIntervalMillis(HOST));
+    }
+
+    @Test
+    public void testReserveSpacesRequests() {
+        final AdaptiveRateController controller = createController();
+        final long first = controller.reserve(HOST);
+        final long second = controller.reserve(HOST);
+        assertEquals(1000, second - first);
+        assertTrue(controller.reserve(OTHER) < second);
+    }
+
+    @Test
+    public void testRetryAfterDelaysNextSlot() {
+        final AdaptiveRateController controller = createController();
+        final HttpResponse response = createResponse(503);
+        response.setHeader("Retry-After", "5");
+        final long now = System.currentTimeMillis();
+        controller.onResponse(HOST, response, 10);
+        assertTrue(controller.reserve(HOST) >= now + 5000);
+    }
+
+    @Test
+    public void testRetryAfterDefersReservedSlot() {
+        final AdaptiveRateController controller = createController();
+        final long reserved = controller.reserve(HOST);
+        final long next = controller.reserve(HOST);
+        assertFalse(controller.isDeferred(HOST, next));
+        final HttpResponse response = createResponse(429);
+        response.setHeader("Retry-After", "5");
+        controller.onResponse(HOST, response, 10);
+        assertTrue(controller.isDeferred(HOST, next));
+        final long rescheduled = controller.reserve(HOST);
+        assertTrue(rescheduled >= reserved + 5000);
+        assertFalse(controller.isDeferred(HOST, rescheduled));
+        assertFalse(controller.isDeferred(OTHER, next));
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        final HttpResponse response = createResponse(503);
+        response.setHeader("Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000)));
+        final long millis = AdaptiveRateController.getRetryAfterMillis(response);
+        assertTrue(millis > 55000 && millis <= 60000);
+    }
+
+    @Test
+    public void testBadRetryAfterIgnored() {
+        final HttpResponse response = createResponse(503);
+        response.setHeader("Retry-After", "soon");
+        assertEquals(0, AdaptiveRateController.getRetryAfterMillis(response));
+        response.setHeader("Retry-After", "-5");
+        assertEquals(0, AdaptiveRateController.getRetryAfterMillis(response));
+    }
+
+    @Test
+    public void testHugeRetryAfterCapped() {
+        final HttpResponse response = createResponse(503);
+        response.setHeader("Retry-After", "9223372036854775");
+        assertEquals(AdaptiveRateController.MAX_RETRY_AFTER_MILLIS, AdaptiveRateController.getRetryAfterMillis(response));
+        response.setHeader("Retry-After", String.valueOf(Long.MAX_VALUE));
+        assertEquals(AdaptiveRateController.MAX_RETRY_AFTER_MILLIS, AdaptiveRateController.getRetryAfterMillis(response));
+        response.setHeader("Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 10 * AdaptiveRateController.MAX_RETRY_AFTER_MILLIS)));
+        assertEquals(AdaptiveRateController.MAX_RETRY_AFTER_MILLIS, AdaptiveRateController.getRetryAfterMillis(response));
+    }
+
+    @Test
+    public void testHugeRetryAfterDelaysNextSlot() {
+        final AdaptiveRateController controller = createController();
+        final HttpResponse response = createResponse(503);
+        response.setHeader("Retry-After", String.valueOf(Long.MAX_VALUE / 100));
+        final long now = System.currentTimeMillis();
+        controller.onResponse(HOST, response, 10);
+        assertTrue(controller.reserve(HOST) >= now + AdaptiveRateController.MAX_RETRY_AFTER_MILLIS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackOffFactorMustExceedOne() {
+        new AdaptiveRateController(100, 10000, 1000, 50, 1.0, 0);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.CircuitAuditor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class CircuitBreakerTest {
+
+    private static final HttpHost HOST = new HttpHost("www.example.com");
+    private static final HttpHost OTHER = new HttpHost("other.example.com");
+
+    private static final long OPEN_MILLIS = 100;
+
+    /**
+     * Records circuit transitions as "PREVIOUS>STATE".
+     */
+    private static class TransitionRecorder implements CircuitAuditor {
+
+        private final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+
+        public void auditCircuitChange(final long timestamp, final HttpHost host, final CircuitState previous, final CircuitState state) {
+            transitions.add(previous + ">" + state);
+        }
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS);
+        breaker.recordFailure(HOST);
+        breaker.recordFailure(HOST);
+        assertEquals(CircuitState.CLOSED, breaker.getState(HOST));
+        assertTrue(breaker.allowRequest(HOST));
+        breaker.recordFailure(HOST);
+        assertEquals(CircuitState.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+        assertTrue(breaker.allowRequest(OTHER));
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS);
+        breaker.recordFailure(HOST);
+        breaker.recordFailure(HOST);
+        breaker.recordSuccess(HOST);
+        breaker.recordFailure(HOST);
+        breaker.recordFailure(HOST);
+        assertEquals(CircuitState.CLOSED, breaker.getState(HOST));
+    }
+
+    @Test
+    public void testSingleProbeAfterOpenTime() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS);
+        breaker.recordFailure(HOST);
+        assertFalse(breaker.allowRequest(HOST));
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest(HOST));
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState(HOST));
+        // Only the one probe
+        assertFalse(breaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void testProbeSuccessCloses() throws InterruptedException {
+        final TransitionRecorder recorder = new TransitionRecorder();
+        final CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS, recorder);
+        breaker.recordFailure(HOST);
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest(HOST));
+        breaker.recordSuccess(HOST);
+        assertEquals(CircuitState.CLOSED, breaker.getState(HOST));
+        assertTrue(breaker.allowRequest(HOST));
+        assertTrue(breaker.getStates().isEmpty());
+        assertEquals(Arrays.asList("CLOSED>OPEN", "OPEN>HALF_OPEN", "HALF_OPEN>CLOSED"), recorder.transitions);
+    }
+
+    @Test
+    public void testProbeFailureReopens() throws InterruptedException {
+        final TransitionRecorder recorder = new TransitionRecorder();
+        final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, recorder);
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(HOST);
+        }
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest(HOST));
+        // A single failure of the probe is enough
+        breaker.recordFailure(HOST);
+        assertEquals(CircuitState.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+        assertEquals(Collections.singletonMap(HOST, CircuitState.OPEN), breaker.getStates());
+        assertEquals(Arrays.asList("CLOSED>OPEN", "OPEN>HALF_OPEN", "HALF_OPEN>OPEN"), recorder.transitions);
+    }
+
+    @Test
+    public void testLostProbeIsReplaced() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MILLIS);
+        breaker.recordFailure(HOST);
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest(HOST));
+        // The probe never reports back
+        Thread.sleep(OPEN_MILLIS + 20);
+        assertTrue(breaker.allowRequest(HOST));
+        assertEquals(CircuitState.HALF_OPEN, breaker.getState(HOST));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThresholdMustBePositive() {
+        new CircuitBreaker(0, OPEN_MILLIS);
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sam Adams
+ */
+public class CrawlerResponseTest {
+
+    private static final String TEXT = "caf\u00e9 \u00fcber \u4e2d\u6587 \ud83d\ude00";
+
+    private static CrawlerResponse createResponse(final byte[] body, final Header... headers) {
+        return new CrawlerResponse(URI.create("http://example.com/"), Arrays.asList(headers),
+                new ByteArrayInputStream(body), false, false);
+    }
+
+    /**
+     * Returns one byte per read, so that multi-byte characters are split
+     * across reads.
+     */
+    private static InputStream trickle(final byte[] body) {
+        return new FilterInputStream(new ByteArrayInputStream(body)) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    public void testDecodesDeclaredCharset() throws IOException {
+        final CrawlerResponse response = createResponse(TEXT.getBytes("UTF-8"),
+                new BasicHeader("Content-Type", "text/plain; charset=UTF-8"));
+        assertEquals("UTF-8", response.getCharset().name());
+        assertEquals(TEXT, response.getEntityAsString());
+    }
+
+    @Test
+    public void testDefaultsToLatin1() throws IOException {
+        final CrawlerResponse response = createResponse("caf\u00e9".getBytes("ISO-8859-1"),
+                new BasicHeader("Content-Type", "text/plain"));
+        assertEquals(CrawlerResponse.DEFAULT_CHARSET, response.getCharset());
+        assertEquals("caf\u00e9", response.getEntityAsString());
+    }
+
+    @Test
+    public void testUnsupportedCharsetFallsBackToDefault() {
+        final CrawlerResponse response = createResponse(new byte[0],
+                new BasicHeader("Content-Type", "text/plain; charset=x-no-such-charset"));
+        assertEquals(CrawlerResponse.DEFAULT_CHARSET, response.getCharset());
+    }
+
+    @Test
+    public void testDecodesCharactersSplitAcrossReads() throws IOException {
+        final Reader reader = new DecodingReader(trickle(TEXT.getBytes("UTF-8")), java.nio.charset.Charset.forName("UTF-8"));
+        final StringBuilder s = new StringBuilder();
+        final char[] buffer = new char[3];
+        for (int n; (n = reader.read(buffer)) != -1; ) {
+            s.append(buffer, 0, n);
+        }
+        reader.close();
+        assertEquals(TEXT, s.toString());
+    }
+
+    /**
+     * ASCII charset whose decoder writes a trailer when flushed, to exercise
+     * a flush that overflows the caller's buffer.
+     */
+    private static class TrailerCharset extends Charset {
+
+        private static final String TRAILER = "<end>";
+
+        TrailerCharset() {
+            super("x-trailer", new String[0]);
+        }
+
+        @Override
+        public boolean contains(final Charset cs) {
+            return false;
+        }
+
+        @Override
+        public CharsetDecoder newDecoder() {
+            return new CharsetDecoder(this, 1, 1) {
+                private int flushed;
+                @Override
+                protected CoderResult decodeLoop(final ByteBuffer in, final CharBuffer out) {
+                    while (in.hasRemaining()) {
+                        if (!out.hasRemaining()) {
+                            return CoderResult.OVERFLOW;
+                        }
+                        out.put((char) in.get());
+                    }
+                    return CoderResult.UNDERFLOW;
+                }
+                @Override
+                protected CoderResult implFlush(final CharBuffer out) {
+                    while (flushed < TRAILER.length()) {
+                        if (!out.hasRemaining()) {
+                            return CoderResult.OVERFLOW;
+                        }
+                        out.put(TRAILER.charAt(flushed++));
+                    }
+                    return CoderResult.UNDERFLOW;
+                }
+                @Override
+                protected void implReset() {
+                    flushed = 0;
+                }
+            };
+        }
+
+        @Override
+        public CharsetEncoder newEncoder() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    @Test
+    public void testFlushSpanningReads() throws IOException {
+        final Reader reader = new DecodingReader(new ByteArrayInputStream("abc".getBytes("US-ASCII")), new TrailerCharset());
+        final StringBuilder s = new StringBuilder();
+        final char[] buffer = new char[2];
+        for (int n; (n = reader.read(buffer)) != -1; ) {
+            s.append(buffer, 0, n);
+        }
+        reader.close();
+        assertEquals("abc<end>", s.toString());
+    }
+
+    @Test
+    public void testEntityAsStringMatchesCharSequence() throws IOException {
+        final byte[] body = new byte[20000];
+        Arrays.fill(body, (byte) 'x');
+        assertEquals(new String(body, "US-ASCII"), createResponse(body, new BasicHeader("Content-Length", "10")).getEntityAsString());
+    }
+
+    @Test
+    public void testGrowsBufferBeyondDeclaredLength() throws IOException {
+        final byte[] body = new byte[20000];
+        Arrays.fill(body, (byte) 'x');
+        final CrawlerResponse response = createResponse(body, new BasicHeader("Content-Length", "10"));
+        assertEquals(body.length, response.getEntityAsCharSequence().length());
+    }
+
+    @Test
+    public void testHugeDeclaredLengthIsNotPreallocated() throws IOException {
+        final List<Header> headers = new ArrayList<Header>();
+        headers.add(new BasicHeader("Content-Length", "2000000000"));
+        final CrawlerResponse response = new CrawlerResponse(URI.create("http://example.com/"), headers,
+                new ByteArrayInputStream("abc".getBytes("US-ASCII")), false, false);
+        assertEquals("abc", response.getEntityAsCharSequence().toString());
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        final CrawlerResponse response = createResponse(new byte[100000],
+                new BasicHeader("Content-Length", "2000000000"));
+        try {
+            response.getEntityAsCharSequence(1000);
+            fail();
+        } catch (EntityTooLargeException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.AggregatingRequestAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.HostSummary;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.RequestAuditor;
+import uk.ac.cam.ch.wwmm.httpcrawler.audit.SummarySink;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheCursor;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheFilter;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.HttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.MemoryHttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.FetcherMetrics;
+import uk.ac.cam.ch.wwmm.httpcrawler.metrics.MetricsRegistry;
+import uk.ac.cam.ch.wwmm.httpcrawler.sim.SimulatedWeb;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exercises the fetcher against a {@link SimulatedWeb}.
+ *
+ * @author Sam Adams
+ */
+public class DefaultHttpFetcherTest {
+
+    private static final String HOST = "www.example.com";
+
+    private SimulatedWeb web;
+    private MemoryHttpCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        web = new SimulatedWeb();
+        web.start();
+        cache = new MemoryHttpCache();
+    }
+
+    @After
+    public void tearDown() {
+        web.stop();
+    }
+
+    private HttpFetcherBuilder createBuilder() {
+        return new HttpFetcherBuilder()
+                .withProxy("127.0.0.1", web.getPort())
+                .withCache(cache);
+    }
+
+    private static CrawlerGetRequest createRequest(final String path, final Duration maxAge) {
+        final URI url = URI.create("http://" + HOST + path);
+        return new GetRequestBuilder().withKey(url.toString()).withUrl(url).withMaxAge(maxAge).build();
+    }
+
+    /**
+     * Stores an entry for path as if it had been cached the given time ago.
+     */
+    private void storeOld(final String path, final Duration age) throws IOException {
+        final URI url = URI.create("http://" + HOST + path);
+        cache.storeAll(Collections.singletonList(new CacheResponse(url.toString(), url, Collections.<Header>emptyList(),
+                new ByteArrayInputStream("old".getBytes("US-ASCII")), new DateTime().minus(age))));
+    }
+
+    private boolean waitForRefresh(final String path, final long timeoutMillis) throws Exception {
+        final DateTime start = new DateTime().minusSeconds(1);
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < end) {
+            final CacheResponse response = cache.head(new CacheRequest("http://" + HOST + path));
+            if (response.getCached().isAfter(start)) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        web.host(HOST).withLatency(200, 0.1);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder()
+                .withStaleWhileRevalidate(2, TimeUnit.HOURS)
+                .build();
+        fetcher.setRequestStepMillis(0);
+        storeOld("/stale", Duration.standardHours(2));
+
+        final CrawlerResponse stale = fetcher.execute(createRequest("/stale", Duration.standardHours(1)));
+        assertTrue(stale.isStale());
+        assertEquals("old", stale.getEntityAsString());
+
+        // Foreground fetches share the client with the refresh
+        for (int i = 0; i < 3; i++) {
+            final CrawlerResponse response = fetcher.execute(createRequest("/page/" + i, null));
+            assertFalse(response.isStale());
+            response.getEntityAsString();
+        }
+        assertTrue(waitForRefresh("/stale", 5000));
+        final CrawlerResponse fresh = fetcher.execute(createRequest("/stale", Duration.standardHours(1)));
+        assertFalse(fresh.isStale());
+        assertTrue(fresh.getEntityAsString().startsWith("/stale"));
+    }
+
+    @Test
+    public void testPerRequestStaleWhileRevalidateWithoutBuilderSetting() throws Exception {
+        web.host(HOST).withLatency(100, 0.1);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        storeOld("/stale", Duration.standardHours(2));
+        final URI url = URI.create("http://" + HOST + "/stale");
+        final CrawlerResponse stale = fetcher.execute(new GetRequestBuilder().withKey(url.toString()).withUrl(url)
+                .withMaxAge(Duration.standardHours(1)).withStaleWhileRevalidate(Duration.standardHours(2)).build());
+        assertTrue(stale.isStale());
+        fetcher.execute(createRequest("/other", null)).getEntityAsString();
+        assertTrue(waitForRefresh("/stale", 5000));
+    }
+
+    @Test
+    public void testCompressionIsOptIn() {
+        assertNull(((DefaultHttpFetcher) createBuilder().build()).getAcceptEncoding());
+        assertEquals("gzip, deflate", ((DefaultHttpFetcher) createBuilder().withCompression(true).build()).getAcceptEncoding());
+    }
+
+    @Test
+    public void testConcurrencyLimitReplacesRequestStep() throws Exception {
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder()
+                .withMaxConnectionsPerHost(2)
+                .build();
+        assertEquals(0, fetcher.getRequestStepMillis());
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            fetcher.execute(createRequest("/page/" + i, null)).getEntityAsString();
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void testFingerprintKeysKeepRequestIdForAudit() throws Exception {
+        final List<String> keys = Collections.synchronizedList(new ArrayList<String>());
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder()
+                .withFingerprintCacheKeys(true)
+                .withRequestAuditor(new RequestAuditor() {
+                    public void auditResponse(final long timestamp, final HttpHost host, final HttpRequest request,
+                                              final HttpResponse response, final HttpContext context) {
+                        keys.add(FetcherParams.getKey(context));
+                    }
+                    public void auditError(final long timestamp, final HttpHost host, final HttpRequest request,
+                                           final Throwable error, final HttpContext context) {
+                        keys.add(FetcherParams.getKey(context));
+                    }
+                })
+                .build();
+        fetcher.setRequestStepMillis(0);
+        final URI url = URI.create("http://" + HOST + "/page");
+        fetcher.execute(new GetRequestBuilder().withKey("my-id").withUrl(url).build()).getEntityAsString();
+        assertEquals(Collections.singletonList("my-id"), keys);
+        // Still cached under the fingerprint
+        assertEquals(1, cache.size());
+        assertTrue(cache.scan(new CacheFilter().withIdPrefix(DefaultHttpFetcher.FINGERPRINT_ID_PREFIX)).hasNext());
+    }
+
+    @Test
+    public void testNotFoundLeavesBackOff() throws Exception {
+        web.host("down.example.com").withErrorRate(1.0);
+        web.host(HOST).withNotFoundRate(1.0);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        try {
+            fetcher.execute(new GetRequestBuilder().withKey("down").withUrl(URI.create("http://down.example.com/")).build());
+            fail();
+        } catch (CrawlerStatusException e) {
+            assertEquals(500, e.getStatus());
+        }
+        assertEquals(1, fetcher.getBackOffSeconds());
+        try {
+            fetcher.execute(createRequest("/missing", null));
+            fail();
+        } catch (CrawlerStatusException e) {
+            assertEquals(404, e.getStatus());
+        }
+        assertEquals(1, fetcher.getBackOffSeconds());
+    }
+
+    @Test
+    public void testRedirectsKeptOutOfResponseCache() throws Exception {
+        web.host(HOST).withRedirectRate(1.0);
+        final MemoryHttpCache redirects = new MemoryHttpCache();
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder()
+                .withRedirectCaching(100, 1, 1, TimeUnit.HOURS)
+                .withRedirectStore(redirects)
+                .build();
+        fetcher.setRequestStepMillis(0);
+        final CrawlerResponse response = fetcher.execute(createRequest("/page", null));
+        assertEquals(URI.create("http://" + HOST + "/final/page"), response.getUrl());
+        response.getEntityAsString();
+        assertEquals(Collections.singletonList("http://" + HOST + "/page"), readIds(cache));
+        assertEquals(Collections.singletonList("http://" + HOST + "/page"), readIds(redirects));
+        assertEquals(URI.create("http://" + HOST + "/final/page"), fetcher.getRedirectCache().getTarget(URI.create("http://" + HOST + "/page")));
+    }
+
+    /**
+     * Returns the number of responses with status sent by the simulated
+     * host, which records them only once the client has read them.
+     */
+    private Long waitForStatusCount(final int status, final long timeoutMillis) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeoutMillis;
+        Long count = web.getStats(HOST).getStatusCounts().get(status);
+        while (count == null && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+            count = web.getStats(HOST).getStatusCounts().get(status);
+        }
+        return count;
+    }
+
+    @Test
+    public void testResumesDroppedTransfer() throws Exception {
+        web.host(HOST).withBodySize(100000).withRanges(true).withDroppedTransfers(1, 30000);
+        final MetricsRegistry registry = new MetricsRegistry();
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().withMetrics(registry).build();
+        fetcher.setRequestStepMillis(0);
+        final CrawlerResponse response = fetcher.execute(createRequest("/large", null));
+        assertEquals(new String(SimulatedWeb.createBody(web.host(HOST), "/large", 0), "US-ASCII"), response.getEntityAsString());
+        assertEquals(Long.valueOf(1), waitForStatusCount(206, 2000));
+        // The resume request is counted like any other
+        assertEquals(2, new FetcherMetrics(registry).getRequests().get());
+    }
+
+    @Test
+    public void testAuditsBytesRead() throws Exception {
+        web.host(HOST).withBodySize(100000).withRanges(true).withDroppedTransfers(1, 30000);
+        final List<HostSummary> summaries = Collections.synchronizedList(new ArrayList<HostSummary>());
+        final AggregatingRequestAuditor auditor = new AggregatingRequestAuditor(new SummarySink() {
+            public void write(final HostSummary summary) {
+                summaries.add(summary);
+            }
+        });
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().withRequestAuditor(auditor).build();
+        fetcher.setRequestStepMillis(0);
+        fetcher.execute(createRequest("/large", null)).getEntityAsString();
+        auditor.close();
+        long bytes = 0;
+        for (final HostSummary summary : summaries) {
+            bytes += summary.getBytes();
+        }
+        // Not the 170000 declared by the two responses
+        assertEquals(100000, bytes);
+    }
+
+    @Test
+    public void testRestartsTransferWhenValidatorChanges() throws Exception {
+        web.host(HOST).withBodySize(100000).withRanges(true).withChangingContent(true).withDroppedTransfers(1, 30000);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        final CrawlerResponse response = fetcher.execute(createRequest("/large", null));
+        assertEquals(new String(SimulatedWeb.createBody(web.host(HOST), "/large", 1), "US-ASCII"), response.getEntityAsString());
+        assertNull(web.getStats(HOST).getStatusCounts().get(206));
+        assertEquals(2, web.getStats(HOST).getRequests());
+    }
+
+    /**
+     * Executes a request for path, expecting it to be aborted within
+     * maxMillis.
+     */
+    private static RequestAbortedException executeAborted(final DefaultHttpFetcher fetcher, final String path,
+                                                          final DateTime deadline, final Cancellation cancellation,
+                                                          final long maxMillis) throws IOException {
+        final URI url = URI.create("http://" + HOST + path);
+        final CrawlerGetRequest request = new GetRequestBuilder().withKey(url.toString()).withUrl(url)
+                .withDeadline(deadline).withCancellation(cancellation).build();
+        final long start = System.currentTimeMillis();
+        try {
+            fetcher.execute(request).getEntityAsString();
+            fail();
+            return null;
+        } catch (RequestAbortedException e) {
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Took " + elapsed + " ms", elapsed < maxMillis);
+            return e;
+        }
+    }
+
+    private static void cancelLater(final Cancellation cancellation, final long delayMillis) {
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        timer.schedule(new Runnable() {
+            public void run() {
+                cancellation.cancel();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        timer.shutdown();
+    }
+
+    @Test
+    public void testDeadlineBeforeThrottleWaitEnds() throws Exception {
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(5000);
+        fetcher.execute(createRequest("/first", null)).getEntityAsString();
+        final RequestAbortedException e = executeAborted(fetcher, "/second", new DateTime().plusSeconds(1), null, 500);
+        assertTrue(e.isDeadlineExceeded());
+    }
+
+    @Test
+    public void testCancelDuringBackOff() throws Exception {
+        web.host(HOST).withErrorRate(1.0);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        for (int i = 0; i < 3; i++) {
+            try {
+                fetcher.execute(createRequest("/error/" + i, null));
+                fail();
+            } catch (CrawlerStatusException e) {
+                assertEquals(500, e.getStatus());
+            }
+        }
+        assertEquals(2, fetcher.getBackOffSeconds());
+        final Cancellation cancellation = new Cancellation();
+        cancelLater(cancellation, 200);
+        final RequestAbortedException e = executeAborted(fetcher, "/page", null, cancellation, 1000);
+        assertTrue(e.isCancelled());
+    }
+
+    @Test
+    public void testDeadlineStopsRetries() throws Exception {
+        web.host(HOST).withLatency(3000, 0);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        final RequestAbortedException e = executeAborted(fetcher, "/slow", new DateTime().plusMillis(500), null, 1500);
+        assertTrue(e.isDeadlineExceeded());
+        assertEquals(1, web.getStats(HOST).getRequests());
+    }
+
+    @Test
+    public void testCancelDuringRequest() throws Exception {
+        web.host(HOST).withLatency(3000, 0);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        final Cancellation cancellation = new Cancellation();
+        cancelLater(cancellation, 200);
+        final RequestAbortedException e = executeAborted(fetcher, "/slow", null, cancellation, 1000);
+        assertTrue(e.isCancelled());
+        assertEquals(1, web.getStats(HOST).getRequests());
+    }
+
+    @Test
+    public void testDeadlineDuringSlowBody() throws Exception {
+        web.host(HOST).withBodySize(20000).withSlowDrip(2000);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().build();
+        fetcher.setRequestStepMillis(0);
+        final RequestAbortedException e = executeAborted(fetcher, "/drip", new DateTime().plusMillis(500), null, 1500);
+        assertTrue(e.isDeadlineExceeded());
+    }
+
+    @Test
+    public void testDeadlineDuringBandwidthWait() throws Exception {
+        web.host(HOST).withBodySize(30000);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().withMaxBandwidth(2000).build();
+        fetcher.setRequestStepMillis(0);
+        final RequestAbortedException e = executeAborted(fetcher, "/large", new DateTime().plusMillis(1000), null, 1500);
+        assertTrue(e.isDeadlineExceeded());
+        assertEquals(1, web.getStats(HOST).getRequests());
+    }
+
+    @Test
+    public void testCancelDuringBandwidthWait() throws Exception {
+        web.host(HOST).withBodySize(30000);
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder().withMaxBandwidth(2000).build();
+        fetcher.setRequestStepMillis(0);
+        final Cancellation cancellation = new Cancellation();
+        cancelLater(cancellation, 300);
+        final RequestAbortedException e = executeAborted(fetcher, "/large", null, cancellation, 1500);
+        assertTrue(e.isCancelled());
+    }
+
+    private static List<String> readIds(final MemoryHttpCache cache) throws IOException {
+        final List<String> ids = new ArrayList<String>();
+        final CacheCursor cursor = cache.scan(new CacheFilter());
+        try {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().getId());
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRedirectStoreMustNotBeResponseCache() {
+        createBuilder().withRedirectCaching(100, 1, 1, TimeUnit.HOURS).withRedirectStore(cache).build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeCachingNeedsFailureSupport() {
+        new HttpFetcherBuilder()
+                .withCache(new HttpCache() {
+                    public CacheResponse get(final CacheRequest request) {
+                        return null;
+                    }
+                    public void store(final String id, final URI url, final List<Header> headers, final byte[] bytes) {
+                    }
+                })
+                .withNegativeCaching(404, 1, TimeUnit.HOURS)
+                .build();
+    }
+
+    @Test
+    public void testRejectedRefreshIsRetried() throws Exception {
+        final DefaultHttpFetcher fetcher = (DefaultHttpFetcher) createBuilder()
+                .withStaleWhileRevalidate(2, TimeUnit.HOURS)
+                .build();
+        fetcher.setRequestStepMillis(0);
+        storeOld("/stale", Duration.standardHours(2));
+
+        final ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        fetcher.setRefreshExecutor(rejecting);
+        assertTrue(fetcher.execute(createRequest("/stale", Duration.standardHours(1))).isStale());
+        assertFalse(waitForRefresh("/stale", 200));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            fetcher.setRefreshExecutor(executor);
+            assertTrue(fetcher.execute(createRequest("/stale", Duration.standardHours(1))).isStale());
+            assertTrue(waitForRefresh("/stale", 5000));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Sam Adams
+ */
+public class EntitySpoolTest {
+
+    private static byte[] createBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertContent(final byte[] expected, final EntitySpool spool) throws IOException {
+        assertEquals(expected.length, spool.getOffset());
+        assertArrayEquals(expected, spool.toByteArray());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+        final InputStream in = spool.openStream();
+        try {
+            assertArrayEquals(expected, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        final byte[] bytes = createBytes(1000);
+        final EntitySpool spool = new EntitySpool(bytes.length, 4096);
+        try {
+            spool.read(new ByteArrayInputStream(bytes));
+            assertContent(bytes, spool);
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void testExpectedLarge() throws IOException {
+        final byte[] bytes = createBytes(100000);
+        final EntitySpool spool = new EntitySpool(bytes.length, 4096);
+        try {
+            spool.read(new ByteArrayInputStream(bytes));
+            assertContent(bytes, spool);
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void testSpillsUnknownLength() throws IOException {
+        final byte[] bytes = createBytes(100000);
+        final EntitySpool spool = new EntitySpool(-1, 4096);
+        try {
+            spool.read(new ByteArrayInputStream(bytes, 0, 3000));
+            spool.read(new ByteArrayInputStream(bytes, 3000, bytes.length - 3000));
+            assertContent(bytes, spool);
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        final byte[] bytes = createBytes(100000);
+        final EntitySpool spool = new EntitySpool(bytes.length, 4096);
+        try {
+            spool.read(new ByteArrayInputStream(createBytes(5000)));
+            spool.reset();
+            assertEquals(0, spool.getOffset());
+            spool.read(new ByteArrayInputStream(bytes));
+            assertContent(bytes, spool);
+        } finally {
+            spool.close();
+        }
+    }
+
+}
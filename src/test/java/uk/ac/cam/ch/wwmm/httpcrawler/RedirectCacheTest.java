@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.Header;
+import org.joda.time.Duration;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.AbstractHttpCache;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.MemoryHttpCache;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Sam Adams
+ */
+public class RedirectCacheTest {
+
+    private static final URI SOURCE = URI.create("http://example.com/a");
+    private static final URI TARGET = URI.create("http://www.example.com/a");
+
+    private static final Duration HOUR = Duration.standardHours(1);
+
+    /**
+     * Counts lookups of cached redirects.
+     */
+    private static class CountingCache extends MemoryHttpCache {
+
+        private final AtomicInteger heads = new AtomicInteger();
+
+        @Override
+        public CacheResponse head(final CacheRequest request) throws IOException {
+            heads.incrementAndGet();
+            return super.head(request);
+        }
+    }
+
+    @Test
+    public void testPutAndGet() {
+        final RedirectCache redirects = new RedirectCache(null, 100, HOUR, HOUR);
+        assertNull(redirects.getTarget(SOURCE));
+        redirects.put(SOURCE, 301, TARGET);
+        assertEquals(TARGET, redirects.getTarget(SOURCE));
+    }
+
+    @Test
+    public void testIgnoresOtherStatuses() {
+        final RedirectCache redirects = new RedirectCache(null, 100, HOUR, HOUR);
+        redirects.put(SOURCE, 200, TARGET);
+        assertNull(redirects.getTarget(SOURCE));
+    }
+
+    @Test
+    public void testUncachedRedirectType() {
+        final RedirectCache redirects = new RedirectCache(null, 100, HOUR, null);
+        redirects.put(SOURCE, 302, TARGET);
+        assertNull(redirects.getTarget(SOURCE));
+        redirects.put(SOURCE, 301, TARGET);
+        assertEquals(TARGET, redirects.getTarget(SOURCE));
+    }
+
+    @Test
+    public void testLoadsFromBackingCache() {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        new RedirectCache(cache, 100, HOUR, HOUR).put(SOURCE, 301, TARGET);
+        assertEquals(TARGET, new RedirectCache(cache, 100, HOUR, HOUR).getTarget(SOURCE));
+    }
+
+    @Test
+    public void testExpiredMappingInBackingCacheIgnored() {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        new RedirectCache(cache, 100, Duration.ZERO, Duration.ZERO).put(SOURCE, 301, TARGET);
+        final RedirectCache redirects = new RedirectCache(cache, 100, new Duration(-1), new Duration(-1));
+        assertNull(redirects.getTarget(SOURCE));
+    }
+
+    @Test
+    public void testMissesAreRemembered() {
+        final CountingCache cache = new CountingCache();
+        final RedirectCache redirects = new RedirectCache(cache, 100, HOUR, HOUR);
+        for (int i = 0; i < 10; i++) {
+            assertNull(redirects.getTarget(SOURCE));
+        }
+        assertEquals(1, cache.heads.get());
+        redirects.put(SOURCE, 301, TARGET);
+        assertEquals(TARGET, redirects.getTarget(SOURCE));
+        assertEquals(1, cache.heads.get());
+    }
+
+    @Test
+    public void testMissesNotRememberedWithoutTtl() {
+        final CountingCache cache = new CountingCache();
+        final RedirectCache redirects = new RedirectCache(cache, 100, HOUR, HOUR);
+        redirects.setMissTtl(null);
+        assertNull(redirects.getTarget(SOURCE));
+        assertNull(redirects.getTarget(SOURCE));
+        assertEquals(2, cache.heads.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsStoreThatCannotRecordRedirects() {
+        new RedirectCache(new AbstractHttpCache() {
+            public CacheResponse get(final CacheRequest request) {
+                return null;
+            }
+            public void store(final String id, final URI url, final List<Header> headers, final byte[] bytes) {
+            }
+        }, 100, HOUR, HOUR);
+    }
+
+    @Test
+    public void testRemoveIsNotUndoneByBackingCache() {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        final RedirectCache redirects = new RedirectCache(cache, 100, HOUR, HOUR);
+        redirects.put(SOURCE, 301, TARGET);
+        redirects.remove(SOURCE);
+        assertNull(redirects.getTarget(SOURCE));
+    }
+
+}
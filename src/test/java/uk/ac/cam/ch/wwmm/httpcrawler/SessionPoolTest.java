@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class SessionPoolTest {
+
+    private static final HttpHost A = new HttpHost("a.example.com");
+    private static final HttpHost B = new HttpHost("b.example.com");
+    private static final HttpHost C = new HttpHost("c.example.com");
+
+    private static CookieStore getCookieStore(final HttpContext context) {
+        return (CookieStore) context.getAttribute(ClientContext.COOKIE_STORE);
+    }
+
+    private static void addCookie(final HttpContext context, final String name) {
+        final BasicClientCookie cookie = new BasicClientCookie(name, "1");
+        cookie.setDomain("example.com");
+        cookie.setPath("/");
+        getCookieStore(context).addCookie(cookie);
+    }
+
+    @Test
+    public void testCookiesKeptPerHost() {
+        final SessionPool pool = new SessionPool(10, 1, TimeUnit.HOURS);
+        addCookie(pool.createContext(A), "session");
+        assertTrue(getCookieStore(pool.createContext(B)).getCookies().isEmpty());
+        final CookieStore cookies = getCookieStore(pool.createContext(A));
+        assertEquals(1, cookies.getCookies().size());
+        assertEquals("session", cookies.getCookies().get(0).getName());
+        assertSame(cookies, pool.getCookieStore(A));
+    }
+
+    @Test
+    public void testIdleSessionExpires() throws InterruptedException {
+        final SessionPool pool = new SessionPool(10, 50, TimeUnit.MILLISECONDS);
+        addCookie(pool.createContext(A), "session");
+        Thread.sleep(100);
+        assertTrue(getCookieStore(pool.createContext(A)).getCookies().isEmpty());
+    }
+
+    @Test
+    public void testReleaseKeepsSessionAlive() throws InterruptedException {
+        final SessionPool pool = new SessionPool(10, 200, TimeUnit.MILLISECONDS);
+        final HttpContext context = pool.createContext(A);
+        addCookie(context, "session");
+        Thread.sleep(150);
+        pool.release(A, context);
+        Thread.sleep(150);
+        assertEquals(1, getCookieStore(pool.createContext(A)).getCookies().size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSessionDropped() {
+        final SessionPool pool = new SessionPool(2, 1, TimeUnit.HOURS);
+        pool.createContext(A);
+        pool.createContext(B);
+        pool.createContext(A);
+        pool.createContext(C);
+        assertEquals(2, pool.size());
+        assertNotNull(pool.getCookieStore(A));
+        assertNull(pool.getCookieStore(B));
+        assertNotNull(pool.getCookieStore(C));
+    }
+
+    @Test
+    public void testUserTokenCopiedBackOnRelease() {
+        final SessionPool pool = new SessionPool(10, 1, TimeUnit.HOURS);
+        final HttpContext first = pool.createContext(A);
+        final HttpContext second = pool.createContext(A);
+        assertNull(first.getAttribute(ClientContext.USER_TOKEN));
+        first.setAttribute(ClientContext.USER_TOKEN, "token");
+        // Not shared with a concurrent request until released
+        assertNull(second.getAttribute(ClientContext.USER_TOKEN));
+        pool.release(A, first);
+        assertEquals("token", pool.createContext(A).getAttribute(ClientContext.USER_TOKEN));
+        assertNull(pool.createContext(B).getAttribute(ClientContext.USER_TOKEN));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final SessionPool pool = new SessionPool(10, 1, TimeUnit.HOURS);
+        addCookie(pool.createContext(A), "session");
+        pool.invalidate(A);
+        assertNull(pool.getCookieStore(A));
+        assertTrue(getCookieStore(pool.createContext(A)).getCookies().isEmpty());
+    }
+
+}
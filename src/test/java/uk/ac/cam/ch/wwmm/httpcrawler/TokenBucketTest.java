@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstUpToCapacity() {
+        final TokenBucket bucket = new TokenBucket(1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.reserve(1, 0));
+        }
+        assertEquals(-1, bucket.reserve(1, 0));
+    }
+
+    @Test
+    public void testDebtIsRepaidInOrder() {
+        final TokenBucket bucket = new TokenBucket(10, 10);
+        assertEquals(0, bucket.reserve(10, 0));
+        // Each reservation queues behind the last
+        final long first = bucket.reserve(10, Long.MAX_VALUE);
+        final long second = bucket.reserve(10, Long.MAX_VALUE);
+        assertTrue(first > SECOND * 9 / 10 && first <= SECOND);
+        assertTrue(second > SECOND * 19 / 10 && second <= 2 * SECOND);
+    }
+
+    @Test
+    public void testRefusedReservationTakesNothing() {
+        final TokenBucket bucket = new TokenBucket(10, 10);
+        assertEquals(0, bucket.reserve(10, 0));
+        assertEquals(-1, bucket.reserve(100, SECOND));
+        final long wait = bucket.reserve(5, SECOND);
+        assertTrue(wait > SECOND * 4 / 10 && wait <= SECOND / 2);
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        final TokenBucket bucket = new TokenBucket(100, 10);
+        assertEquals(0, bucket.reserve(10, 0));
+        Thread.sleep(150);
+        // Refills up to capacity, no further
+        assertEquals(0, bucket.reserve(10, 0));
+        assertEquals(-1, bucket.reserve(5, 0));
+    }
+
+    @Test
+    public void testAcquireWaits() throws Exception {
+        final TokenBucket bucket = new TokenBucket(20, 1);
+        bucket.acquire(1);
+        final long start = System.nanoTime();
+        bucket.acquire(2);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRateMustBePositive() {
+        new TokenBucket(0, 1);
+    }
+
+}
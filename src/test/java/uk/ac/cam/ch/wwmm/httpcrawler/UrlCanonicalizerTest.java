@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Sam Adams
+ */
+public class UrlCanonicalizerTest {
+
+    private static void assertCanonical(final String expected, final String url) {
+        assertEquals(expected, UrlCanonicalizer.canonicalize(URI.create(url)));
+    }
+
+    @Test
+    public void testSchemeAndHostLowerCased() {
+        assertCanonical("http://www.example.com/Path", "HTTP://WWW.Example.COM/Path");
+    }
+
+    @Test
+    public void testTrailingDotRemovedFromHost() {
+        assertCanonical("http://www.example.com/", "http://www.example.com./");
+    }
+
+    @Test
+    public void testDefaultPortRemoved() {
+        assertCanonical("http://www.example.com/", "http://www.example.com:80/");
+        assertCanonical("https://www.example.com/", "https://www.example.com:443/");
+        assertCanonical("http://www.example.com:8080/", "http://www.example.com:8080/");
+        assertCanonical("https://www.example.com:80/", "https://www.example.com:80/");
+    }
+
+    @Test
+    public void testEmptyPath() {
+        assertCanonical("http://www.example.com/", "http://www.example.com");
+    }
+
+    @Test
+    public void testFragmentRemoved() {
+        assertCanonical("http://www.example.com/a", "http://www.example.com/a#top");
+    }
+
+    @Test
+    public void testUserInfoKept() {
+        assertCanonical("http://user@www.example.com/", "http://user@WWW.EXAMPLE.COM/");
+    }
+
+    @Test
+    public void testDotSegments() {
+        assertCanonical("http://www.example.com/a/c", "http://www.example.com/a/./b/../c");
+        assertCanonical("http://www.example.com/a/", "http://www.example.com/a/b/..");
+        assertCanonical("http://www.example.com/a/", "http://www.example.com/a/.");
+        assertCanonical("http://www.example.com/a", "http://www.example.com/../../a");
+    }
+
+    @Test
+    public void testEscapes() {
+        assertCanonical("http://www.example.com/a~b%2F", "http://www.example.com/a%7Eb%2f");
+        assertCanonical("http://www.example.com/?q=a-b%20c", "http://www.example.com/?q=a%2db%20c");
+        assertCanonical("http://www.example.com/%C3%A9", "http://www.example.com/%c3%a9");
+    }
+
+    @Test
+    public void testQuerySorted() {
+        assertCanonical("http://www.example.com/?a=1&b=2&c", "http://www.example.com/?c&b=2&a=1");
+    }
+
+    @Test
+    public void testRepeatedParametersKeepOrder() {
+        assertCanonical("http://www.example.com/?a=2&a=1&b=1", "http://www.example.com/?b=1&a=2&a=1");
+    }
+
+    @Test
+    public void testEmptyQueryRemoved() {
+        assertCanonical("http://www.example.com/", "http://www.example.com/?");
+        assertCanonical("http://www.example.com/?a", "http://www.example.com/?&a&");
+    }
+
+    @Test
+    public void testOpaqueAndRelativeUnchanged() {
+        assertCanonical("mailto:Someone@Example.COM", "mailto:Someone@Example.COM");
+        assertCanonical("/a/../b", "/a/../b");
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class UrlFingerprintTest {
+
+    private static long[] murmur3(final String s) throws Exception {
+        return UrlFingerprint.murmur3(s.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testMurmur3KnownValues() throws Exception {
+        assertArrayEquals(new long[] {0, 0}, murmur3(""));
+        assertArrayEquals(new long[] {0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L}, murmur3("hello"));
+        assertArrayEquals(new long[] {0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L},
+                murmur3("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void testMurmur3EveryTailLength() throws Exception {
+        // Each tail length hashes differently from the next
+        final StringBuilder s = new StringBuilder();
+        long[] previous = murmur3("");
+        for (int i = 0; i < 40; i++) {
+            s.append((char) ('a' + i % 26));
+            final long[] h = murmur3(s.toString());
+            assertFalse(h[0] == previous[0] && h[1] == previous[1]);
+            previous = h;
+        }
+    }
+
+    @Test
+    public void testEquivalentUrlsShareFingerprint() {
+        final URI a = URI.create("HTTP://www.Example.com:80/a/./b?y=2&x=1#frag");
+        final URI b = URI.create("http://www.example.com/a/b?x=1&y=2");
+        assertEquals(UrlFingerprint.toHex(a), UrlFingerprint.toHex(b));
+        assertEquals(UrlFingerprint.fingerprint64(a), UrlFingerprint.fingerprint64(b));
+        assertFalse(UrlFingerprint.toHex(a).equals(UrlFingerprint.toHex(URI.create("http://www.example.com/a/c"))));
+    }
+
+    @Test
+    public void testHex() {
+        final URI url = URI.create("http://www.example.com/");
+        final String hex = UrlFingerprint.toHex(url);
+        assertEquals(32, hex.length());
+        assertTrue(hex.matches("[0-9a-f]{32}"));
+        assertEquals(UrlFingerprint.toHex(UrlFingerprint.fingerprint64(url)), hex.substring(0, 16));
+        assertEquals("00000000000000ff", UrlFingerprint.toHex(0xffL));
+        assertEquals("ffffffffffffffff", UrlFingerprint.toHex(-1L));
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class AggregatingRequestAuditorTest {
+
+    private static final HttpHost HOST = new HttpHost("www.example.com");
+
+    private static class CollectingSink implements SummarySink {
+
+        private final List<HostSummary> summaries = Collections.synchronizedList(new ArrayList<HostSummary>());
+
+        public void write(final HostSummary summary) {
+            summaries.add(summary);
+        }
+    }
+
+    private static void auditResponse(final AggregatingRequestAuditor auditor, final long start, final int status) {
+        auditor.auditResponse(start, HOST, new HttpGet("http://www.example.com/"),
+                new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null), new BasicHttpContext());
+    }
+
+    @Test
+    public void testBucketBounds() {
+        int previous = -1;
+        for (long v = 0; v < 1L << 30; v = v < 1000 ? v + 1 : v + v / 97) {
+            final int bucket = AggregatingRequestAuditor.getBucket(v);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+            final long limit = AggregatingRequestAuditor.getBucketLimit(bucket);
+            assertTrue("value " + v + " above limit " + limit, v <= limit);
+            assertTrue("value " + v + " in bucket " + bucket, bucket == 0 || v > AggregatingRequestAuditor.getBucketLimit(bucket - 1));
+            assertTrue("limit " + limit + " too far above " + v, limit - v <= v / 8);
+        }
+    }
+
+    @Test
+    public void testExactBuckets() {
+        for (int v = 0; v < 16; v++) {
+            assertEquals(v, AggregatingRequestAuditor.getBucket(v));
+            assertEquals(v, AggregatingRequestAuditor.getBucketLimit(v));
+        }
+        assertEquals(0, AggregatingRequestAuditor.getBucket(-5));
+    }
+
+    @Test
+    public void testOverflowBucket() {
+        final int last = AggregatingRequestAuditor.getBucket(Long.MAX_VALUE);
+        assertEquals(last, AggregatingRequestAuditor.getBucket(1L << 40));
+        assertEquals(last, AggregatingRequestAuditor.getBucket(1L << 30));
+        assertEquals(last - 1, AggregatingRequestAuditor.getBucket((1L << 30) - 1));
+        assertEquals((1L << 30) - 1, AggregatingRequestAuditor.getBucketLimit(last - 1));
+        assertEquals(Long.MAX_VALUE, AggregatingRequestAuditor.getBucketLimit(last));
+    }
+
+    @Test
+    public void testSummary() {
+        final CollectingSink sink = new CollectingSink();
+        final AggregatingRequestAuditor auditor = new AggregatingRequestAuditor(sink);
+        final long now = System.currentTimeMillis();
+        auditResponse(auditor, now, 200);
+        auditResponse(auditor, now, 200);
+        auditResponse(auditor, now, 404);
+        auditor.auditError(now, HOST, new HttpGet("http://www.example.com/"), new IOException(), new BasicHttpContext());
+        auditor.auditCircuitChange(now, HOST, CircuitState.CLOSED, CircuitState.OPEN);
+        auditor.auditTransfer(now, HOST, 1500);
+        auditor.auditTransfer(now, HOST, 500);
+        auditor.close();
+        long responses = 0;
+        long errors = 0;
+        long opens = 0;
+        long bytes = 0;
+        for (final HostSummary summary : sink.summaries) {
+            responses += summary.getResponseCount();
+            errors += summary.getErrorCount();
+            opens += summary.getCircuitOpens();
+            bytes += summary.getBytes();
+        }
+        assertEquals(3, responses);
+        assertEquals(1, errors);
+        assertEquals(1, opens);
+        assertEquals(2000, bytes);
+    }
+
+    @Test
+    public void testLateExchangeDoesNotReopenWindow() throws Exception {
+        final CollectingSink sink = new CollectingSink();
+        final AggregatingRequestAuditor auditor = new AggregatingRequestAuditor(sink, 100);
+        // Both exchanges started in the same, long past, window
+        final long start = System.currentTimeMillis() - 10000;
+        auditResponse(auditor, start, 200);
+        final long end = System.currentTimeMillis() + 5000;
+        while (sink.summaries.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, sink.summaries.size());
+        auditResponse(auditor, start, 200);
+        auditor.close();
+        assertEquals(2, sink.summaries.size());
+        final Set<Long> starts = new HashSet<Long>();
+        for (final HostSummary summary : sink.summaries) {
+            assertTrue(starts.add(summary.getWindowStart().getMillis()));
+            assertTrue(summary.getLatencyPercentiles()[0] >= 10000);
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.audit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.CircuitState;
+import uk.ac.cam.ch.wwmm.httpcrawler.FetcherParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes records with {@link FileRequestAuditor} and reads them back with
+ * {@link AuditLogReader}.
+ *
+ * @author Sam Adams
+ */
+public class FileRequestAuditorTest {
+
+    private static final HttpHost HOST = new HttpHost("www.example.com");
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("audit", "");
+        FileUtils.forceDelete(directory);
+        FileUtils.forceMkdir(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static HttpContext createContext(final String key) {
+        final HttpContext context = new BasicHttpContext();
+        FetcherParams.setKey(context, key);
+        return context;
+    }
+
+    private static HttpGet createRequest(final String path) {
+        final HttpGet request = new HttpGet("http://www.example.com" + path);
+        request.setHeader("User-Agent", "test");
+        return request;
+    }
+
+    private static HttpResponse createResponse(final int status, final String reason) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, reason);
+    }
+
+    private List<File> listSegments() {
+        final File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private List<AuditRecord> readAll() throws IOException {
+        final List<AuditRecord> records = new ArrayList<AuditRecord>();
+        for (final File file : listSegments()) {
+            final AuditLogReader reader = new AuditLogReader(file);
+            try {
+                for (AuditRecord record = reader.next(); record != null; record = reader.next()) {
+                    records.add(record);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test");
+        auditor.auditResponse(1000, HOST, createRequest("/a"), createResponse(200, "OK"), createContext("key-a"));
+        auditor.auditError(2000, HOST, createRequest("/b"),
+                new IOException("failed", new SocketTimeoutException("timed out")), createContext(null));
+        auditor.auditCircuitChange(3000, HOST, CircuitState.CLOSED, CircuitState.OPEN);
+        auditor.close();
+
+        final List<AuditRecord> records = readAll();
+        assertEquals(3, records.size());
+
+        final AuditRecord response = records.get(0);
+        assertEquals(FileRequestAuditor.RESPONSE, response.getType());
+        assertEquals(1000, response.getTimestamp());
+        assertEquals("key-a", response.getKey());
+        assertEquals("http://www.example.com", response.getHost());
+        assertEquals("GET", response.getMethod());
+        assertEquals("http://www.example.com/a", response.getUrl());
+        assertEquals(1, response.getHeaders().size());
+        assertEquals("User-Agent", response.getHeaders().get(0).getName());
+        assertEquals("test", response.getHeaders().get(0).getValue());
+        assertEquals(200, response.getStatus());
+        assertEquals("OK", response.getMessage());
+
+        final AuditRecord error = records.get(1);
+        assertEquals(FileRequestAuditor.ERROR, error.getType());
+        assertNull(error.getKey());
+        assertEquals("java.io.IOException", error.getError());
+        assertEquals("failed", error.getMessage());
+        assertEquals("java.net.SocketTimeoutException: timed out", error.getCause());
+
+        final AuditRecord circuit = records.get(2);
+        assertEquals(FileRequestAuditor.CIRCUIT, circuit.getType());
+        assertEquals("CLOSED", circuit.getError());
+        assertEquals("OPEN", circuit.getMessage());
+    }
+
+    @Test
+    public void testStrings() throws IOException {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test");
+        final String unicode = "caf\u00e9 \u2603 \ud83d\ude00";
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            s.append('\u00e9');
+        }
+        auditor.auditResponse(1000, HOST, createRequest("/a"), createResponse(200, unicode), createContext(s.toString()));
+        auditor.auditResponse(1000, HOST, createRequest("/b"), createResponse(200, null), createContext("b"));
+        auditor.close();
+
+        final List<AuditRecord> records = readAll();
+        assertEquals(unicode, records.get(0).getMessage());
+        // Truncated at a character boundary
+        assertEquals(s.substring(0, 32767), records.get(0).getKey());
+        assertNull(records.get(1).getMessage());
+    }
+
+    @Test
+    public void testBufferOverflow() throws IOException {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test");
+        for (int i = 0; i < 5000; i++) {
+            auditor.auditResponse(i, HOST, createRequest("/" + i), createResponse(200, "OK"), createContext("key-" + i));
+        }
+        auditor.close();
+        final List<AuditRecord> records = readAll();
+        assertEquals(5000, records.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("key-" + i, records.get(i).getKey());
+        }
+    }
+
+    @Test
+    public void testScheduledFlush() throws Exception {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test",
+                FileRequestAuditor.DEFAULT_MAX_FILE_SIZE, FileRequestAuditor.DEFAULT_MAX_FILE_AGE, 100, false);
+        try {
+            // An old timestamp must not hold back the flush
+            auditor.auditResponse(1000, HOST, createRequest("/a"), createResponse(200, "OK"), createContext("a"));
+            auditor.auditResponse(1000, HOST, createRequest("/b"), createResponse(200, "OK"), createContext("b"));
+            final long end = System.currentTimeMillis() + 2000;
+            while (auditor.getBufferedBytes() > 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, auditor.getBufferedBytes());
+            assertEquals(2, readAll().size());
+        } finally {
+            auditor.close();
+        }
+    }
+
+    @Test
+    public void testWrittenInBackground() throws Exception {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test",
+                FileRequestAuditor.DEFAULT_MAX_FILE_SIZE, FileRequestAuditor.DEFAULT_MAX_FILE_AGE, 50, false);
+        try {
+            // Fills several buffers, so some are handed off while others are written
+            for (int i = 0; i < 5000; i++) {
+                auditor.auditResponse(i, HOST, createRequest("/" + i), createResponse(200, "OK"), createContext("key-" + i));
+            }
+            final long end = System.currentTimeMillis() + 2000;
+            while (auditor.getBufferedBytes() > 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, auditor.getBufferedBytes());
+            final List<AuditRecord> records = readAll();
+            assertEquals(5000, records.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals("key-" + i, records.get(i).getKey());
+            }
+        } finally {
+            auditor.close();
+        }
+    }
+
+    @Test
+    public void testAuditAfterCloseDropped() throws IOException {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test");
+        auditor.auditResponse(1000, HOST, createRequest("/a"), createResponse(200, "OK"), createContext("a"));
+        auditor.close();
+        auditor.auditResponse(2000, HOST, createRequest("/b"), createResponse(200, "OK"), createContext("b"));
+        auditor.auditError(2000, HOST, createRequest("/c"), new IOException("failed"), createContext("c"));
+        auditor.auditCircuitChange(2000, HOST, CircuitState.CLOSED, CircuitState.OPEN);
+        assertEquals(0, auditor.getBufferedBytes());
+        auditor.close();
+        final List<AuditRecord> records = readAll();
+        assertEquals(1, records.size());
+        assertEquals("a", records.get(0).getKey());
+    }
+
+    @Test
+    public void testRotateBySize() throws IOException {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test", 100, FileRequestAuditor.DEFAULT_MAX_FILE_AGE,
+                FileRequestAuditor.DEFAULT_FLUSH_INTERVAL, false);
+        for (int i = 0; i < 3; i++) {
+            auditor.auditResponse(i, HOST, createRequest("/" + i), createResponse(200, "OK"), createContext("key-" + i));
+            auditor.flush();
+            sleepQuietly(5);
+        }
+        auditor.close();
+        assertEquals(3, listSegments().size());
+        assertEquals(3, readAll().size());
+    }
+
+    @Test
+    public void testIdleSegmentRotatedAndCompressed() throws Exception {
+        final FileRequestAuditor auditor = new FileRequestAuditor(directory, "test",
+                FileRequestAuditor.DEFAULT_MAX_FILE_SIZE, 200, 50, true);
+        try {
+            auditor.auditResponse(1000, HOST, createRequest("/a"), createResponse(200, "OK"), createContext("a"));
+            auditor.flush();
+            final long end = System.currentTimeMillis() + 5000;
+            while (!hasCompressedSegment() && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            assertTrue(hasCompressedSegment());
+        } finally {
+            auditor.close();
+        }
+        assertEquals(1, readAll().size());
+    }
+
+    /**
+     * Returns whether a segment has been compressed, and its uncompressed
+     * copy deleted, leaving only the current segment uncompressed.
+     */
+    private boolean hasCompressedSegment() {
+        int compressed = 0;
+        int uncompressed = 0;
+        for (final File file : directory.listFiles()) {
+            if (file.getName().endsWith(FileRequestAuditor.SUFFIX + ".gz")) {
+                compressed++;
+            } else if (file.getName().endsWith(FileRequestAuditor.SUFFIX)) {
+                uncompressed++;
+            }
+        }
+        return compressed > 0 && uncompressed == 1;
+    }
+
+    private static void sleepQuietly(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
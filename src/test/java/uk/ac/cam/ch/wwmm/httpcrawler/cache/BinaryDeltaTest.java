@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sam Adams
+ */
+public class BinaryDeltaTest {
+
+    private static byte[] createBytes(final Random random, final int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] roundTrip(final byte[] source, final byte[] target) throws IOException {
+        final byte[] delta = BinaryDelta.create(source, target);
+        assertArrayEquals(target, BinaryDelta.apply(source, delta));
+        return delta;
+    }
+
+    @Test
+    public void testIdentical() throws IOException {
+        final byte[] source = createBytes(new Random(1), 10000);
+        final byte[] delta = roundTrip(source, source.clone());
+        assertTrue(delta.length < 10);
+    }
+
+    @Test
+    public void testSmallEdit() throws IOException {
+        final byte[] source = createBytes(new Random(2), 10000);
+        final byte[] target = source.clone();
+        target[5000] ^= 1;
+        final byte[] delta = roundTrip(source, target);
+        assertTrue(delta.length < 20);
+    }
+
+    @Test
+    public void testInsertionAndDeletion() throws IOException {
+        final Random random = new Random(3);
+        final byte[] source = createBytes(random, 10000);
+        final byte[] inserted = createBytes(random, 100);
+        final byte[] target = new byte[source.length + inserted.length - 500];
+        // source[0..3000) + inserted + source[3500..)
+        System.arraycopy(source, 0, target, 0, 3000);
+        System.arraycopy(inserted, 0, target, 3000, inserted.length);
+        System.arraycopy(source, 3500, target, 3000 + inserted.length, source.length - 3500);
+        final byte[] delta = roundTrip(source, target);
+        assertTrue(delta.length < 150);
+    }
+
+    @Test
+    public void testMovedBlocks() throws IOException {
+        final byte[] source = createBytes(new Random(4), 4000);
+        final byte[] target = new byte[source.length];
+        System.arraycopy(source, 2000, target, 0, 2000);
+        System.arraycopy(source, 0, target, 2000, 2000);
+        assertTrue(roundTrip(source, target).length < 20);
+    }
+
+    @Test
+    public void testUnrelated() throws IOException {
+        final Random random = new Random(5);
+        roundTrip(createBytes(random, 1000), createBytes(random, 2000));
+    }
+
+    @Test
+    public void testEmptyAndShort() throws IOException {
+        final byte[] empty = new byte[0];
+        final byte[] shortBytes = {1, 2, 3};
+        final byte[] block = createBytes(new Random(6), BinaryDelta.BLOCK);
+        roundTrip(empty, empty);
+        roundTrip(empty, shortBytes);
+        roundTrip(shortBytes, empty);
+        roundTrip(shortBytes, shortBytes);
+        roundTrip(block, block);
+        roundTrip(block, Arrays.copyOf(block, BinaryDelta.BLOCK - 1));
+    }
+
+    @Test
+    public void testRepetitiveContent() throws IOException {
+        final byte[] source = new byte[5000];
+        Arrays.fill(source, (byte) 'a');
+        final byte[] target = new byte[6000];
+        Arrays.fill(target, (byte) 'a');
+        target[3000] = 'b';
+        roundTrip(source, target);
+    }
+
+    @Test
+    public void testBadDeltas() {
+        final byte[] source = createBytes(new Random(7), 100);
+        final byte[][] deltas = {
+                {},
+                // target length 10, literal of 20
+                {10, 40},
+                // target length 5, literal of 5 truncated
+                {5, 10, 1, 2},
+                // target length 10, copy of 10 from offset 95
+                {10, 21, 95},
+                // target length 10, copy of 10 from a negative offset
+                {10, 21, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1},
+                // target length 10, only 5 bytes
+                {10, 10, 1, 2, 3, 4, 5},
+                // unterminated varint
+                {-1},
+        };
+        for (final byte[] delta : deltas) {
+            try {
+                BinaryDelta.apply(source, delta);
+                fail("Accepted " + Arrays.toString(delta));
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Sam Adams
+ */
+public class ContentEncodingTest {
+
+    private static final byte[] TEXT;
+    static {
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            s.append("line ").append(i).append('\n');
+        }
+        try {
+            TEXT = s.toString().getBytes("US-ASCII");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(bytes);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] bytes, final int level, final boolean raw) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(buffer, new Deflater(level, raw));
+        out.write(bytes);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    @Test
+    public void testNormalise() {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.normalise("gzip"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.normalise(" X-GZIP "));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.normalise("Deflate"));
+        assertNull(ContentEncoding.normalise("identity"));
+        assertNull(ContentEncoding.normalise("br"));
+        assertNull(ContentEncoding.normalise(""));
+        assertNull(ContentEncoding.normalise(null));
+    }
+
+    @Test
+    public void testDecodeIdentity() throws IOException {
+        assertArrayEquals(TEXT, ContentEncoding.decode(null, TEXT));
+    }
+
+    @Test
+    public void testDecodeGzip() throws IOException {
+        assertArrayEquals(TEXT, ContentEncoding.decode(ContentEncoding.GZIP, gzip(TEXT)));
+    }
+
+    @Test
+    public void testDecodeZlibDeflate() throws IOException {
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            assertArrayEquals("level " + level, TEXT,
+                    ContentEncoding.decode(ContentEncoding.DEFLATE, deflate(TEXT, level, false)));
+        }
+    }
+
+    @Test
+    public void testDecodeRawDeflate() throws IOException {
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            assertArrayEquals("level " + level, TEXT,
+                    ContentEncoding.decode(ContentEncoding.DEFLATE, deflate(TEXT, level, true)));
+        }
+    }
+
+    @Test
+    public void testDecodeEmptyDeflate() throws IOException {
+        assertArrayEquals(new byte[0], ContentEncoding.decode(ContentEncoding.DEFLATE, deflate(new byte[0], Deflater.DEFAULT_COMPRESSION, false)));
+        assertArrayEquals(new byte[0], ContentEncoding.decode(ContentEncoding.DEFLATE, deflate(new byte[0], Deflater.DEFAULT_COMPRESSION, true)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupportedEncoding() throws IOException {
+        ContentEncoding.decode("br", TEXT);
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class MemoryHttpCacheTest {
+
+    private static final List<Header> HEADERS = Collections.<Header>singletonList(new BasicHeader("Content-Type", "text/plain"));
+
+    private static List<String> readIds(final CacheCursor cursor) throws IOException {
+        final List<String> ids = new ArrayList<String>();
+        try {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().getId());
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static MemoryHttpCache createCache(final String... ids) throws IOException {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        for (final String id : ids) {
+            cache.store(id, URI.create("http://example.com/" + id), HEADERS, id.getBytes("UTF-8"));
+        }
+        return cache;
+    }
+
+    @Test
+    public void testStoreAndGet() throws IOException {
+        final MemoryHttpCache cache = createCache("a");
+        final CacheResponse response = cache.get(new CacheRequest("a"));
+        assertEquals(URI.create("http://example.com/a"), response.getUrl());
+        assertEquals("text/plain", response.getContentTypeHeader().getValue());
+        assertEquals("a", IOUtils.toString(response.getContent(), "UTF-8"));
+        assertNull(cache.get(new CacheRequest("b")));
+    }
+
+    @Test
+    public void testHeadHasNoContent() throws IOException {
+        final MemoryHttpCache cache = createCache("a");
+        assertNull(cache.head(new CacheRequest("a")).getContent());
+    }
+
+    @Test
+    public void testStoreGzipped() throws IOException {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write("hello".getBytes("UTF-8"));
+        out.close();
+        cache.store("a", URI.create("http://example.com/a"), HEADERS, ContentEncoding.GZIP, buffer.toByteArray());
+        assertEquals("hello", IOUtils.toString(cache.get(new CacheRequest("a")).getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testFailureDoesNotReplaceSuccess() throws IOException {
+        final MemoryHttpCache cache = createCache("a");
+        cache.storeFailure("a", URI.create("http://example.com/a"), 503, HEADERS, null);
+        final CacheResponse response = cache.get(new CacheRequest("a"));
+        assertTrue(response.isSuccess());
+        assertEquals("a", IOUtils.toString(response.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testFailureReplacesFailure() throws IOException {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        cache.storeFailure("a", URI.create("http://example.com/a"), 503, HEADERS, null);
+        cache.storeFailure("a", URI.create("http://example.com/a"), 404, HEADERS, null);
+        assertEquals(404, cache.get(new CacheRequest("a")).getStatus());
+        cache.store("a", URI.create("http://example.com/a"), HEADERS, new byte[0]);
+        assertTrue(cache.get(new CacheRequest("a")).isSuccess());
+    }
+
+    @Test
+    public void testStoreAllKeepsLastDuplicate() throws IOException {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        final URI url = URI.create("http://example.com/a");
+        final DateTime t = new DateTime(2012, 1, 1, 0, 0, 0, 0);
+        cache.storeAll(Arrays.asList(
+                new CacheResponse("a", url, HEADERS, new ByteArrayInputStream("first".getBytes("UTF-8")), t),
+                new CacheResponse("a", url, HEADERS, new ByteArrayInputStream("second".getBytes("UTF-8")), t.plusDays(1))));
+        assertEquals(1, cache.size());
+        final CacheResponse response = cache.get(new CacheRequest("a"));
+        assertEquals(t.plusDays(1), response.getCached());
+        assertEquals("second", IOUtils.toString(response.getContent(), "UTF-8"));
+    }
+
+    @Test
+    public void testScanInIdOrder() throws IOException {
+        final MemoryHttpCache cache = createCache("c", "a", "b");
+        assertEquals(Arrays.asList("a", "b", "c"), readIds(cache.scan(new CacheFilter())));
+    }
+
+    @Test
+    public void testScanByPrefix() throws IOException {
+        final MemoryHttpCache cache = createCache("a/1", "a/2", "ab", "b/1", "a");
+        assertEquals(Arrays.asList("a/1", "a/2"), readIds(cache.scan(new CacheFilter().withIdPrefix("a/"))));
+        assertEquals(Arrays.asList("a", "a/1", "a/2", "ab"), readIds(cache.scan(new CacheFilter().withIdPrefix("a"))));
+    }
+
+    @Test
+    public void testScanByTime() throws IOException {
+        final MemoryHttpCache cache = new MemoryHttpCache();
+        final DateTime t = new DateTime(2012, 1, 1, 0, 0, 0, 0);
+        final List<CacheResponse> entries = new ArrayList<CacheResponse>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(new CacheResponse("e" + i, URI.create("http://example.com/" + i), HEADERS,
+                    new ByteArrayInputStream(new byte[0]), t.plusDays(i)));
+        }
+        cache.storeAll(entries);
+        assertEquals(Arrays.asList("e1", "e2"), readIds(cache.scan(new CacheFilter()
+                .withCachedAfter(t.plusDays(1)).withCachedBefore(t.plusDays(3)))));
+    }
+
+    @Test
+    public void testPartitionedScanCoversEveryEntryOnce() throws IOException {
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(String.format("id%03d", i));
+        }
+        final MemoryHttpCache cache = createCache(ids.toArray(new String[ids.size()]));
+        final List<CacheCursor> cursors = cache.scan(new CacheFilter(), 7);
+        assertEquals(7, cursors.size());
+        final List<String> seen = new ArrayList<String>();
+        for (final CacheCursor cursor : cursors) {
+            final List<String> part = readIds(cursor);
+            assertFalse(part.isEmpty());
+            seen.addAll(part);
+        }
+        assertEquals(ids, seen);
+        assertEquals(ids.size(), new HashSet<String>(seen).size());
+    }
+
+    @Test
+    public void testPartitionedScanByPrefix() throws IOException {
+        final MemoryHttpCache cache = createCache("a1", "a2", "a3", "a4", "b1", "b2");
+        final Set<String> seen = new HashSet<String>();
+        for (final CacheCursor cursor : cache.scan(new CacheFilter().withIdPrefix("a"), 2)) {
+            seen.addAll(readIds(cursor));
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("a1", "a2", "a3", "a4")), seen);
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.cache;
+
+import org.apache.http.Header;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class PartitionedHttpCacheTest {
+
+    private static final int KEYS = 10000;
+
+    private static List<String> createIds() {
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < KEYS; i++) {
+            ids.add("http://host" + (i % 37) + ".example.com/page/" + i);
+        }
+        return ids;
+    }
+
+    private static Map<String,HttpCache> assign(final PartitionedHttpCache cache, final List<String> ids) {
+        final Map<String,HttpCache> map = new HashMap<String,HttpCache>();
+        for (final String id : ids) {
+            map.put(id, cache.getPartition(id));
+        }
+        return map;
+    }
+
+    @Test
+    public void testKeysSpreadEvenly() {
+        final PartitionedHttpCache cache = new PartitionedHttpCache();
+        final List<HttpCache> partitions = new ArrayList<HttpCache>();
+        for (int i = 0; i < 4; i++) {
+            final MemoryHttpCache partition = new MemoryHttpCache();
+            partitions.add(partition);
+            cache.addPartition("p" + i, partition);
+        }
+        final Map<HttpCache,Integer> counts = new HashMap<HttpCache,Integer>();
+        for (final HttpCache partition : assign(cache, createIds()).values()) {
+            final Integer n = counts.get(partition);
+            counts.put(partition, n == null ? 1 : n + 1);
+        }
+        for (final HttpCache partition : partitions) {
+            final int n = counts.get(partition);
+            assertTrue("Unbalanced: " + n, n > KEYS / 4 * 0.7 && n < KEYS / 4 * 1.3);
+        }
+    }
+
+    @Test
+    public void testAddingPartitionOnlyMovesKeysToIt() {
+        final PartitionedHttpCache cache = new PartitionedHttpCache();
+        for (int i = 0; i < 4; i++) {
+            cache.addPartition("p" + i, new MemoryHttpCache());
+        }
+        final List<String> ids = createIds();
+        final Map<String,HttpCache> before = assign(cache, ids);
+        final MemoryHttpCache added = new MemoryHttpCache();
+        cache.addPartition("p4", added);
+        final Map<String,HttpCache> after = assign(cache, ids);
+
+        int moved = 0;
+        for (final String id : ids) {
+            if (before.get(id) != after.get(id)) {
+                assertSame(added, after.get(id));
+                moved++;
+            }
+        }
+        // Ideally 1/5 of the keys
+        assertTrue("Moved " + moved, moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3);
+    }
+
+    @Test
+    public void testRemovingPartitionOnlyMovesItsKeys() {
+        final PartitionedHttpCache cache = new PartitionedHttpCache();
+        for (int i = 0; i < 5; i++) {
+            cache.addPartition("p" + i, new MemoryHttpCache());
+        }
+        final HttpCache removed = cache.getPartitions().get("p2");
+        final List<String> ids = createIds();
+        final Map<String,HttpCache> before = assign(cache, ids);
+        cache.removePartition("p2");
+        final Map<String,HttpCache> after = assign(cache, ids);
+        for (final String id : ids) {
+            if (before.get(id) != removed) {
+                assertSame(before.get(id), after.get(id));
+            }
+        }
+    }
+
+    @Test
+    public void testRingIndependentOfInsertionOrder() {
+        final String[] names = {"alpha", "beta", "gamma"};
+        final PartitionedHttpCache a = new PartitionedHttpCache();
+        final PartitionedHttpCache b = new PartitionedHttpCache();
+        final Map<HttpCache,String> namesA = new HashMap<HttpCache,String>();
+        final Map<HttpCache,String> namesB = new HashMap<HttpCache,String>();
+        for (int i = 0; i < names.length; i++) {
+            final MemoryHttpCache ca = new MemoryHttpCache();
+            final MemoryHttpCache cb = new MemoryHttpCache();
+            a.addPartition(names[i], ca);
+            b.addPartition(names[names.length - 1 - i], cb);
+            namesA.put(ca, names[i]);
+            namesB.put(cb, names[names.length - 1 - i]);
+        }
+        for (final String id : createIds()) {
+            assertEquals(namesA.get(a.getPartition(id)), namesB.get(b.getPartition(id)));
+        }
+    }
+
+    @Test
+    public void testStoreAllAndGetAllRouteByPartition() throws IOException {
+        final PartitionedHttpCache cache = new PartitionedHttpCache();
+        final MemoryHttpCache p0 = new MemoryHttpCache();
+        final MemoryHttpCache p1 = new MemoryHttpCache();
+        cache.addPartition("p0", p0).addPartition("p1", p1);
+
+        final List<CacheResponse> entries = new ArrayList<CacheResponse>();
+        final List<CacheRequest> requests = new ArrayList<CacheRequest>();
+        for (int i = 0; i < 100; i++) {
+            final String id = "id" + i;
+            entries.add(new CacheResponse(id, URI.create("http://example.com/" + i),
+                    Collections.<Header>emptyList(), null, new DateTime()));
+            requests.add(new CacheRequest(id));
+        }
+        cache.storeAll(entries);
+        assertEquals(100, p0.size() + p1.size());
+        for (final CacheRequest request : requests) {
+            assertNotNull(cache.getPartition(request.getId()).head(request));
+        }
+
+        final Map<String,CacheResponse> found = cache.getAll(requests);
+        assertEquals(100, found.size());
+        final Set<String> scanned = new HashSet<String>();
+        final CacheCursor cursor = cache.scan(new CacheFilter());
+        try {
+            while (cursor.hasNext()) {
+                scanned.add(cursor.next().getId());
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(found.keySet(), scanned);
+    }
+
+}
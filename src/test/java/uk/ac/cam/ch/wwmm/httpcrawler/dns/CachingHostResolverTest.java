@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.dns;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sam Adams
+ */
+public class CachingHostResolverTest {
+
+    /**
+     * Resolves every host to 127.0.0.1, except "unknown" hosts; lookups
+     * of "slow" hosts block until released.
+     */
+    private static class TestResolver implements HostResolver {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final ConcurrentMap<String,AtomicInteger> counts = new ConcurrentHashMap<String,AtomicInteger>();
+
+        public InetAddress[] resolve(final String host) throws UnknownHostException {
+            counts.putIfAbsent(host, new AtomicInteger());
+            counts.get(host).incrementAndGet();
+            if (host.startsWith("slow")) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (host.startsWith("unknown")) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[] {InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1})};
+        }
+
+        int getCount(final String host) {
+            final AtomicInteger count = counts.get(host);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    @Test
+    public void testCachesLookups() throws UnknownHostException {
+        final TestResolver resolver = new TestResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 10, 1, 1, TimeUnit.HOURS);
+        assertEquals("www.example.com", cache.resolve("www.example.com")[0].getHostName());
+        cache.resolve("WWW.Example.COM");
+        assertEquals(1, resolver.getCount("www.example.com"));
+        cache.invalidate("www.example.com");
+        cache.resolve("www.example.com");
+        assertEquals(2, resolver.getCount("www.example.com"));
+    }
+
+    @Test
+    public void testCachesFailures() {
+        final TestResolver resolver = new TestResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 10, 1, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.resolve("unknown.example.com");
+                fail();
+            } catch (UnknownHostException e) {
+                // expected
+            }
+        }
+        assertEquals(1, resolver.getCount("unknown.example.com"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws UnknownHostException {
+        final TestResolver resolver = new TestResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 2, 1, 1, TimeUnit.HOURS);
+        cache.resolve("a");
+        cache.resolve("b");
+        cache.resolve("a");
+        cache.resolve("c");
+        assertEquals(2, cache.size());
+        cache.resolve("a");
+        cache.resolve("b");
+        assertEquals(1, resolver.getCount("a"));
+        assertEquals(2, resolver.getCount("b"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final TestResolver resolver = new TestResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 10, 1, 1, TimeUnit.HOURS);
+        cache.prefetch("www.example.com");
+        final long end = System.currentTimeMillis() + 5000;
+        while (cache.size() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        cache.resolve("www.example.com");
+        assertEquals(1, resolver.getCount("www.example.com"));
+    }
+
+    @Test(timeout = 5000)
+    public void testLookupDoesNotWaitBehindQueuedPrefetches() throws UnknownHostException {
+        final TestResolver resolver = new TestResolver();
+        final CachingHostResolver cache = new CachingHostResolver(resolver, 100, 1, 1, TimeUnit.HOURS);
+        try {
+            // Occupy every prefetch thread, then queue a prefetch behind them
+            for (int i = 0; i < 8; i++) {
+                cache.prefetch("slow" + i + ".example.com");
+            }
+            cache.prefetch("www.example.com");
+            assertEquals(1, cache.resolve("www.example.com").length);
+            assertEquals(1, resolver.getCount("www.example.com"));
+        } finally {
+            resolver.release.countDown();
+        }
+        assertTrue(cache.size() >= 1);
+    }
+
+}
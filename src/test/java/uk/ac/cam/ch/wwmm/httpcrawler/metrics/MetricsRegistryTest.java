@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sam Adams
+ */
+public class MetricsRegistryTest {
+
+    private static MetricsRegistry createRegistry() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_requests_total", "Requests sent").add(42);
+        registry.gauge("test_queue_size", "Requests\nwaiting", new Gauge() {
+            public double getValue() {
+                return 2.5;
+            }
+        });
+        registry.hostGauge("test_host_interval_milliseconds", null, new HostGauge() {
+            public Map<String,? extends Number> getValues() {
+                final Map<String,Long> values = new LinkedHashMap<String,Long>();
+                values.put("a.example.com", 1000L);
+                values.put("b\"example", 250L);
+                return values;
+            }
+        });
+        return registry;
+    }
+
+    @Test
+    public void testCounterIsShared() {
+        final MetricsRegistry registry = createRegistry();
+        final Counter counter = registry.counter("test_requests_total", "Requests sent");
+        assertEquals(42, counter.get());
+        assertSame(counter, registry.counter("test_requests_total", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCounterNameTakenByGauge() {
+        createRegistry().counter("test_queue_size", null);
+    }
+
+    @Test
+    public void testPrometheusText() throws IOException {
+        final StringWriter out = new StringWriter();
+        createRegistry().writePrometheus(out);
+        assertEquals("# TYPE test_host_interval_milliseconds gauge\n"
+                + "test_host_interval_milliseconds{host=\"a.example.com\"} 1000\n"
+                + "test_host_interval_milliseconds{host=\"b\\\"example\"} 250\n"
+                + "# HELP test_queue_size Requests\\nwaiting\n"
+                + "# TYPE test_queue_size gauge\n"
+                + "test_queue_size 2.5\n"
+                + "# HELP test_requests_total Requests sent\n"
+                + "# TYPE test_requests_total counter\n"
+                + "test_requests_total 42\n",
+                out.toString());
+    }
+
+    @Test
+    public void testMBeanAttributes() throws Exception {
+        final MetricsRegistry registry = createRegistry();
+        final ObjectName name = registry.registerMBean("uk.ac.cam.ch.wwmm.httpcrawler:type=Metrics,name=MetricsRegistryTest");
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(42L, server.getAttribute(name, "test_requests_total"));
+            assertEquals(2.5, server.getAttribute(name, "test_queue_size"));
+            assertEquals(1000L, server.getAttribute(name, "test_host_interval_milliseconds{host=\"a.example.com\"}"));
+
+            registry.counter("test_requests_total", null).increment();
+            assertEquals(43L, server.getAttribute(name, "test_requests_total"));
+
+            final AttributeList list = server.getAttributes(name, new String[] {"test_queue_size", "missing"});
+            assertEquals(1, list.size());
+            assertEquals("test_queue_size", ((Attribute) list.get(0)).getName());
+
+            final MBeanInfo info = server.getMBeanInfo(name);
+            final Map<String,MBeanAttributeInfo> attributes = new HashMap<String,MBeanAttributeInfo>();
+            for (final MBeanAttributeInfo attribute : info.getAttributes()) {
+                attributes.put(attribute.getName(), attribute);
+            }
+            assertEquals(4, attributes.size());
+            assertEquals("Requests sent", attributes.get("test_requests_total").getDescription());
+            assertEquals(Long.class.getName(), attributes.get("test_requests_total").getType());
+            assertEquals(Double.class.getName(), attributes.get("test_queue_size").getType());
+            // Per-host attributes have no help of their own
+            assertEquals("test_host_interval_milliseconds{host=\"a.example.com\"}",
+                    attributes.get("test_host_interval_milliseconds{host=\"a.example.com\"}").getDescription());
+
+            try {
+                server.getAttribute(name, "missing");
+                fail();
+            } catch (AttributeNotFoundException e) {
+                // expected
+            }
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
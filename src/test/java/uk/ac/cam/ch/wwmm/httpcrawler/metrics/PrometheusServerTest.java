@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.metrics;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class PrometheusServerTest {
+
+    @Test
+    public void testScrape() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final FetcherMetrics metrics = new FetcherMetrics(registry);
+        metrics.getRequests().add(3);
+        metrics.getBytesFetched().add(1024);
+        final PrometheusServer server = new PrometheusServer(registry, new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        try {
+            final URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(PrometheusServer.CONTENT_TYPE, connection.getContentType());
+            final InputStream in = connection.getInputStream();
+            final String text;
+            try {
+                text = IOUtils.toString(in, "UTF-8");
+            } finally {
+                in.close();
+            }
+            assertTrue(text, text.contains("# HELP httpcrawler_requests_total HTTP requests sent\n"
+                    + "# TYPE httpcrawler_requests_total counter\n"
+                    + "httpcrawler_requests_total 3\n"));
+            assertTrue(text, text.contains("\nhttpcrawler_fetched_bytes_total 1024\n"));
+            assertTrue(text, text.contains("\nhttpcrawler_cache_hits_total 0\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.queue;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerGetRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.GetRequestBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sam Adams
+ */
+public class SpillingRequestQueueTest {
+
+    /** Small enough that a few requests fill a segment */
+    private static final int SEGMENT_SIZE = 256;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("queue", "");
+        FileUtils.forceDelete(directory);
+        FileUtils.forceMkdir(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static CrawlerGetRequest createRequest(final int i) {
+        final URI url = URI.create("http://host" + (i % 3) + ".example.com/page/" + i);
+        return new GetRequestBuilder().withKey(url.toString()).withUrl(url).build();
+    }
+
+    private static void assertRequest(final int i, final CrawlerRequest request) {
+        assertEquals(createRequest(i).getUrl(), request.getUrl());
+        assertEquals(createRequest(i).getId(), request.getId());
+    }
+
+    private int countSegments() {
+        return directory.list().length;
+    }
+
+    @Test
+    public void testFifoAcrossSegments() throws IOException {
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        try {
+            for (int i = 0; i < 100; i++) {
+                queue.add(createRequest(i));
+            }
+            assertEquals(100, queue.size());
+            assertTrue(countSegments() > 5);
+            for (int i = 0; i < 100; i++) {
+                assertRequest(i, queue.poll());
+            }
+            assertTrue(queue.isEmpty());
+            assertNull(queue.poll());
+            // Consumed segments are deleted, leaving the tail
+            assertEquals(1, countSegments());
+        } finally {
+            queue.close();
+        }
+        assertEquals(0, countSegments());
+    }
+
+    @Test
+    public void testInterleaved() throws IOException {
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        try {
+            int added = 0;
+            int taken = 0;
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < 3; i++) {
+                    queue.add(createRequest(added++));
+                }
+                for (int i = 0; i < 2; i++) {
+                    assertRequest(taken++, queue.poll());
+                }
+            }
+            while (taken < added) {
+                assertRequest(taken++, queue.poll());
+            }
+            assertNull(queue.poll());
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testRecoverAfterClose() throws IOException {
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        for (int i = 0; i < 50; i++) {
+            queue.add(createRequest(i));
+        }
+        // Stop part way through a segment, after its hosts were defined
+        for (int i = 0; i < 7; i++) {
+            assertRequest(i, queue.poll());
+        }
+        queue.close();
+
+        final SpillingRequestQueue recovered = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        try {
+            assertEquals(43, recovered.size());
+            recovered.add(createRequest(50));
+            for (int i = 7; i <= 50; i++) {
+                assertRequest(i, recovered.poll());
+            }
+            assertNull(recovered.poll());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void testConsumedSegmentNotReplayed() throws IOException {
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        for (int i = 0; i < 50; i++) {
+            queue.add(createRequest(i));
+        }
+        // Keep the head segment's file when the queue deletes it, as if deletion had failed
+        final String[] names = directory.list();
+        Arrays.sort(names);
+        final File head = new File(directory, names[0]);
+        final File link = new File(directory, "kept");
+        Files.createLink(link.toPath(), head.toPath());
+        int taken = 0;
+        while (head.exists()) {
+            assertRequest(taken++, queue.poll());
+        }
+        assertTrue(link.renameTo(head));
+        queue.close();
+
+        final SpillingRequestQueue recovered = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        try {
+            assertEquals(50 - taken, recovered.size());
+            assertRequest(taken, recovered.poll());
+            assertTrue(!head.exists());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void testRecordsLargerThanSegment() throws IOException {
+        // Every request starts a new segment, which must fit it with its
+        // host definition, though the host was known in the last segment
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", 18);
+        try {
+            for (int i = 0; i < 10; i++) {
+                queue.add(createRequest(i * 3));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertRequest(i * 3, queue.poll());
+            }
+        } finally {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void testPollWaits() throws Exception {
+        final SpillingRequestQueue queue = new SpillingRequestQueue(directory, "q", SEGMENT_SIZE);
+        try {
+            assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                        queue.add(createRequest(0));
+                    } catch (Exception e) {
+                        // the poll below fails
+                    }
+                }
+            }.start();
+            assertRequest(0, queue.poll(5, TimeUnit.SECONDS));
+        } finally {
+            queue.close();
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.sim;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How a simulated host responds, and the politeness it expects of clients.
+ * Rates are probabilities per request, checked in the order: 503, 429,
+ * 500, redirect.
+ *
+ * @author Sam Adams
+ */
+public class HostBehaviour {
+
+    private long latencyMedianMillis = 20;
+    private double latencySigma = 0.5;
+    private double errorRate;
+    private double notFoundRate;
+    private double throttleRate;
+    private double unavailableRate;
+    private int retryAfterSeconds = 1;
+    private double redirectRate;
+    private int bodySize = 4096;
+    private long dripBytesPerSecond;
+    private boolean etags;
+    private boolean ranges;
+    private boolean changingContent;
+    private final AtomicInteger versions = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private volatile int dropAfterBytes;
+    private long minIntervalMillis;
+    private int maxConcurrent = Integer.MAX_VALUE;
+
+    /**
+     * Response times follow a log-normal distribution with the given
+     * median, and sigma controlling the length of the tail.
+     */
+    public HostBehaviour withLatency(final long medianMillis, final double sigma) {
+        this.latencyMedianMillis = medianMillis;
+        this.latencySigma = sigma;
+        return this;
+    }
+
+    public HostBehaviour withErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Answers this proportion of requests with 404.
+     */
+    public HostBehaviour withNotFoundRate(final double notFoundRate) {
+        this.notFoundRate = notFoundRate;
+        return this;
+    }
+
+    /**
+     * Answers this proportion of requests with 429, and 503 for the given
+     * proportion, both with Retry-After.
+     */
+    public HostBehaviour withThrottling(final double throttleRate, final double unavailableRate, final int retryAfterSeconds) {
+        this.throttleRate = throttleRate;
+        this.unavailableRate = unavailableRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Redirects this proportion of requests for a path to
+     * <code>/final</code> + path on the same host.
+     */
+    public HostBehaviour withRedirectRate(final double redirectRate) {
+        this.redirectRate = redirectRate;
+        return this;
+    }
+
+    public HostBehaviour withBodySize(final int bodySize) {
+        this.bodySize = bodySize;
+        return this;
+    }
+
+    /**
+     * Sends bodies at the given rate; 0 to send them at once.
+     */
+    public HostBehaviour withSlowDrip(final long bytesPerSecond) {
+        this.dripBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Sends an ETag for each path, and answers matching If-None-Match
+     * requests with 304.
+     */
+    public HostBehaviour withETags(final boolean etags) {
+        this.etags = etags;
+        return this;
+    }
+
+    /**
+     * Sends Accept-Ranges and a strong ETag with bodies, and answers range
+     * requests with 206 unless their If-Range no longer matches.
+     */
+    public HostBehaviour withRanges(final boolean ranges) {
+        this.ranges = ranges;
+        return this;
+    }
+
+    /**
+     * Gives each path new content, and a new ETag, with every response.
+     */
+    public HostBehaviour withChangingContent(final boolean changingContent) {
+        this.changingContent = changingContent;
+        return this;
+    }
+
+    /**
+     * Cuts the connection after afterBytes of the body for the next count
+     * responses.
+     */
+    public HostBehaviour withDroppedTransfers(final int count, final int afterBytes) {
+        this.dropAfterBytes = afterBytes;
+        this.drops.set(count);
+        return this;
+    }
+
+    /**
+     * Sets the politeness expected of clients: requests arriving within
+     * minIntervalMillis of the previous one, or while maxConcurrent others
+     * are in progress, are counted as violations.
+     */
+    public HostBehaviour withPoliteness(final long minIntervalMillis, final int maxConcurrent) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    long sampleLatency(final Random random) {
+        if (latencyMedianMillis <= 0) {
+            return 0;
+        }
+        return (long) (latencyMedianMillis * Math.exp(latencySigma * random.nextGaussian()));
+    }
+
+    double getErrorRate() {
+        return errorRate;
+    }
+
+    double getNotFoundRate() {
+        return notFoundRate;
+    }
+
+    double getThrottleRate() {
+        return throttleRate;
+    }
+
+    double getUnavailableRate() {
+        return unavailableRate;
+    }
+
+    int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    double getRedirectRate() {
+        return redirectRate;
+    }
+
+    int getBodySize() {
+        return bodySize;
+    }
+
+    long getDripBytesPerSecond() {
+        return dripBytesPerSecond;
+    }
+
+    boolean isETags() {
+        return etags;
+    }
+
+    boolean isRanges() {
+        return ranges;
+    }
+
+    int nextVersion() {
+        return changingContent ? versions.getAndIncrement() : 0;
+    }
+
+    /**
+     * Returns the number of body bytes to send before cutting the
+     * connection, or -1 to send the whole body.
+     */
+    int takeDrop() {
+        for (int n = drops.get(); n > 0; n = drops.get()) {
+            if (drops.compareAndSet(n, n - 1)) {
+                return dropAfterBytes;
+            }
+        }
+        return -1;
+    }
+
+    long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+}
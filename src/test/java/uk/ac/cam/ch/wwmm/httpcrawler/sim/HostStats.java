@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.sim;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What a simulated host has seen of its clients.
+ *
+ * @author Sam Adams
+ */
+public class HostStats {
+
+    private long requests;
+    private long intervalViolations;
+    private long concurrencyViolations;
+    private long retryAfterViolations;
+    private final Map<Integer,Long> statusCounts = new TreeMap<Integer,Long>();
+
+    private long lastArrival;
+    private long retryAfter;
+    private int inFlight;
+
+    /**
+     * Records a request arriving, checking it against the host's politeness
+     * rules.
+     */
+    synchronized void arrive(final HostBehaviour behaviour, final long now) {
+        if (requests > 0 && now - lastArrival < behaviour.getMinIntervalMillis()) {
+            intervalViolations++;
+        }
+        if (inFlight >= behaviour.getMaxConcurrent()) {
+            concurrencyViolations++;
+        }
+        if (now < retryAfter) {
+            retryAfterViolations++;
+        }
+        requests++;
+        inFlight++;
+        lastArrival = now;
+    }
+
+    synchronized void complete(final int status) {
+        inFlight--;
+        final Long count = statusCounts.get(status);
+        statusCounts.put(status, count == null ? 1 : count + 1);
+    }
+
+    synchronized void retryAfter(final long time) {
+        retryAfter = Math.max(retryAfter, time);
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getIntervalViolations() {
+        return intervalViolations;
+    }
+
+    public synchronized long getConcurrencyViolations() {
+        return concurrencyViolations;
+    }
+
+    /**
+     * Returns the number of requests arriving before the end of a
+     * Retry-After period given by the host.
+     */
+    public synchronized long getRetryAfterViolations() {
+        return retryAfterViolations;
+    }
+
+    public synchronized long getViolations() {
+        return intervalViolations + concurrencyViolations + retryAfterViolations;
+    }
+
+    public synchronized Map<Integer,Long> getStatusCounts() {
+        return new TreeMap<Integer,Long>(statusCounts);
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.sim;
+
+import uk.ac.cam.ch.wwmm.httpcrawler.CrawlerResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.GetRequestBuilder;
+import uk.ac.cam.ch.wwmm.httpcrawler.HttpFetcher;
+import uk.ac.cam.ch.wwmm.httpcrawler.HttpFetcherBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the fetcher against a {@link SimulatedWeb} under several scenarios,
+ * reporting throughput, latency percentiles, failures and the politeness
+ * violations counted by the simulated hosts.
+ *
+ * <p>Not run as part of the build; run it with</p>
+ * <pre>mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=uk.ac.cam.ch.wwmm.httpcrawler.sim.LoadBenchmark \
+ *     -Dexec.args="[seconds per scenario] [threads] [hosts] [scenario...]"</pre>
+ *
+ * @author Sam Adams
+ */
+public class LoadBenchmark {
+
+    private static final long MIN_INTERVAL_MILLIS = 50;
+    private static final int MAX_CONCURRENT = 2;
+
+    /**
+     * A configuration of the simulated hosts and of the fetcher.
+     */
+    public abstract static class Scenario {
+
+        private final String name;
+
+        protected Scenario(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        protected abstract void configure(HostBehaviour host);
+
+        protected abstract void configure(HttpFetcherBuilder builder);
+
+    }
+
+    public static final List<Scenario> SCENARIOS = Arrays.asList(
+            new Scenario("baseline") {
+                protected void configure(final HostBehaviour host) {
+                }
+                protected void configure(final HttpFetcherBuilder builder) {
+                    builder.withAdaptiveRateControl(MIN_INTERVAL_MILLIS, 5000, TimeUnit.MILLISECONDS)
+                            .withMaxConnectionsPerHost(MAX_CONCURRENT);
+                }
+            },
+            new Scenario("throttled") {
+                protected void configure(final HostBehaviour host) {
+                    host.withThrottling(0.05, 0.02, 1);
+                }
+                protected void configure(final HttpFetcherBuilder builder) {
+                    builder.withAdaptiveRateControl(MIN_INTERVAL_MILLIS, 5000, TimeUnit.MILLISECONDS)
+                            .withMaxConnectionsPerHost(MAX_CONCURRENT);
+                }
+            },
+            new Scenario("flaky") {
+                protected void configure(final HostBehaviour host) {
+                    host.withLatency(50, 1.0).withErrorRate(0.2);
+                }
+                protected void configure(final HttpFetcherBuilder builder) {
+                    builder.withAdaptiveRateControl(MIN_INTERVAL_MILLIS, 5000, TimeUnit.MILLISECONDS)
+                            .withMaxConnectionsPerHost(MAX_CONCURRENT)
+                            .withCircuitBreaker(5, 2, TimeUnit.SECONDS);
+                }
+            },
+            new Scenario("slow-drip") {
+                protected void configure(final HostBehaviour host) {
+                    host.withBodySize(32 * 1024).withSlowDrip(64 * 1024);
+                }
+                protected void configure(final HttpFetcherBuilder builder) {
+                    builder.withAdaptiveRateControl(MIN_INTERVAL_MILLIS, 5000, TimeUnit.MILLISECONDS)
+                            .withMaxConnectionsPerHost(MAX_CONCURRENT)
+                            .withMaxBandwidth(256 * 1024);
+                }
+            },
+            new Scenario("redirects") {
+                protected void configure(final HostBehaviour host) {
+                    host.withRedirectRate(0.3).withETags(true);
+                }
+                protected void configure(final HttpFetcherBuilder builder) {
+                    builder.withAdaptiveRateControl(MIN_INTERVAL_MILLIS, 5000, TimeUnit.MILLISECONDS)
+                            .withMaxConnectionsPerHost(MAX_CONCURRENT)
+                            .withRedirectCaching(10000, 1, 1, TimeUnit.HOURS);
+                }
+            }
+    );
+
+    private final SimulatedWeb web;
+    private final int threads;
+    private final int hosts;
+    private final long durationMillis;
+
+    public LoadBenchmark(final SimulatedWeb web, final int threads, final int hosts, final long durationMillis) {
+        this.web = web;
+        this.threads = threads;
+        this.hosts = hosts;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * The outcome of running a scenario.
+     */
+    public static class Result {
+
+        private final String scenario;
+        private final long requests;
+        private final long failures;
+        private final long elapsedMillis;
+        private final long[] latencies;
+        private final long violations;
+
+        Result(final String scenario, final long requests, final long failures, final long elapsedMillis,
+               final long[] latencies, final long violations) {
+            this.scenario = scenario;
+            this.requests = requests;
+            this.failures = failures;
+            this.elapsedMillis = elapsedMillis;
+            this.latencies = latencies;
+            this.violations = violations;
+        }
+
+        public double getThroughput() {
+            return requests * 1000.0 / elapsedMillis;
+        }
+
+        public long getLatencyPercentile(final double p) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            return latencies[(int) Math.min(latencies.length - 1, Math.floor(p * latencies.length))];
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getViolations() {
+            return violations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s %8d %8d %10.1f %8d %8d %8d %10d", scenario, requests, failures, getThroughput(),
+                    getLatencyPercentile(0.5), getLatencyPercentile(0.99), getLatencyPercentile(1.0), violations);
+        }
+
+    }
+
+    public Result run(final Scenario scenario) throws InterruptedException {
+        web.reset();
+        for (int i = 0; i < hosts; i++) {
+            final HostBehaviour host = new HostBehaviour().withPoliteness(MIN_INTERVAL_MILLIS, MAX_CONCURRENT);
+            scenario.configure(host);
+            web.setHost(getHostName(i), host);
+        }
+        final HttpFetcherBuilder builder = new HttpFetcherBuilder()
+                .withProxy("127.0.0.1", web.getPort())
+                .withUserAgent("httpcrawler-benchmark");
+        scenario.configure(builder);
+        final HttpFetcher fetcher = builder.build();
+
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicLong failures = new AtomicLong();
+        final List<Long> latencies = new ArrayList<Long>();
+        final long end = System.currentTimeMillis() + durationMillis;
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Thread worker = new Thread("benchmark-" + t) {
+                @Override
+                public void run() {
+                    final List<Long> local = new ArrayList<Long>();
+                    while (System.currentTimeMillis() < end) {
+                        final int n = counter.getAndIncrement();
+                        final URI url = URI.create("http://" + getHostName(n % hosts) + "/page/" + n);
+                        final long start = System.currentTimeMillis();
+                        try {
+                            final CrawlerResponse response = fetcher.execute(new GetRequestBuilder()
+                                    .withKey(url.toString()).withUrl(url).build());
+                            response.getEntityAsString();
+                        } catch (IOException e) {
+                            failures.incrementAndGet();
+                        }
+                        local.add(System.currentTimeMillis() - start);
+                    }
+                    synchronized (latencies) {
+                        latencies.addAll(local);
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        final long start = System.currentTimeMillis();
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        final long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        long violations = 0;
+        for (final HostStats stats : web.getStats().values()) {
+            violations += stats.getViolations();
+        }
+        return new Result(scenario.getName(), sorted.length, failures.get(), elapsed, sorted, violations);
+    }
+
+    private static String getHostName(final int i) {
+        return "host" + i + ".sim";
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int hosts = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final List<String> names = args.length > 3 ? Arrays.asList(args).subList(3, args.length) : null;
+
+        final SimulatedWeb web = new SimulatedWeb();
+        web.start();
+        try {
+            final LoadBenchmark benchmark = new LoadBenchmark(web, threads, hosts, TimeUnit.SECONDS.toMillis(seconds));
+            System.out.println(String.format("%-12s %8s %8s %10s %8s %8s %8s %10s",
+                    "scenario", "requests", "failures", "req/s", "p50(ms)", "p99(ms)", "max(ms)", "violations"));
+            for (final Scenario scenario : SCENARIOS) {
+                if (names == null || names.contains(scenario.getName())) {
+                    System.out.println(benchmark.run(scenario));
+                }
+            }
+        } finally {
+            web.stop();
+        }
+    }
+
+}
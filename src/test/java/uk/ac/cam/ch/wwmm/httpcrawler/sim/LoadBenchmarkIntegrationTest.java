@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.sim;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.HttpFetcherBuilder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs short {@link LoadBenchmark} scenarios, checking that the fetcher as
+ * configured for them stays within the simulated hosts' politeness limits.
+ * Being slow, it runs only in the <code>online</code> profile.
+ *
+ * @author Sam Adams
+ */
+public class LoadBenchmarkIntegrationTest {
+
+    private static final long DURATION_MILLIS = 3000;
+
+    private SimulatedWeb web;
+    private LoadBenchmark benchmark;
+
+    @Before
+    public void setUp() throws IOException {
+        web = new SimulatedWeb();
+        web.start();
+        benchmark = new LoadBenchmark(web, 8, 2, DURATION_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        web.stop();
+    }
+
+    private static LoadBenchmark.Scenario getScenario(final String name) {
+        for (final LoadBenchmark.Scenario scenario : LoadBenchmark.SCENARIOS) {
+            if (scenario.getName().equals(name)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    @Test
+    public void testBaselineIsPolite() throws InterruptedException {
+        final LoadBenchmark.Result result = benchmark.run(getScenario("baseline"));
+        assertTrue(result.getThroughput() > 0);
+        assertEquals(0, result.getFailures());
+        assertEquals(0, result.getViolations());
+    }
+
+    @Test
+    public void testThrottledIsPolite() throws InterruptedException {
+        final LoadBenchmark.Result result = benchmark.run(getScenario("throttled"));
+        assertEquals(0, result.getViolations());
+    }
+
+    @Test
+    public void testRetryAfterHonoured() throws InterruptedException {
+        // As the throttled scenario, but throttled often enough to be sure of testing Retry-After
+        final LoadBenchmark.Result result = benchmark.run(new LoadBenchmark.Scenario("heavily-throttled") {
+            protected void configure(final HostBehaviour host) {
+                host.withThrottling(0.3, 0.1, 1);
+            }
+            protected void configure(final HttpFetcherBuilder builder) {
+                getScenario("throttled").configure(builder);
+            }
+        });
+        assertEquals(0, result.getViolations());
+        long throttled = 0;
+        for (final HostStats stats : web.getStats().values()) {
+            assertEquals(0, stats.getIntervalViolations());
+            assertEquals(0, stats.getConcurrencyViolations());
+            assertEquals(0, stats.getRetryAfterViolations());
+            for (final int status : new int[] {429, 503}) {
+                final Long count = stats.getStatusCounts().get(status);
+                throttled += count == null ? 0 : count;
+            }
+        }
+        // Otherwise Retry-After was never tested
+        assertTrue(throttled > 0);
+    }
+
+}
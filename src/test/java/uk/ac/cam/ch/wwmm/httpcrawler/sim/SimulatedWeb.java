@@ -0,0 +1,298 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.sim;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server simulating any number of web hosts, for exercising
+ * the fetcher without the network.
+ *
+ * <p>Clients reach the simulated hosts by using the server as their HTTP
+ * proxy, e.g. with {@link uk.ac.cam.ch.wwmm.httpcrawler.HttpFetcherBuilder#withProxy},
+ * so URLs keep their virtual hostnames. Each host behaves as configured by
+ * {@link #host(String)}; unconfigured hosts get the default behaviour.</p>
+ *
+ * @author Sam Adams
+ */
+public class SimulatedWeb {
+
+    private static final Logger LOG = Logger.getLogger(SimulatedWeb.class);
+
+    private static final int DRIP_CHUNK = 256;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentMap<String,HostBehaviour> behaviours = new ConcurrentHashMap<String,HostBehaviour>();
+    private final ConcurrentMap<String,HostStats> stats = new ConcurrentHashMap<String,HostStats>();
+    private final ThreadLocal<Random> random;
+
+    public SimulatedWeb() throws IOException {
+        this(0, 1);
+    }
+
+    /**
+     * @param port port to listen on, or 0 for any free port
+     * @param seed seed for the random choices of latency and failures
+     */
+    public SimulatedWeb(final int port, final long seed) throws IOException {
+        this.random = new ThreadLocal<Random>() {
+            @Override
+            protected Random initialValue() {
+                return new Random(seed ^ Thread.currentThread().getId());
+            }
+        };
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } catch (IOException e) {
+                    // Client went away
+                    LOG.debug("Error responding", e);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the behaviour of host, which may be configured in place.
+     */
+    public HostBehaviour host(final String host) {
+        final String key = host.toLowerCase();
+        HostBehaviour behaviour = behaviours.get(key);
+        if (behaviour == null) {
+            final HostBehaviour tmp = behaviours.putIfAbsent(key, behaviour = new HostBehaviour());
+            if (tmp != null) {
+                behaviour = tmp;
+            }
+        }
+        return behaviour;
+    }
+
+    public void setHost(final String host, final HostBehaviour behaviour) {
+        behaviours.put(host.toLowerCase(), behaviour);
+    }
+
+    public HostStats getStats(final String host) {
+        final String key = host.toLowerCase();
+        HostStats s = stats.get(key);
+        if (s == null) {
+            final HostStats tmp = stats.putIfAbsent(key, s = new HostStats());
+            if (tmp != null) {
+                s = tmp;
+            }
+        }
+        return s;
+    }
+
+    public Map<String,HostStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * Forgets what hosts have seen, keeping their behaviour.
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void respond(final HttpExchange exchange) throws IOException {
+        final String host = getHost(exchange);
+        final HostBehaviour behaviour = host(host);
+        final HostStats hostStats = getStats(host);
+        final Random random = this.random.get();
+        hostStats.arrive(behaviour, System.currentTimeMillis());
+        int status = 500;
+        try {
+            sleep(behaviour.sampleLatency(random));
+            final String path = exchange.getRequestURI().getPath();
+            final Headers headers = exchange.getResponseHeaders();
+            final double r = random.nextDouble();
+            double p = behaviour.getUnavailableRate();
+            if (r < p) {
+                status = 503;
+                sendRetryAfter(exchange, hostStats, behaviour, status);
+                return;
+            }
+            p += behaviour.getThrottleRate();
+            if (r < p) {
+                status = 429;
+                sendRetryAfter(exchange, hostStats, behaviour, status);
+                return;
+            }
+            p += behaviour.getErrorRate();
+            if (r < p) {
+                status = 500;
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            p += behaviour.getNotFoundRate();
+            if (r < p) {
+                status = 404;
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            p += behaviour.getRedirectRate();
+            if (r < p && !path.startsWith("/final/")) {
+                status = 302;
+                headers.set("Location", "http://"+host+"/final"+path);
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            if (behaviour.isETags()) {
+                final String etag = "\""+Integer.toHexString(path.hashCode())+"\"";
+                headers.set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    status = 304;
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+            }
+            headers.set("Content-Type", "text/plain; charset=US-ASCII");
+            status = sendBody(exchange, behaviour, path);
+        } finally {
+            hostStats.complete(status);
+        }
+    }
+
+    private static void sendRetryAfter(final HttpExchange exchange, final HostStats hostStats,
+                                       final HostBehaviour behaviour, final int status) throws IOException {
+        final int seconds = behaviour.getRetryAfterSeconds();
+        exchange.getResponseHeaders().set("Retry-After", Integer.toString(seconds));
+        hostStats.retryAfter(System.currentTimeMillis() + seconds * 1000L);
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    /**
+     * Returns the body served for a path: its name, and version if the
+     * host's content changes, repeated to the host's body size.
+     */
+    public static byte[] createBody(final HostBehaviour behaviour, final String path, final int version) throws IOException {
+        final byte[] body = new byte[behaviour.getBodySize()];
+        final byte[] line = (version > 0 ? path+"#"+version+"\n" : path+"\n").getBytes("US-ASCII");
+        for (int i = 0; i < body.length; i++) {
+            body[i] = line[i % line.length];
+        }
+        return body;
+    }
+
+    /**
+     * Sends the body for a path, or the requested range of it, returning
+     * the status sent.
+     */
+    private static int sendBody(final HttpExchange exchange, final HostBehaviour behaviour, final String path) throws IOException {
+        final int version = behaviour.nextVersion();
+        final byte[] body = createBody(behaviour, path, version);
+        int status = 200;
+        int start = 0;
+        if (behaviour.isRanges()) {
+            final Headers headers = exchange.getResponseHeaders();
+            final String etag = "\""+Integer.toHexString(path.hashCode())+"-"+version+"\"";
+            headers.set("Accept-Ranges", "bytes");
+            headers.set("ETag", etag);
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range != null && range.startsWith("bytes=") && range.endsWith("-")
+                    && (ifRange == null || ifRange.equals(etag))) {
+                final int offset = Integer.parseInt(range.substring(6, range.length() - 1));
+                if (offset < body.length) {
+                    status = 206;
+                    start = offset;
+                    headers.set("Content-Range", "bytes "+start+"-"+(body.length - 1)+"/"+body.length);
+                }
+            }
+        }
+        final int length = body.length - start;
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        final int drop = behaviour.takeDrop();
+        final int end = drop >= 0 ? Math.min(body.length, start + drop) : body.length;
+        final OutputStream out = exchange.getResponseBody();
+        final long rate = behaviour.getDripBytesPerSecond();
+        if (rate <= 0) {
+            out.write(body, start, end - start);
+        } else {
+            for (int i = start; i < end; i += DRIP_CHUNK) {
+                final int n = Math.min(DRIP_CHUNK, end - i);
+                out.write(body, i, n);
+                out.flush();
+                sleep(n * 1000L / rate);
+            }
+        }
+        // Closing the exchange short of its content length drops the connection
+        out.flush();
+        return status;
+    }
+
+    /**
+     * Returns the virtual host a request is for: the host of an absolute
+     * request URI, as sent to a proxy, or else the Host header.
+     */
+    private static String getHost(final HttpExchange exchange) {
+        final String uriHost = exchange.getRequestURI().getHost();
+        if (uriHost != null) {
+            return uriHost.toLowerCase();
+        }
+        final String header = exchange.getRequestHeaders().getFirst("Host");
+        if (header == null) {
+            return "localhost";
+        }
+        final int i = header.indexOf(':');
+        return (i == -1 ? header : header.substring(0, i)).toLowerCase();
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+        }
+    }
+
+}
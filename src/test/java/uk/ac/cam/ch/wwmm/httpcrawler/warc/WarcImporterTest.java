@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Sam Adams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.cam.ch.wwmm.httpcrawler.warc;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheFilter;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheRequest;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.CacheResponse;
+import uk.ac.cam.ch.wwmm.httpcrawler.cache.MemoryHttpCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Exports caches with {@link WarcExporter} and reads them back.
+ *
+ * @author Sam Adams
+ */
+public class WarcImporterTest {
+
+    // WARC dates have whole seconds
+    private static final DateTime CACHED = new DateTime(2011, 6, 1, 12, 30, 15, 0);
+
+    private static CacheResponse createEntry(final String id, final int status, final byte[] body, final Header... headers) {
+        return new CacheResponse(id, status, URI.create("http://example.com/" + id), Arrays.asList(headers),
+                new ByteArrayInputStream(body), CACHED.plusMinutes(id.length()));
+    }
+
+    private static List<CacheResponse> createEntries() throws IOException {
+        final byte[] large = new byte[3 * 1024 * 1024 / 2];
+        new Random(1).nextBytes(large);
+        final List<CacheResponse> entries = new ArrayList<CacheResponse>();
+        entries.add(createEntry("page", 200, "<html>caf\u00e9</html>".getBytes("UTF-8"),
+                new BasicHeader("Content-Type", "text/html; charset=UTF-8"), new BasicHeader("X-Multi", "a, b")));
+        entries.add(createEntry("gone/page", 404, "Not here".getBytes("US-ASCII"),
+                new BasicHeader("Content-Type", "text/plain")));
+        entries.add(createEntry("empty", 200, new byte[0]));
+        // Larger than the spool threshold
+        entries.add(createEntry("large.bin", 200, large, new BasicHeader("Content-Type", "application/octet-stream")));
+        return entries;
+    }
+
+    /**
+     * Exports a cache of the test entries and imports it with importer,
+     * which should load them into target.
+     */
+    private static void assertRoundTrip(final boolean compress, final WarcImporter importer,
+                                        final MemoryHttpCache target) throws IOException {
+        final MemoryHttpCache source = new MemoryHttpCache();
+        source.storeAll(createEntries());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WarcWriter writer = new WarcWriter(out, compress);
+        assertEquals(source.size(), new WarcExporter(source).export(new CacheFilter(), writer));
+        writer.close();
+        assertEquals(source.size(), importer.importWarc(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(source.size(), target.size());
+        for (final CacheResponse expected : createEntries()) {
+            final CacheResponse actual = target.get(new CacheRequest(expected.getId()));
+            assertNotNull(expected.getId(), actual);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getStatus(), actual.getStatus());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getCached().getMillis(), actual.getCached().getMillis());
+            assertEquals(toStrings(expected.getHeaders()), toStrings(actual.getHeaders()));
+            assertArrayEquals(IOUtils.toByteArray(expected.getContent()), IOUtils.toByteArray(actual.getContent()));
+        }
+    }
+
+    private static List<String> toStrings(final List<Header> headers) {
+        final List<String> list = new ArrayList<String>();
+        for (final Header header : headers) {
+            list.add(header.getName() + ": " + header.getValue());
+        }
+        return list;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final MemoryHttpCache target = new MemoryHttpCache();
+        assertRoundTrip(false, new WarcImporter(target), target);
+    }
+
+    @Test
+    public void testRoundTripCompressed() throws IOException {
+        final MemoryHttpCache target = new MemoryHttpCache();
+        assertRoundTrip(true, new WarcImporter(target), target);
+    }
+
+    @Test
+    public void testRoundTripInSmallBatches() throws IOException {
+        final MemoryHttpCache target = new MemoryHttpCache();
+        final WarcImporter importer = new WarcImporter(target);
+        importer.setBatchSize(2);
+        importer.setMaxBatchBytes(1024);
+        assertRoundTrip(true, importer, target);
+    }
+
+}